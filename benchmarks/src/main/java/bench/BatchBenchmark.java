@@ -0,0 +1,116 @@
+package bench;
+
+import models.Geometry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import services.FileSystem;
+
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Guardar y eliminar muchos archivos chicos de a uno contra hacerlo en lote
+ * con saveAll y deleteAll.
+ *
+ * Cada invocación parte del volumen vacío: lo que se guarda se borra después
+ * y lo que se borra se guarda antes, fuera de la medición.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchBenchmark {
+
+    @Param({"100", "1000"})
+    public int files;
+
+    @Param({"64", "640"})
+    public int fileSize;
+
+    private FileSystem fileSystem;
+    private Map<String, byte[]> contents;
+    private PrintStream out;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        out = Quiet.silence();
+
+        fileSystem = new FileSystem(Geometry.of(65536, 64));
+        byte[] content = Quiet.content(fileSize).getBytes(StandardCharsets.UTF_8);
+
+        contents = new LinkedHashMap<>();
+        for (int i = 0; i < files; i++) {
+            contents.put("file-" + i, content);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fileSystem.close();
+        Quiet.restore(out);
+    }
+
+    /**
+     * Los archivos no existen al empezar la invocación.
+     */
+    @State(Scope.Thread)
+    public static class Absent {
+
+        @TearDown(Level.Invocation)
+        public void delete(BatchBenchmark batch) {
+            batch.fileSystem.deleteAll(batch.contents.keySet());
+        }
+    }
+
+    /**
+     * Los archivos existen y no se borran: la prueba los elimina.
+     */
+    @State(Scope.Thread)
+    public static class ToDelete {
+
+        @Setup(Level.Invocation)
+        public void create(BatchBenchmark batch) {
+            batch.fileSystem.saveAll(batch.contents);
+        }
+    }
+
+    @Benchmark
+    public void saveEach(Absent absent) {
+        for (Map.Entry<String, byte[]> file : contents.entrySet()) {
+            fileSystem.saveFile(file.getKey(), file.getValue());
+        }
+    }
+
+    @Benchmark
+    public void saveAll(Absent absent) {
+        fileSystem.saveAll(contents);
+    }
+
+    @Benchmark
+    public void deleteEach(ToDelete toDelete) {
+        for (String name : contents.keySet()) {
+            fileSystem.deleteFile(name);
+        }
+    }
+
+    @Benchmark
+    public void deleteAll(ToDelete toDelete) {
+        fileSystem.deleteAll(contents.keySet());
+    }
+}
@@ -0,0 +1,83 @@
+package bench;
+
+import models.Geometry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import services.FileSystem;
+
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Revisar un volumen lleno de archivos (ver FileSystem.check).
+ *
+ * La revisión usa el pool común de fork/join; para compararla con un solo
+ * hilo se corre con -jvmArgsAppend -Djava.util.concurrent.ForkJoinPool.common.parallelism=1.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CheckBenchmark {
+
+    private static final int BATCH_FILES = 1000;
+
+    @Param({"65536", "1048576"})
+    public int volumeBlocks;
+
+    @Param({"64"})
+    public int blockSize;
+
+    @Param({"4", "64"})
+    public int fileBlocks;
+
+    private FileSystem fileSystem;
+    private PrintStream out;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        out = Quiet.silence();
+
+        Geometry geometry = Geometry.of(volumeBlocks, blockSize);
+        fileSystem = new FileSystem(geometry);
+        byte[] content = Quiet.content(fileBlocks * blockSize).getBytes(StandardCharsets.UTF_8);
+
+        // Llenar el 90% del volumen, de a lotes para no pagar un journal por archivo
+        int files = (int) (geometry.getDataBlocks() * 0.9) / fileBlocks;
+        Map<String, byte[]> batch = new LinkedHashMap<>();
+        for (int i = 0; i < files; i++) {
+            batch.put("file-" + i, content);
+            if (batch.size() == BATCH_FILES || i == files - 1) {
+                fileSystem.saveAll(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fileSystem.close();
+        Quiet.restore(out);
+    }
+
+    @Benchmark
+    public int check() {
+        return fileSystem.check(false);
+    }
+}
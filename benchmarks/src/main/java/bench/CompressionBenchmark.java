@@ -0,0 +1,103 @@
+package bench;
+
+import models.Geometry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import services.FileSystem;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Guardar un archivo de texto y leer tramos cortos de él, con y sin compresión.
+ *
+ * El texto son palabras repetidas al azar, para que comprima como un texto
+ * real y no como un patrón fijo.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+
+    private static final String NAME = "bench";
+    private static final String SAVED = "saved";
+    private static final int READ_LENGTH = 4096;
+
+    private static final String[] WORDS = {"bloque ", "archivo ", "cadena ", "directorio ", "tramo ", "FAT ", "\n"};
+
+    @Param({"false", "true"})
+    public boolean compressed;
+
+    @Param({"1048576"})
+    public int fileSize;
+
+    private FileSystem fileSystem;
+    private byte[] content;
+    private final Random random = new Random(42);
+    private final byte[] buffer = new byte[READ_LENGTH];
+    private PrintStream out;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        out = Quiet.silence();
+
+        fileSystem = new FileSystem(Geometry.of(65536, 512));
+        fileSystem.setCompression(compressed);
+
+        StringBuilder text = new StringBuilder(fileSize);
+        while (text.length() < fileSize) {
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        content = text.substring(0, fileSize).getBytes(StandardCharsets.UTF_8);
+        fileSystem.saveFile(NAME, content);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fileSystem.close();
+        Quiet.restore(out);
+    }
+
+    /**
+     * El archivo que guarda la prueba no existe al empezar la invocación.
+     */
+    @State(Scope.Thread)
+    public static class Absent {
+
+        @TearDown(Level.Invocation)
+        public void delete(CompressionBenchmark benchmark) {
+            benchmark.fileSystem.deleteFile(SAVED);
+        }
+    }
+
+    @Benchmark
+    public void save(Absent absent) {
+        fileSystem.saveFile(SAVED, content);
+    }
+
+    @Benchmark
+    public int readRange() throws IOException {
+        long offset = random.nextInt(fileSize - READ_LENGTH);
+        try (InputStream input = fileSystem.openInput(NAME, offset, READ_LENGTH)) {
+            return input.readNBytes(buffer, 0, READ_LENGTH);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package bench;
+
+import models.Directory;
+import models.MetadataFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import static constants.Constants.LIST_PAGE_SIZE;
+
+/**
+ * Búsquedas por nombre y listados por páginas en el directorio.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DirectoryBenchmark {
+
+    @Param({"100", "100000"})
+    public int files;
+
+    private Directory directory;
+    private String[] names;
+    private String[] missing;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        directory = new Directory();
+        names = new String[files];
+        missing = new String[files];
+
+        for (int i = 0; i < files; i++) {
+            names[i] = "file-" + i;
+            missing[i] = "missing-" + i;
+            directory.addFile(names[i], new MetadataFile(names[i], 0, i));
+        }
+    }
+
+    private int nextIndex() {
+        int index = next;
+        next = next + 1 == files ? 0 : next + 1;
+        return index;
+    }
+
+    @Benchmark
+    public MetadataFile getMetadata() {
+        return directory.getMetadata(names[nextIndex()]);
+    }
+
+    @Benchmark
+    public boolean existsMissing() {
+        return directory.exists(missing[nextIndex()]);
+    }
+
+    @Benchmark
+    public int firstPageByName() {
+        return directory.page(Directory.Order.NAME, "", null, LIST_PAGE_SIZE).getEntries().size();
+    }
+
+    @Benchmark
+    public int prefixPage() {
+        return directory.page(Directory.Order.NAME, "file-99", null, LIST_PAGE_SIZE).getEntries().size();
+    }
+}
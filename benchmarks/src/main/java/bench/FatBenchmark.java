@@ -0,0 +1,103 @@
+package bench;
+
+import models.Fat;
+import models.Geometry;
+import models.IntList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Búsqueda de bloques libres y recorrido de cadenas directamente sobre la FAT,
+ * sin disco ni directorio.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FatBenchmark {
+
+    @Param({"16384", "262144"})
+    public int volumeBlocks;
+
+    @Param({"64"})
+    public int blockSize;
+
+    @Param({"10", "1024"})
+    public int fileBlocks;
+
+    @Param({"0.0", "0.5", "0.9"})
+    public double fillRatio;
+
+    @Param({"0.0", "0.5"})
+    public double fragmentation;
+
+    private Fat fat;
+    private int firstBlock;
+
+    private final IntList blocks = new IntList();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Geometry geometry = Geometry.of(volumeBlocks, blockSize);
+        fat = new Fat(geometry);
+
+        // Ocupar bloques sueltos de a uno, como archivos de un bloque
+        int used = (int) (geometry.getDataBlocks() * fillRatio);
+        IntList single = new IntList(1);
+        IntList filled = new IntList(used);
+        for (int i = 0; i < used; i++) {
+            fat.allocateBlocks(1, -1, single);
+            fat.updateFAT(single);
+            filled.add(single.getFirst());
+        }
+
+        Random random = new Random(42);
+        for (int i = 0; i < filled.size(); i++) {
+            if (random.nextDouble() < fragmentation) {
+                fat.setAvailable(filled.get(i));
+            }
+        }
+
+        // Cadena de prueba, contigua si hay lugar o repartida entre los huecos
+        fat.allocateBlocks(fileBlocks, -1, blocks);
+        fat.updateFAT(blocks);
+        firstBlock = blocks.getFirst();
+    }
+
+    @Benchmark
+    public IntList searchAvailableBlocks() {
+        fat.searchAvailableBlocks(fileBlocks, -1, blocks);
+        return blocks;
+    }
+
+    @Benchmark
+    public IntList getBlockChain() {
+        fat.getBlockChain(firstBlock, blocks);
+        return blocks;
+    }
+
+    /**
+     * Recorrer la cadena en la FAT, sin índice en caché.
+     */
+    @Benchmark
+    public IntList getBlockChainUncached() {
+        fat.invalidateChain(firstBlock);
+        fat.getBlockChain(firstBlock, blocks);
+        return blocks;
+    }
+}
@@ -0,0 +1,94 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Operaciones de archivo de FileSystem sobre un volumen con distintos niveles
+ * de ocupación y fragmentación.
+ *
+ * Cada invocación parte del mismo estado: el archivo que se crea se borra
+ * después, y el que se borra se crea antes, fuera de la medición.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileSystemBenchmark {
+
+    private static final String NAME = "bench";
+
+    /**
+     * El archivo no existe al empezar la invocación.
+     */
+    @State(Scope.Thread)
+    public static class Absent {
+
+        @TearDown(Level.Invocation)
+        public void delete(Volume volume) {
+            volume.fileSystem.deleteFile(NAME);
+        }
+    }
+
+    /**
+     * El archivo existe con el contenido de prueba.
+     */
+    @State(Scope.Thread)
+    public static class Present {
+
+        @Setup(Level.Invocation)
+        public void create(Volume volume) {
+            volume.fileSystem.saveFile(NAME, volume.content);
+        }
+
+        @TearDown(Level.Invocation)
+        public void delete(Volume volume) {
+            volume.fileSystem.deleteFile(NAME);
+        }
+    }
+
+    /**
+     * El archivo existe y no se borra: la prueba lo elimina.
+     */
+    @State(Scope.Thread)
+    public static class ToDelete {
+
+        @Setup(Level.Invocation)
+        public void create(Volume volume) {
+            volume.fileSystem.saveFile(NAME, volume.content);
+        }
+    }
+
+    @Benchmark
+    public void saveFileCreate(Volume volume, Absent absent) {
+        volume.fileSystem.saveFile(NAME, volume.content);
+    }
+
+    @Benchmark
+    public void saveFileAppend(Volume volume, Present present) {
+        volume.fileSystem.saveFile(NAME, volume.content);
+    }
+
+    @Benchmark
+    public void readFile(Volume volume, Present present) {
+        volume.fileSystem.readFile(NAME);
+    }
+
+    @Benchmark
+    public void deleteFile(Volume volume, ToDelete toDelete) {
+        volume.fileSystem.deleteFile(NAME);
+    }
+}
@@ -0,0 +1,36 @@
+package bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Silenciar la salida por consola del sistema de archivos durante las mediciones.
+ */
+final class Quiet {
+
+    private static final PrintStream NULL = new PrintStream(OutputStream.nullOutputStream());
+
+    private Quiet() {
+    }
+
+    static PrintStream silence() {
+        PrintStream original = System.out;
+        System.setOut(NULL);
+        return original;
+    }
+
+    static void restore(PrintStream original) {
+        System.setOut(original);
+    }
+
+    /**
+     * Contenido de prueba de length caracteres.
+     */
+    static String content(int length) {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append((char) ('a' + i % 26));
+        }
+        return builder.toString();
+    }
+}
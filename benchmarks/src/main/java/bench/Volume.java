@@ -0,0 +1,77 @@
+package bench;
+
+import models.Geometry;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import services.FileSystem;
+
+import java.io.PrintStream;
+import java.util.Random;
+
+/**
+ * Volumen en memoria preparado antes de cada prueba.
+ *
+ * fillRatio es la fracción de bloques de datos ocupada con archivos de un
+ * bloque; fragmentation es la fracción de esos archivos que luego se borra al
+ * azar, dejando huecos sueltos que las políticas contiguas tienen que saltar.
+ */
+@State(Scope.Benchmark)
+public class Volume {
+
+    @Param({"16384", "262144"})
+    public int volumeBlocks;
+
+    @Param({"64"})
+    public int blockSize;
+
+    @Param({"640", "65536"})
+    public int fileSize;
+
+    @Param({"0.0", "0.5", "0.9"})
+    public double fillRatio;
+
+    @Param({"0.0", "0.5"})
+    public double fragmentation;
+
+    FileSystem fileSystem;
+    String content;
+    int fillerFiles;
+
+    private PrintStream out;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        out = Quiet.silence();
+
+        Geometry geometry = Geometry.of(volumeBlocks, blockSize);
+        fileSystem = new FileSystem(geometry);
+        content = Quiet.content(fileSize);
+
+        String filler = Quiet.content(blockSize);
+        fillerFiles = (int) (geometry.getDataBlocks() * fillRatio);
+        for (int i = 0; i < fillerFiles; i++) {
+            fileSystem.saveFile(fillerName(i), filler);
+        }
+
+        Random random = new Random(42);
+        for (int i = 0; i < fillerFiles; i++) {
+            if (random.nextDouble() < fragmentation) {
+                fileSystem.deleteFile(fillerName(i));
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fileSystem.close();
+        Quiet.restore(out);
+    }
+
+    static String fillerName(int i) {
+        return "fill-" + i;
+    }
+}
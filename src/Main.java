@@ -1,10 +1,50 @@
 
+import models.BlockStorage;
+import models.CachedBlockStorage;
+import models.Disk;
+import models.Geometry;
+import models.MappedBlockStorage;
+import services.FileSystem;
 import ui.Console;
 
+import java.nio.file.Path;
+
+import static constants.Constants.DEFAULT_BLOCK_CACHE_BYTES;
+
 public class Main {
     public static void main(String[] args) {
 
-        Console console = new Console();
+        // Uso: Main [imagen [bloques tamañoBloque]]
+        // Sin imagen el disco vive en memoria; una imagen existente conserva su geometría.
+        // -Dcache=bytes cambia la memoria de la caché de bloques de la imagen (0 la desactiva).
+        // -Dcheck=true revisa el volumen al montarlo; -Dcheck=repair además lo repara.
+        Geometry geometry = args.length >= 3
+                ? Geometry.of(Integer.parseInt(args[1]), Integer.parseInt(args[2]))
+                : Geometry.defaults();
+
+        Disk disk;
+        if (args.length > 0) {
+            Path image = Path.of(args[0]);
+            Geometry stored = MappedBlockStorage.readGeometry(image);
+            if (stored != null) geometry = stored;
+
+            BlockStorage storage = MappedBlockStorage.open(image, geometry);
+            long cacheBytes = Long.getLong("cache", DEFAULT_BLOCK_CACHE_BYTES);
+            if (cacheBytes > 0) {
+                storage = new CachedBlockStorage(storage, geometry.getBlockSize(), cacheBytes);
+            }
+            disk = new Disk(geometry, storage);
+        } else {
+            disk = new Disk(geometry);
+        }
+
+        FileSystem fileSystem = new FileSystem(disk);
+        String check = System.getProperty("check", "false");
+        if (check.equals("repair") || Boolean.parseBoolean(check)) {
+            fileSystem.check(check.equals("repair"));
+        }
+
+        Console console = new Console(fileSystem);
         console.start();
     }
 }
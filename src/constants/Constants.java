@@ -1,18 +1,58 @@
 package constants;
 
+import java.util.zip.Deflater;
+
 public class Constants {
 
-    // Configuración del disco
-    public static final int TOTAL_BLOCKS = 100;
-    public static final int BLOCK_SIZE = 10;
+    // Configuración por defecto del disco (ver models.Geometry)
+    public static final int DEFAULT_TOTAL_BLOCKS = 100;
+    public static final int DEFAULT_BLOCK_SIZE = 10;
 
-    // Bloques reservados para el sistema (concepto educativo)
+    // Bloques reservados para el sistema: siempre al inicio del volumen,
+    // como mínimo 10 y en volúmenes grandes 1 de cada RESERVED_BLOCKS_RATIO
     public static final int RESERVED_BLOCKS_START = 0;
-    public static final int RESERVED_BLOCKS_END = 9;
-    public static final int RESERVED_BLOCKS_COUNT = 10;
+    public static final int MIN_RESERVED_BLOCKS = 10;
+    public static final int RESERVED_BLOCKS_RATIO = 100;
+
+    // Tamaño del buffer para leer archivos por tramos
+    public static final int READ_BUFFER_SIZE = 8192;
+
+    // Franjas de la tabla de locks por archivo (potencia de 2)
+    public static final int FILE_LOCK_STRIPES = 256;
+
+    // Rutas de directorios resueltas que se recuerdan (ver models.DirectoryTree)
+    public static final int DENTRY_CACHE_SIZE = 1024;
+
+    // Entradas por página al listar un directorio
+    public static final int LIST_PAGE_SIZE = 50;
+
+    // Rachas libres que mira una política de asignación antes de conformarse
+    // con bloques sueltos (ver models.AllocationPolicy)
+    public static final int ALLOCATION_RUN_PROBES = 64;
+
+    // Bloques por segundo que mueve el desfragmentador si no se indica otro valor
+    public static final int DEFAULT_DEFRAG_RATE = 1000;
+
+    // Memoria para la caché de bloques de una imagen (ver models.CachedBlockStorage)
+    public static final long DEFAULT_BLOCK_CACHE_BYTES = 8L * 1024 * 1024;
+
+    // Ventana de lectura anticipada en bloques: empieza en el mínimo y se
+    // duplica mientras la lectura sigue siendo secuencial (ver services.Readahead)
+    public static final int READAHEAD_MIN_BLOCKS = 4;
+    public static final int READAHEAD_MAX_BLOCKS = 256;
+    public static final int READAHEAD_QUEUE_SIZE = 64;
+    // En tramos más cortos pedir los bloques por adelantado cuesta más de lo que ahorra
+    public static final int READAHEAD_MIN_RANGE_BLOCKS = 32;
+
+    // Archivos comprimidos: bytes originales por tramo y nivel de Deflater (ver models.ChunkIndex)
+    public static final int COMPRESSION_CHUNK_SIZE = 64 * 1024;
+    public static final int COMPRESSION_LEVEL = Deflater.BEST_SPEED;
 
-    // Primer bloque disponible para archivos
-    public static final int FIRST_AVAILABLE_BLOCK = 10;
+    // Revisión del volumen: archivos y bloques por tarea de fork/join, y
+    // problemas que se listan uno por uno (ver services.ConsistencyCheck)
+    public static final int CHECK_FILE_GRAIN = 64;
+    public static final int CHECK_BLOCK_GRAIN = 1 << 16;
+    public static final int CHECK_REPORT_LIMIT = 20;
 
     // Valores especiales de FAT
     public static final int AVAILABLE_BLOCK = 0;
@@ -22,6 +62,10 @@ public class Constants {
     // Mensajes del sistema
     public static final String MSG_DISK_OUT_OF_SPACE = "ERROR: No hay suficiente espacio en el disco.";
     public static final String MSG_FILE_NOT_FOUND = "ERROR: Archivo no encontrado.";
+    public static final String MSG_DIRECTORY_NOT_FOUND = "ERROR: Directorio no encontrado.";
+    public static final String MSG_IS_DIRECTORY = "ERROR: La ruta es un directorio.";
+    public static final String MSG_DIRECTORY_NOT_EMPTY = "ERROR: El directorio no está vacío.";
+    public static final String MSG_FILE_OPEN = "ERROR: El archivo está abierto para escritura.";
     public static final String MSG_FILE_SAVED = "Archivo guardado correctamente.";
     public static final String MSG_SYSTEM_FORMATTED = "Sistema formateado correctamente.";
 }
\ No newline at end of file
@@ -0,0 +1,52 @@
+package models;
+
+/**
+ * Política para elegir qué bloques libres recibe un archivo.
+ *
+ * Todas intentan primero una racha contigua de bloques y, si no existe,
+ * completan con bloques sueltos para no rechazar un archivo que entra. La
+ * búsqueda de la racha mira a lo sumo ALLOCATION_RUN_PROBES rachas libres:
+ * en un volumen fragmentado recorrerlas todas haría de cada asignación un
+ * recorrido del volumen entero.
+ */
+public interface AllocationPolicy {
+
+    String getName();
+
+    /**
+     * Agregar a blocks (vacía) requiredBlocks bloques libres a partir de firstAvailableBlock.
+     * Agrega menos bloques si no hay espacio suficiente.
+     */
+    void allocate(FreeBlockBitmap freeBlocks, int firstAvailableBlock, int requiredBlocks, IntList blocks);
+
+    /**
+     * Crear una política a partir de su nombre (first, best o next).
+     */
+    static AllocationPolicy forName(String name) {
+        return switch (name.toLowerCase()) {
+            case "first" -> new FirstFitPolicy();
+            case "best" -> new BestFitPolicy();
+            case "next" -> new NextFitPolicy();
+            default -> throw new IllegalArgumentException("Política de asignación desconocida: " + name);
+        };
+    }
+
+    /**
+     * Agregar bloques libres sueltos desde fromBlock, volviendo a firstAvailableBlock
+     * al llegar al final, hasta completar requiredBlocks.
+     */
+    static void addScattered(IntList blocks, FreeBlockBitmap freeBlocks,
+                             int firstAvailableBlock, int fromBlock, int requiredBlocks) {
+        int block = freeBlocks.nextFree(fromBlock);
+        while (block != -1 && blocks.size() < requiredBlocks) {
+            blocks.add(block);
+            block = freeBlocks.nextFree(block + 1);
+        }
+
+        block = freeBlocks.nextFree(firstAvailableBlock);
+        while (block != -1 && block < fromBlock && blocks.size() < requiredBlocks) {
+            blocks.add(block);
+            block = freeBlocks.nextFree(block + 1);
+        }
+    }
+}
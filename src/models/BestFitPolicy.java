@@ -0,0 +1,45 @@
+package models;
+
+import static constants.Constants.ALLOCATION_RUN_PROBES;
+
+/**
+ * Mejor ajuste: la racha libre más chica donde entra el archivo, entre las
+ * primeras ALLOCATION_RUN_PROBES rachas, para dejar las rachas grandes a los
+ * archivos grandes.
+ */
+public class BestFitPolicy implements AllocationPolicy {
+
+    @Override
+    public String getName() {
+        return "best";
+    }
+
+    @Override
+    public void allocate(FreeBlockBitmap freeBlocks, int firstAvailableBlock, int requiredBlocks, IntList blocks) {
+
+        if (freeBlocks.freeCount() >= requiredBlocks) {
+            int bestStart = -1;
+            int bestLength = Integer.MAX_VALUE;
+
+            int start = freeBlocks.nextFree(firstAvailableBlock);
+            for (int probes = 0; start != -1 && probes < ALLOCATION_RUN_PROBES; probes++) {
+                int run = freeBlocks.freeRunLength(start, Integer.MAX_VALUE);
+
+                if (run >= requiredBlocks && run < bestLength) {
+                    bestStart = start;
+                    bestLength = run;
+                    // Una racha exacta no se puede mejorar
+                    if (run == requiredBlocks) break;
+                }
+                start = freeBlocks.nextFree(start + run);
+            }
+
+            if (bestStart != -1) {
+                blocks.addRun(bestStart, requiredBlocks);
+                return;
+            }
+        }
+
+        AllocationPolicy.addScattered(blocks, freeBlocks, firstAvailableBlock, firstAvailableBlock, requiredBlocks);
+    }
+}
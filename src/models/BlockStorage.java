@@ -0,0 +1,66 @@
+package models;
+
+import java.io.Closeable;
+
+/**
+ * Almacenamiento físico de los bloques del disco. Cada bloque guarda hasta
+ * BLOCK_SIZE bytes.
+ */
+public interface BlockStorage extends Closeable {
+
+    int totalBlocks();
+
+    /**
+     * Escribir en un bloque length bytes de content desde offset.
+     */
+    void write(int blockNumber, byte[] content, int offset, int length);
+
+    /**
+     * Copiar hasta length bytes del bloque, empezando en from, a target[offset...].
+     * Devuelve la cantidad copiada.
+     */
+    int read(int blockNumber, int from, byte[] target, int offset, int length);
+
+    /**
+     * Copiar a target desde offset el contenido de los bloques consecutivos
+     * [firstBlock, firstBlock + count), uno detrás de otro y leídos de una vez.
+     * target tiene que tener lugar para count bloques llenos. Devuelve la
+     * cantidad de bytes copiados.
+     */
+    int readRun(int firstBlock, int count, byte[] target, int offset);
+
+    /**
+     * Escribir de una vez los bloques consecutivos [firstBlock, firstBlock + count)
+     * con length bytes de content desde offset: todos llenos salvo el
+     * último, que lleva lo que sobra.
+     */
+    void writeRun(int firstBlock, int count, byte[] content, int offset, int length);
+
+    /**
+     * Cantidad de bytes ocupados en un bloque.
+     */
+    int length(int blockNumber);
+
+    void clear(int blockNumber);
+
+    /**
+     * Traer del medio los bloques consecutivos [firstBlock, firstBlock + count)
+     * en una sola lectura, para que leerlos después no espere al dispositivo.
+     */
+    void prefetch(int firstBlock, int count);
+
+    void format();
+
+    /**
+     * Forzar los cambios pendientes al medio físico.
+     */
+    void flush();
+
+    /**
+     * Journal que hace persistentes la FAT y el directorio de este almacenamiento.
+     */
+    Journal openJournal();
+
+    @Override
+    void close();
+}
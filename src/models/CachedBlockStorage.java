@@ -0,0 +1,447 @@
+package models;
+
+import java.util.Arrays;
+
+/**
+ * Caché de bloques delante de otro almacenamiento, de tamaño fijo según un
+ * presupuesto de memoria.
+ *
+ * Los bloques se guardan en marcos de un único arreglo de bytes y se
+ * desalojan con el algoritmo CLOCK: un bloque recién cargado entra sin
+ * referencia y solo la gana al volver a leerse, así que un recorrido que lee
+ * cada bloque una vez no desplaza a los bloques de los archivos que se leen
+ * seguido.
+ *
+ * Las escrituras quedan en la caché marcadas como sucias y se escriben al
+ * almacenamiento de a tandas, en orden de bloque: antes de confirmar cada
+ * transacción (ver WriteBackJournal), en flush, cuando las sucias pasan de la
+ * mitad de los marcos, o una por una al desalojarlas. Borrar un bloque se
+ * hace directo en el almacenamiento.
+ *
+ * Todos los métodos se sincronizan con la caché.
+ */
+public class CachedBlockStorage implements BlockStorage {
+
+    private static final byte REFERENCED = 1;
+    private static final byte DIRTY = 2;
+    // Traído por lectura anticipada y todavía sin leer
+    private static final byte PREFETCHED = 4;
+
+    private static final int NO_FRAME = -1;
+    private static final int MIN_FRAMES = 16;
+
+    // Largo, bloque y opciones de cada marco
+    private static final int FRAME_OVERHEAD = 2 * Integer.BYTES + 1;
+
+    private final BlockStorage storage;
+    private final int blockSize;
+    private final int frames;
+
+    private final byte[] contents;
+    private final int[] lengths;
+    private final int[] blocks;
+    private final byte[] flags;
+
+    // Marco de cada bloque, NO_FRAME si no está en la caché
+    private final int[] frameOf;
+
+    // Marcos usados alguna vez y la aguja del reloj
+    private int used;
+    private int hand;
+
+    // Marcos que se ensuciaron desde la última tanda; puede haber repetidos
+    private final IntList dirtyFrames = new IntList();
+    private final int dirtyLimit;
+    private byte[] runBuffer = new byte[0];
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long writtenBack;
+    private long prefetched;
+    private long prefetchHits;
+
+    /**
+     * Caché que ocupa como mucho budgetBytes de heap en sus marcos.
+     */
+    public CachedBlockStorage(BlockStorage storage, int blockSize, long budgetBytes) {
+        long perFrame = (long) blockSize + FRAME_OVERHEAD;
+        // Los marcos comparten un arreglo, que no puede pasar de Integer.MAX_VALUE
+        long fit = Math.min(Math.max(MIN_FRAMES, budgetBytes / perFrame), Integer.MAX_VALUE / blockSize);
+
+        this.storage = storage;
+        this.blockSize = blockSize;
+        this.frames = (int) Math.min(fit, storage.totalBlocks());
+        this.contents = new byte[frames * blockSize];
+        this.lengths = new int[frames];
+        this.blocks = new int[frames];
+        this.flags = new byte[frames];
+        this.frameOf = new int[storage.totalBlocks()];
+        this.dirtyLimit = Math.max(1, frames / 2);
+
+        Arrays.fill(frameOf, NO_FRAME);
+    }
+
+    /**
+     * Marco con el contenido de un bloque, cargándolo si no está.
+     */
+    private int load(int blockNumber) {
+        int frame = frameOf[blockNumber];
+        if (frame != NO_FRAME) {
+            hit(frame);
+            return frame;
+        }
+
+        misses++;
+        frame = take(blockNumber);
+        lengths[frame] = storage.read(blockNumber, 0, contents, frame * blockSize, blockSize);
+        return frame;
+    }
+
+    private void hit(int frame) {
+        hits++;
+        if ((flags[frame] & PREFETCHED) != 0) {
+            prefetchHits++;
+            flags[frame] &= ~PREFETCHED;
+        }
+        flags[frame] |= REFERENCED;
+    }
+
+    /**
+     * Marco donde escribir un bloque completo, sin leer lo que tenía.
+     */
+    private int frameForWrite(int blockNumber) {
+        int frame = frameOf[blockNumber];
+        if (frame == NO_FRAME) {
+            frame = take(blockNumber);
+        }
+
+        if ((flags[frame] & DIRTY) == 0) {
+            flags[frame] |= DIRTY;
+            dirtyFrames.add(frame);
+        }
+        return frame;
+    }
+
+    /**
+     * Asignar un marco libre o desalojado a un bloque.
+     */
+    private int take(int blockNumber) {
+        int frame = used < frames ? used++ : evict();
+
+        blocks[frame] = blockNumber;
+        flags[frame] = 0;
+        frameOf[blockNumber] = frame;
+        return frame;
+    }
+
+    /**
+     * Girar el reloj hasta un marco sin referencia, quitándola a los que la
+     * tienen, y liberarlo.
+     */
+    private int evict() {
+        while (true) {
+            int frame = hand;
+            hand = (hand + 1) % frames;
+
+            if ((flags[frame] & REFERENCED) != 0) {
+                flags[frame] &= ~REFERENCED;
+                continue;
+            }
+
+            if ((flags[frame] & DIRTY) != 0) {
+                writeFrame(frame);
+            }
+            frameOf[blocks[frame]] = NO_FRAME;
+            evictions++;
+            return frame;
+        }
+    }
+
+    private void writeFrame(int frame) {
+        storage.write(blocks[frame], contents, frame * blockSize, lengths[frame]);
+        flags[frame] &= ~DIRTY;
+        writtenBack++;
+    }
+
+    private void finishWrite(int frame, int length) {
+        lengths[frame] = length;
+        if (dirtyFrames.size() > dirtyLimit) {
+            writeBack();
+        }
+    }
+
+    /**
+     * Escribir todos los bloques sucios al almacenamiento, en orden de bloque.
+     * Los bloques consecutivos se escriben juntos mientras cada uno esté lleno.
+     */
+    public synchronized void writeBack() {
+        int[] dirty = new int[dirtyFrames.size()];
+        int count = 0;
+
+        for (int i = 0; i < dirtyFrames.size(); i++) {
+            int frame = dirtyFrames.get(i);
+            if ((flags[frame] & DIRTY) != 0) {
+                dirty[count++] = blocks[frame];
+            }
+        }
+        dirtyFrames.clear();
+
+        // Un bloque repetido queda dos veces seguidas y corta la racha; la segunda ya está limpia
+        Arrays.sort(dirty, 0, count);
+        int i = 0;
+        while (i < count) {
+            if ((flags[frameOf[dirty[i]]] & DIRTY) == 0) {
+                i++;
+                continue;
+            }
+
+            int run = 1;
+            while (i + run < count && dirty[i + run] == dirty[i] + run
+                    && lengths[frameOf[dirty[i + run - 1]]] == blockSize
+                    && (flags[frameOf[dirty[i + run]]] & DIRTY) != 0) {
+                run++;
+            }
+
+            writeBackRun(dirty, i, run);
+            i += run;
+        }
+    }
+
+    /**
+     * Escribir juntos los marcos de los bloques consecutivos dirty[from, from + run).
+     */
+    private void writeBackRun(int[] dirty, int from, int run) {
+        if (runBuffer.length < run * blockSize) {
+            runBuffer = new byte[run * blockSize];
+        }
+
+        int length = 0;
+        for (int j = 0; j < run; j++) {
+            int frame = frameOf[dirty[from + j]];
+            System.arraycopy(contents, frame * blockSize, runBuffer, j * blockSize, lengths[frame]);
+            length = j * blockSize + lengths[frame];
+            flags[frame] &= ~DIRTY;
+        }
+
+        storage.writeRun(dirty[from], run, runBuffer, 0, length);
+        writtenBack += run;
+    }
+
+    @Override
+    public int totalBlocks() {
+        return storage.totalBlocks();
+    }
+
+    @Override
+    public synchronized void write(int blockNumber, byte[] content, int offset, int length) {
+        int frame = frameForWrite(blockNumber);
+        System.arraycopy(content, offset, contents, frame * blockSize, length);
+        finishWrite(frame, length);
+    }
+
+    @Override
+    public synchronized int read(int blockNumber, int from, byte[] target, int offset, int length) {
+        int frame = load(blockNumber);
+        int count = Math.max(0, Math.min(length, lengths[frame] - from));
+        System.arraycopy(contents, frame * blockSize + from, target, offset, count);
+        return count;
+    }
+
+    /**
+     * Los bloques que están se copian de sus marcos; cada tramo de bloques
+     * que faltan se lee del almacenamiento de una vez y queda en la caché.
+     */
+    @Override
+    public synchronized int readRun(int firstBlock, int count, byte[] target, int offset) {
+        int position = offset;
+        int i = 0;
+
+        while (i < count) {
+            int frame = frameOf[firstBlock + i];
+            if (frame != NO_FRAME) {
+                hit(frame);
+                System.arraycopy(contents, frame * blockSize, target, position, lengths[frame]);
+                position += lengths[frame];
+                i++;
+                continue;
+            }
+
+            int missing = 1;
+            while (i + missing < count && frameOf[firstBlock + i + missing] == NO_FRAME) {
+                missing++;
+            }
+
+            storage.readRun(firstBlock + i, missing, target, position);
+
+            // Repartir lo leído en marcos según el largo de cada bloque
+            for (int j = 0; j < missing; j++) {
+                int block = firstBlock + i + j;
+                int length = storage.length(block);
+
+                frame = take(block);
+                System.arraycopy(target, position, contents, frame * blockSize, length);
+                lengths[frame] = length;
+                position += length;
+            }
+            misses += missing;
+            i += missing;
+        }
+
+        return position - offset;
+    }
+
+    @Override
+    public synchronized void writeRun(int firstBlock, int count, byte[] content, int offset, int length) {
+        for (int i = 0; i < count; i++) {
+            int from = i * blockSize;
+            write(firstBlock + i, content, offset + from, Math.max(0, Math.min(blockSize, length - from)));
+        }
+    }
+
+    /**
+     * No carga el bloque: el mapa de bloques pregunta el largo de todos.
+     */
+    @Override
+    public synchronized int length(int blockNumber) {
+        int frame = frameOf[blockNumber];
+        return frame != NO_FRAME ? lengths[frame] : storage.length(blockNumber);
+    }
+
+    @Override
+    public synchronized void clear(int blockNumber) {
+        int frame = frameOf[blockNumber];
+        if (frame != NO_FRAME) {
+            lengths[frame] = 0;
+            flags[frame] &= ~DIRTY;
+        }
+        storage.clear(blockNumber);
+    }
+
+    /**
+     * Cargar en marcos los bloques de una racha que no estén en la caché. La
+     * lectura del medio se hace sin tomar la caché; los marcos entran sin
+     * referencia, así que si nadie los lee son los primeros en salir.
+     */
+    @Override
+    public void prefetch(int firstBlock, int count) {
+        storage.prefetch(firstBlock, count);
+
+        synchronized (this) {
+            for (int block = firstBlock; block < firstBlock + count; block++) {
+                if (frameOf[block] != NO_FRAME) continue;
+
+                int frame = take(block);
+                lengths[frame] = storage.read(block, 0, contents, frame * blockSize, blockSize);
+                flags[frame] = PREFETCHED;
+                prefetched++;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void format() {
+        Arrays.fill(frameOf, NO_FRAME);
+        used = 0;
+        hand = 0;
+        dirtyFrames.clear();
+        storage.format();
+    }
+
+    @Override
+    public synchronized void flush() {
+        writeBack();
+        storage.flush();
+    }
+
+    @Override
+    public Journal openJournal() {
+        return new WriteBackJournal(storage.openJournal());
+    }
+
+    @Override
+    public synchronized void close() {
+        writeBack();
+        storage.close();
+    }
+
+    public int getFrames() {
+        return frames;
+    }
+
+    /**
+     * Bytes de heap de los marcos y del mapa de bloques.
+     */
+    public long footprint() {
+        return (long) frames * ((long) blockSize + FRAME_OVERHEAD)
+                + (long) frameOf.length * Integer.BYTES;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getWrittenBack() {
+        return writtenBack;
+    }
+
+    public synchronized long getPrefetched() {
+        return prefetched;
+    }
+
+    /**
+     * Bloques traídos por lectura anticipada que después se leyeron.
+     */
+    public synchronized long getPrefetchHits() {
+        return prefetchHits;
+    }
+
+    /**
+     * Journal que escribe los bloques sucios antes de confirmar, así el
+     * journal de abajo los fuerza junto con los demás datos.
+     */
+    private class WriteBackJournal implements Journal {
+
+        private final Journal journal;
+
+        WriteBackJournal(Journal journal) {
+            this.journal = journal;
+        }
+
+        @Override
+        public int mount(Fat fat, DirectoryTree tree) {
+            return journal.mount(fat, tree);
+        }
+
+        @Override
+        public void commit(Transaction transaction) {
+            if (transaction.isEmpty()) return;
+
+            writeBack();
+            journal.commit(transaction);
+        }
+
+        @Override
+        public void checkpoint() {
+            journal.checkpoint();
+        }
+
+        @Override
+        public void format() {
+            journal.format();
+        }
+
+        @Override
+        public void close() {
+            journal.close();
+        }
+    }
+}
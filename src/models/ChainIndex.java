@@ -0,0 +1,133 @@
+package models;
+
+import java.util.Arrays;
+
+/**
+ * Índice de la cadena de bloques de un archivo guardado como lista de rachas.
+ *
+ * Cada racha es una secuencia de bloques consecutivos en el disco, así que un
+ * archivo contiguo ocupa una sola entrada. Permite obtener el bloque de
+ * cualquier posición y el último bloque sin recorrer la FAT.
+ */
+public class ChainIndex {
+
+    private int[] extentStart;
+    // Cantidad de bloques acumulada hasta el final de cada racha
+    private int[] extentEnd;
+    private int extents;
+
+    public ChainIndex() {
+        this.extentStart = new int[1];
+        this.extentEnd = new int[1];
+    }
+
+    /**
+     * Agregar un bloque al final de la cadena.
+     */
+    public void add(int block) {
+        addRun(block, 1);
+    }
+
+    /**
+     * Agregar al final los bloques consecutivos [start, start + count).
+     */
+    public void addRun(int start, int count) {
+        if (extents > 0 && start == getLastBlock() + 1) {
+            extentEnd[extents - 1] += count;
+            return;
+        }
+
+        if (extents == extentStart.length) {
+            extentStart = Arrays.copyOf(extentStart, extents * 2);
+            extentEnd = Arrays.copyOf(extentEnd, extents * 2);
+        }
+
+        extentStart[extents] = start;
+        extentEnd[extents] = size() + count;
+        extents++;
+    }
+
+    /**
+     * Agregar al final todos los bloques de otra cadena.
+     */
+    public void append(ChainIndex other) {
+        int offset = 0;
+        for (int e = 0; e < other.extents; e++) {
+            addRun(other.extentStart[e], other.extentEnd[e] - offset);
+            offset = other.extentEnd[e];
+        }
+    }
+
+    /**
+     * Bloque en la posición index de la cadena (0 = primer bloque).
+     */
+    public int blockAt(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Posición " + index + " fuera de la cadena (" + size() + " bloques)");
+        }
+
+        // Búsqueda binaria de la racha que contiene la posición
+        int low = 0;
+        int high = extents - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (extentEnd[mid] <= index) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        int extentOffset = low == 0 ? 0 : extentEnd[low - 1];
+        return extentStart[low] + (index - extentOffset);
+    }
+
+    public int getFirstBlock() {
+        return extentStart[0];
+    }
+
+    public int getLastBlock() {
+        int extentLength = extentEnd[extents - 1] - (extents == 1 ? 0 : extentEnd[extents - 2]);
+        return extentStart[extents - 1] + extentLength - 1;
+    }
+
+    /**
+     * Si la cadena pasa por block.
+     */
+    public boolean contains(int block) {
+        int offset = 0;
+        for (int e = 0; e < extents; e++) {
+            if (block >= extentStart[e] && block < extentStart[e] + extentEnd[e] - offset) return true;
+            offset = extentEnd[e];
+        }
+        return false;
+    }
+
+    /**
+     * Cantidad de bloques de la cadena.
+     */
+    public int size() {
+        return extents == 0 ? 0 : extentEnd[extents - 1];
+    }
+
+    /**
+     * Cantidad de rachas contiguas (1 = archivo sin fragmentar).
+     */
+    public int extentCount() {
+        return extents;
+    }
+
+    /**
+     * Copiar los números de bloque de la cadena en target.
+     */
+    public void copyTo(IntList target) {
+        target.clear();
+        target.ensureCapacity(size());
+
+        int offset = 0;
+        for (int e = 0; e < extents; e++) {
+            target.addRun(extentStart[e], extentEnd[e] - offset);
+            offset = extentEnd[e];
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package models;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static constants.Constants.*;
+
+/**
+ * Índice de los tramos de un archivo comprimido.
+ *
+ * Un archivo comprimido guarda en su cadena una sucesión de tramos: cada uno
+ * es una cabecera con su largo original y su largo guardado, seguida de hasta
+ * COMPRESSION_CHUNK_SIZE bytes del archivo comprimidos con Deflater, o tal
+ * cual si comprimirlos no los achica. Anexar agrega tramos nuevos sin tocar
+ * los anteriores, así que los bloques se escriben, copian y comparten como los
+ * de cualquier otro archivo.
+ *
+ * El índice guarda dónde empieza cada tramo en el archivo y en la cadena, para
+ * que leer un pedazo del archivo solo descomprima los tramos que lo cubren. Se
+ * arma leyendo las cabeceras desde la cadena y se extiende cuando el archivo
+ * creció. Es seguro para varios hilos.
+ */
+public class ChunkIndex {
+
+    // Largo original y largo guardado; si son iguales el tramo no está comprimido
+    public static final int HEADER_BYTES = 8;
+
+    // Los compresores se reutilizan por hilo: crear uno reserva memoria fuera del heap
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(COMPRESSION_LEVEL));
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+
+    // Dónde empieza cada tramo en el archivo y en la cadena, y cuánto ocupa guardado
+    private long[] logicalOffsets = new long[1];
+    private long[] storedOffsets = new long[1];
+    private int[] storedLengths = new int[1];
+    private int count;
+
+    private long logicalSize;
+    private long storedSize;
+
+    /**
+     * Tramos de un contenido, listos para guardar en la cadena.
+     */
+    public static byte[] compress(byte[] content) {
+        return compress(content, content.length);
+    }
+
+    /**
+     * Tramos de los primeros length bytes de content.
+     */
+    public static byte[] compress(byte[] content, int length) {
+        int chunks = (length + COMPRESSION_CHUNK_SIZE - 1) / COMPRESSION_CHUNK_SIZE;
+        // En el peor caso ningún tramo se comprime y solo se agregan las cabeceras
+        byte[] stored = new byte[length + chunks * HEADER_BYTES];
+        int storedLength = 0;
+
+        Deflater deflater = DEFLATER.get();
+        for (int from = 0; from < length; from += COMPRESSION_CHUNK_SIZE) {
+            int logical = Math.min(COMPRESSION_CHUNK_SIZE, length - from);
+            int data = storedLength + HEADER_BYTES;
+
+            deflater.reset();
+            deflater.setInput(content, from, logical);
+            deflater.finish();
+
+            // Solo se comprime si entra en menos lugar que el original
+            int size = 0;
+            while (!deflater.finished() && size < logical - 1) {
+                size += deflater.deflate(stored, data + size, logical - 1 - size);
+            }
+            if (!deflater.finished()) {
+                System.arraycopy(content, from, stored, data, logical);
+                size = logical;
+            }
+
+            ByteBuffer.wrap(stored, storedLength, HEADER_BYTES).putInt(logical).putInt(size);
+            storedLength = data + size;
+        }
+
+        return Arrays.copyOf(stored, storedLength);
+    }
+
+    /**
+     * Leer las cabeceras de los tramos que faltan hasta cubrir size bytes del
+     * archivo. Si el índice cubre más, se vuelve a armar desde el principio.
+     */
+    public synchronized void extend(Disk disk, ChainIndex chain, long size) {
+        if (size < logicalSize) {
+            count = 0;
+            logicalSize = 0;
+            storedSize = 0;
+        }
+
+        while (logicalSize < size) {
+            ByteBuffer header = ByteBuffer.wrap(readStored(disk, chain, storedSize, HEADER_BYTES));
+            int logical = header.getInt();
+            int stored = header.getInt();
+            if (logical <= 0 || stored <= 0 || stored > logical) {
+                throw new IllegalStateException("Tramo comprimido dañado en la posición " + storedSize);
+            }
+
+            add(logical, stored);
+        }
+    }
+
+    /**
+     * Índice de los tramos sanos que entran en los primeros storedLength
+     * bytes de la cadena sin pasar de size bytes originales. Solo mira las
+     * cabeceras y se detiene en la primera que no cierra, sin descomprimir
+     * nada (ver services.ConsistencyCheck).
+     */
+    public static ChunkIndex scan(Disk disk, ChainIndex chain, long size, long storedLength) {
+        ChunkIndex chunks = new ChunkIndex();
+
+        while (chunks.logicalSize < size && chunks.storedSize + HEADER_BYTES <= storedLength) {
+            ByteBuffer header = ByteBuffer.wrap(readStored(disk, chain, chunks.storedSize, HEADER_BYTES));
+            int logical = header.getInt();
+            int stored = header.getInt();
+            if (logical <= 0 || stored <= 0 || stored > logical
+                    || chunks.logicalSize + logical > size
+                    || chunks.storedSize + HEADER_BYTES + stored > storedLength) {
+                break;
+            }
+
+            chunks.add(logical, stored);
+        }
+
+        return chunks;
+    }
+
+    private void add(int logical, int stored) {
+        if (count == logicalOffsets.length) {
+            logicalOffsets = Arrays.copyOf(logicalOffsets, count * 2);
+            storedOffsets = Arrays.copyOf(storedOffsets, count * 2);
+            storedLengths = Arrays.copyOf(storedLengths, count * 2);
+        }
+
+        logicalOffsets[count] = logicalSize;
+        storedOffsets[count] = storedSize;
+        storedLengths[count] = stored;
+        count++;
+
+        logicalSize += logical;
+        storedSize += HEADER_BYTES + stored;
+    }
+
+    /**
+     * Número del tramo que contiene la posición del archivo.
+     */
+    public synchronized int find(long position) {
+        int found = Arrays.binarySearch(logicalOffsets, 0, count, position);
+        return found >= 0 ? found : -found - 2;
+    }
+
+    /**
+     * Posición del archivo donde empieza un tramo.
+     */
+    public synchronized long logicalOffset(int chunk) {
+        return logicalOffsets[chunk];
+    }
+
+    /**
+     * Bytes del archivo que cubre el índice.
+     */
+    public synchronized long getLogicalSize() {
+        return logicalSize;
+    }
+
+    /**
+     * Bytes que ocupan en la cadena los tramos del índice, con sus cabeceras.
+     */
+    public synchronized long getStoredSize() {
+        return storedSize;
+    }
+
+    /**
+     * Contenido original de un tramo, leído de la cadena y descomprimido.
+     */
+    public byte[] inflate(Disk disk, ChainIndex chain, int chunk) {
+        long offset;
+        int logical;
+        int stored;
+        synchronized (this) {
+            offset = storedOffsets[chunk];
+            logical = (int) ((chunk + 1 < count ? logicalOffsets[chunk + 1] : logicalSize) - logicalOffsets[chunk]);
+            stored = storedLengths[chunk];
+        }
+
+        byte[] data = readStored(disk, chain, offset + HEADER_BYTES, stored);
+        if (stored == logical) return data;
+
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(data);
+
+        byte[] content = new byte[logical];
+        int length = 0;
+        try {
+            while (length < logical && !inflater.finished()) {
+                int read = inflater.inflate(content, length, logical - length);
+                if (read == 0 && inflater.needsInput()) break;
+                length += read;
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Tramo comprimido dañado en la posición " + offset, e);
+        }
+
+        if (length != logical) {
+            throw new IllegalStateException("Tramo comprimido dañado en la posición " + offset);
+        }
+        return content;
+    }
+
+    /**
+     * Leer length bytes desde la posición position del contenido guardado en la cadena.
+     */
+    private static byte[] readStored(Disk disk, ChainIndex chain, long position, int length) {
+        int blockSize = disk.getGeometry().getBlockSize();
+        int first = (int) (position / blockSize);
+        int last = (int) ((position + length - 1) / blockSize);
+        if (last >= chain.size()) {
+            throw new IllegalStateException("Tramo comprimido fuera de la cadena en la posición " + position);
+        }
+
+        IntList blocks = new IntList(last - first + 1);
+        for (int i = first; i <= last; i++) {
+            blocks.add(chain.blockAt(i));
+        }
+
+        int from = (int) (position - (long) first * blockSize);
+        return Arrays.copyOfRange(disk.readFullContent(blocks), from, from + length);
+    }
+}
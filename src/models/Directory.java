@@ -1,53 +1,320 @@
 package models;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
 
+import static constants.Constants.*;
+
+/**
+ * Entradas de un directorio.
+ *
+ * Se guardan en columnas de arreglos primitivos (MetadataStore), sin un objeto
+ * por entrada; getMetadata y los listados devuelven copias MetadataFile que se
+ * crean al pedirlas. Los cambios se guardan con addFile, update, renameFile y
+ * deleteFile, nunca modificando una copia.
+ *
+ * Los listados recorren índices ordenados de filas, así que se pueden pedir
+ * por páginas con un cursor sin ordenar ni copiar todo el directorio. Cada
+ * índice se arma la primera vez que se pide un listado en su orden y desde
+ * ahí se mantiene.
+ *
+ * Todos los métodos se sincronizan con el directorio; las operaciones sobre
+ * archivos distintos solo se esperan mientras cambian la entrada.
+ */
 public class Directory {
 
-    private Map<String,MetadataFile> files;
+    /**
+     * Orden de un listado.
+     */
+    public enum Order {
+        NAME, SIZE, MODIFIED;
+
+        public static Order forName(String name) {
+            return switch (name.toLowerCase()) {
+                case "name" -> NAME;
+                case "size" -> SIZE;
+                case "time" -> MODIFIED;
+                default -> throw new IllegalArgumentException("Orden desconocido: " + name);
+            };
+        }
+    }
+
+    /**
+     * Posición en un índice ordenado: el valor por el que se ordena y el
+     * nombre, que desempata. Marca dónde sigue un listado por páginas.
+     */
+    public static final class Cursor {
+        private final long value;
+        private final String name;
+
+        Cursor(long value, String name) {
+            this.value = value;
+            this.name = name;
+        }
+    }
+
+    /**
+     * Una página de un listado y el cursor de la siguiente, o null si era la última.
+     */
+    public static final class Page {
+        private final List<MetadataFile> entries;
+        private final Cursor next;
+
+        Page(List<MetadataFile> entries, Cursor next) {
+            this.entries = entries;
+            this.next = next;
+        }
+
+        public List<MetadataFile> getEntries() {
+            return entries;
+        }
+
+        public Cursor getNext() {
+            return next;
+        }
+    }
+
+    private MetadataStore store = new MetadataStore();
+
+    // Filas en cada orden; null hasta que se lista en ese orden
+    private TreeSet<Integer> byName;
+    private TreeSet<Integer> bySize;
+    private TreeSet<Integer> byModified;
+
+    // Primer bloque del directorio; el raíz usa DirectoryTree.ROOT
+    private final int id;
 
     public Directory(){
-        this.files = new HashMap<>();
+        this(DirectoryTree.ROOT);
+    }
+
+    public Directory(int id){
+        this.id = id;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Guardar una entrada, nueva o reemplazando la del mismo nombre.
+     */
+    public synchronized void addFile(String name, MetadataFile metadata){
+        byte[] bytes = MetadataStore.encode(name);
+        int row = store.find(bytes);
+
+        if (row >= 0) {
+            unindex(row);
+            store.set(row, metadata.getSize(), metadata.getFirstBlock(), metadata.isDirectory(),
+                    metadata.isCompressed(), metadata.getCreatedTime(), metadata.getLastUpdateTime());
+        } else {
+            row = store.insert(bytes, metadata.getSize(), metadata.getFirstBlock(), metadata.isDirectory(),
+                    metadata.isCompressed(), metadata.getCreatedTime(), metadata.getLastUpdateTime());
+        }
+
+        index(row);
     }
 
-    public void addFile(String name, MetadataFile metadata){
-        files.put(name, metadata);
+    /**
+     * Copia de la entrada de un nombre, o null si no existe.
+     */
+    public synchronized MetadataFile getMetadata(String name){
+        int row = store.find(MetadataStore.encode(name));
+        return row < 0 ? null : copy(row, name);
     }
 
-    public MetadataFile getMetadata(String name){
-        return files.get(name);
+    private MetadataFile copy(int row, String name) {
+        MetadataFile metadata = new MetadataFile(name, store.size(row), store.firstBlock(row), id,
+                store.isDirectory(row), store.createdTime(row), store.updatedTime(row));
+        metadata.setCompressed(store.isCompressed(row));
+        return metadata;
     }
 
-    public void deleteFile(String name){
-        files.remove(name);
+    public synchronized void deleteFile(String name){
+        int row = store.find(MetadataStore.encode(name));
+        if (row < 0) return;
+
+        unindex(row);
+        store.remove(row);
     }
 
-    public boolean renameFile(String oldName, String newName) {
-        if (!files.containsKey(oldName)) return false;
-        if (files.containsKey(newName)) return false;
+    public synchronized boolean renameFile(String oldName, String newName) {
+        MetadataFile metadata = getMetadata(oldName);
+        if (metadata == null) return false;
+        if (exists(newName)) return false;
 
-        MetadataFile metadata = files.remove(oldName);
+        deleteFile(oldName);
         metadata.setName(newName);
-        files.put(newName, metadata);
+        addFile(newName, metadata);
 
         return true;
     }
 
-    public boolean exists(String name){
-        return files.containsKey(name);
+    /**
+     * Cambiar el tamaño y la fecha de modificación de una entrada, y también
+     * los de la copia metadata.
+     */
+    public synchronized void update(MetadataFile metadata, long size, long lastUpdateTime) {
+        metadata.setSize(size);
+        metadata.setLastUpdateTime(lastUpdateTime);
+
+        int row = store.find(MetadataStore.encode(metadata.getName()));
+        if (row < 0) return;
+
+        // El índice por nombre no cambia
+        if (bySize != null) bySize.remove(row);
+        if (byModified != null) byModified.remove(row);
+
+        store.setSize(row, size, lastUpdateTime);
+
+        if (bySize != null) bySize.add(row);
+        if (byModified != null) byModified.add(row);
+    }
+
+    private void index(int row) {
+        if (byName != null) byName.add(row);
+        if (bySize != null) bySize.add(row);
+        if (byModified != null) byModified.add(row);
+    }
+
+    private void unindex(int row) {
+        if (byName != null) byName.remove(row);
+        if (bySize != null) bySize.remove(row);
+        if (byModified != null) byModified.remove(row);
+    }
+
+    private long sortValue(Order order, int row) {
+        if (row == MetadataStore.PROBE) return store.probeValue();
+        return order == Order.SIZE ? store.size(row) : store.updatedTime(row);
+    }
+
+    private Comparator<Integer> comparator(Order order) {
+        if (order == Order.NAME) {
+            return store::compareNames;
+        }
+        return (first, second) -> {
+            int byValue = Long.compare(sortValue(order, first), sortValue(order, second));
+            return byValue != 0 ? byValue : store.compareNames(first, second);
+        };
+    }
+
+    /**
+     * Índice de un orden, armándolo si todavía no existe.
+     */
+    private TreeSet<Integer> index(Order order) {
+        TreeSet<Integer> index = switch (order) {
+            case NAME -> byName;
+            case SIZE -> bySize;
+            case MODIFIED -> byModified;
+        };
+        if (index != null) return index;
+
+        index = new TreeSet<>(comparator(order));
+        for (int row = 0; row < store.rowLimit(); row++) {
+            if (store.isLive(row)) index.add(row);
+        }
+
+        switch (order) {
+            case NAME -> byName = index;
+            case SIZE -> bySize = index;
+            case MODIFIED -> byModified = index;
+        }
+        return index;
+    }
+
+    /**
+     * Hasta limit entradas cuyo nombre empieza con prefix, en el orden pedido
+     * y después de after (o desde el principio si es null).
+     */
+    public synchronized Page page(Order order, String prefix, Cursor after, int limit) {
+        TreeSet<Integer> index = index(order);
+        byte[] prefixBytes = MetadataStore.encode(prefix);
+        NavigableSet<Integer> range;
+
+        if (order == Order.NAME) {
+            // Los nombres con el prefijo son un tramo contiguo del índice
+            byte[] afterBytes = after == null ? null : MetadataStore.encode(after.name);
+            if (afterBytes == null || Arrays.compareUnsigned(afterBytes, prefixBytes) < 0) {
+                store.setProbe(0, prefixBytes);
+                range = index.tailSet(MetadataStore.PROBE, true);
+            } else {
+                store.setProbe(0, afterBytes);
+                range = index.tailSet(MetadataStore.PROBE, false);
+            }
+        } else if (after != null) {
+            store.setProbe(after.value, MetadataStore.encode(after.name));
+            range = index.tailSet(MetadataStore.PROBE, false);
+        } else {
+            range = index;
+        }
+
+        List<MetadataFile> entries = new ArrayList<>(Math.min(limit, LIST_PAGE_SIZE));
+        int last = -1;
+
+        for (int row : range) {
+            if (!store.nameStartsWith(row, prefixBytes)) {
+                if (order == Order.NAME) break;
+                continue;
+            }
+            if (entries.size() == limit) {
+                return new Page(entries, new Cursor(sortValue(order, last), store.name(last)));
+            }
+            entries.add(copy(row, store.name(row)));
+            last = row;
+        }
+        return new Page(entries, null);
+    }
+
+    public synchronized boolean exists(String name){
+        return store.find(MetadataStore.encode(name)) >= 0;
+    }
+
+    public synchronized boolean isEmpty(){
+        return store.count() == 0;
+    }
+
+    public synchronized int count(){
+        return store.count();
     }
 
-    public boolean isEmpty(){
-        return files.isEmpty();
+    /**
+     * Entradas que no son directorios.
+     */
+    public synchronized int countFiles() {
+        int files = 0;
+        for (int row = 0; row < store.rowLimit(); row++) {
+            if (store.isLive(row) && !store.isDirectory(row)) files++;
+        }
+        return files;
     }
 
-    public int count(){
-        return files.size();
+    /**
+     * Copias de todas las entradas, en ningún orden en particular.
+     */
+    public synchronized List<MetadataFile> entries() {
+        List<MetadataFile> entries = new ArrayList<>(store.count());
+        for (int row = 0; row < store.rowLimit(); row++) {
+            if (store.isLive(row)) entries.add(copy(row, store.name(row)));
+        }
+        return entries;
     }
 
     /**
-     * Listar todos los archivos con formato.
+     * Bytes de heap aproximados que ocupan las entradas y los índices armados.
+     */
+    public synchronized long footprint() {
+        // Un nodo de TreeMap y su Integer por fila en cada índice
+        long perIndexedRow = 56;
+        long indexed = (byName != null ? 1 : 0) + (bySize != null ? 1 : 0) + (byModified != null ? 1 : 0);
+        return store.footprint() + indexed * perIndexedRow * store.count();
+    }
+
+    /**
+     * Listar todos los archivos con formato, por nombre y de a una página.
      */
     public void list(){
         if (isEmpty()) {
@@ -57,9 +324,16 @@ public class Directory {
 
         System.out.println("\n-----DIRECTORIO DE ARCHIVOS-----");
 
-        for(MetadataFile metadata : files.values()){
-            System.out.println(metadata.toFormattedString());
-        }
+        Cursor cursor = null;
+        do {
+            Page page = page(Order.NAME, "", cursor, LIST_PAGE_SIZE);
+            StringBuilder out = new StringBuilder();
+            for (MetadataFile metadata : page.getEntries()) {
+                out.append(metadata.toFormattedString()).append('\n');
+            }
+            System.out.print(out);
+            cursor = page.getNext();
+        } while (cursor != null);
 
         System.out.println("\nTotal de archivos: " + count());
     }
@@ -67,7 +341,10 @@ public class Directory {
     /**
      * Limpiar el directorio completamente.
      */
-    public void clear() {
-        files.clear();
+    public synchronized void clear() {
+        store = new MetadataStore();
+        byName = null;
+        bySize = null;
+        byModified = null;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,249 @@
+package models;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Directorio guardado en una imagen como tabla binaria detrás del área de
+ * bloques (ver MappedBlockStorage).
+ *
+ * Cada entrada ocupa
+ *   [estado][largo del nombre][padre][opciones][nombre UTF-8][tamaño][primer bloque][creación][modificación]
+ * con las fechas en milisegundos desde la época. Una entrada se identifica por
+ * el directorio que la contiene y su nombre. Un cambio de tamaño o de
+ * fecha reescribe la entrada en su lugar; una entrada nueva o renombrada se
+ * agrega al final y la anterior queda marcada como borrada. Cuando lo borrado
+ * supera a lo vivo la tabla se compacta en una copia nueva.
+ *
+ * Solo la modifica el journal, dentro de un checkpoint.
+ */
+class DirectoryTable {
+
+    private static final byte DELETED = 0;
+    private static final byte LIVE = 1;
+
+    // Estado, largo del nombre, padre, opciones, tamaño, primer bloque y las dos fechas
+    private static final int FIXED_BYTES = 1 + Character.BYTES + Integer.BYTES + 1
+            + Long.BYTES + Integer.BYTES + 2 * Long.BYTES;
+
+    // Las tablas chicas no se compactan
+    private static final long MIN_COMPACT_BYTES = 64 * 1024;
+
+    private final MappedBlockStorage storage;
+
+    // Posición en la imagen de cada entrada viva, por clave (ver key). Se arma recién cuando hace
+    // falta modificar la tabla, para que montar solo lea las entradas.
+    private Map<String, Long> offsets;
+
+    private long offset;
+    private long length;
+    private long deletedBytes;
+
+    DirectoryTable(MappedBlockStorage storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * Tomar de la cabecera dónde está la tabla, sin leer sus entradas.
+     */
+    void open() {
+        offset = storage.getDirectoryOffset();
+        length = storage.getDirectoryLength();
+        offsets = null;
+        deletedBytes = 0;
+    }
+
+    /**
+     * Leer la tabla en una sola lectura y agregar las entradas vivas al árbol.
+     */
+    void load(DirectoryTree tree) {
+        open();
+
+        ByteBuffer table = storage.readAt(offset, Math.toIntExact(length));
+        byte[] bytes = table.array();
+
+        while (table.hasRemaining()) {
+            int start = table.position();
+            byte state = table.get();
+            int nameLength = table.getChar();
+
+            if (state != LIVE) {
+                table.position(start + FIXED_BYTES + nameLength);
+                deletedBytes += FIXED_BYTES + nameLength;
+                continue;
+            }
+
+            int parent = table.getInt();
+            byte options = table.get();
+            String name = new String(bytes, table.position(), nameLength, StandardCharsets.UTF_8);
+            table.position(table.position() + nameLength);
+
+            long size = table.getLong();
+            int firstBlock = table.getInt();
+            long created = table.getLong();
+            long updated = table.getLong();
+
+            MetadataFile file = new MetadataFile(name, size, firstBlock, parent,
+                    (options & Transaction.DIRECTORY_FLAG) != 0, created, updated);
+            file.setCompressed((options & Transaction.COMPRESSED_FLAG) != 0);
+            tree.add(file);
+        }
+    }
+
+    /**
+     * Índice de posiciones de las entradas vivas, armado con una lectura de la tabla.
+     */
+    private Map<String, Long> offsets() {
+        if (offsets != null) return offsets;
+
+        offsets = new HashMap<>();
+        ByteBuffer table = storage.readAt(offset, Math.toIntExact(length));
+        byte[] bytes = table.array();
+
+        while (table.hasRemaining()) {
+            int start = table.position();
+            byte state = table.get();
+            int nameLength = table.getChar();
+
+            if (state == LIVE) {
+                offsets.put(key(table, bytes, nameLength), offset + start);
+            }
+            table.position(start + FIXED_BYTES + nameLength);
+        }
+
+        return offsets;
+    }
+
+    /**
+     * Clave de la entrada cuyo padre está en la posición actual de table.
+     */
+    private static String key(ByteBuffer table, byte[] bytes, int nameLength) {
+        int parent = table.getInt(table.position());
+        int nameStart = table.position() + Integer.BYTES + 1;
+        return key(parent, new String(bytes, nameStart, nameLength, StandardCharsets.UTF_8));
+    }
+
+    private static String key(int parent, String name) {
+        return parent + DirectoryTree.SEPARATOR + name;
+    }
+
+    /**
+     * Guardar una entrada: en su lugar si ya existe, al final si es nueva.
+     */
+    void put(MetadataFile file) {
+        ByteBuffer entry = encode(file);
+        Map<String, Long> offsets = offsets();
+        String key = key(file.getParent(), file.getName());
+        Long existing = offsets.get(key);
+
+        if (existing != null) {
+            storage.writeAt(entry, existing);
+            return;
+        }
+
+        long position = offset + length;
+        storage.writeAt(entry, position);
+        offsets.put(key, position);
+        length += entry.capacity();
+    }
+
+    void remove(int parent, String name) {
+        Long existing = offsets().remove(key(parent, name));
+        if (existing == null) return;
+
+        storage.writeAt(ByteBuffer.wrap(new byte[] {DELETED}), existing);
+        deletedBytes += FIXED_BYTES + name.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private static ByteBuffer encode(MetadataFile file) {
+        byte[] name = file.getName().getBytes(StandardCharsets.UTF_8);
+        if (name.length > Character.MAX_VALUE) {
+            throw new IllegalArgumentException("Nombre de archivo demasiado largo: " + file.getName());
+        }
+
+        ByteBuffer entry = ByteBuffer.allocate(FIXED_BYTES + name.length);
+        entry.put(LIVE);
+        entry.putChar((char) name.length);
+        entry.putInt(file.getParent());
+        entry.put(Transaction.options(file));
+        entry.put(name);
+        entry.putLong(file.getSize());
+        entry.putInt(file.getFirstBlock());
+        entry.putLong(file.getCreatedTime());
+        entry.putLong(file.getLastUpdateTime());
+
+        return entry.flip();
+    }
+
+    /**
+     * Forzar lo escrito y recién entonces extender la tabla en la cabecera,
+     * compactándola si hace falta.
+     */
+    void force() {
+        storage.forceWrites();
+
+        if (deletedBytes > MIN_COMPACT_BYTES && deletedBytes > length - deletedBytes) {
+            compact();
+        } else {
+            storage.setDirectoryArea(offset, length);
+        }
+    }
+
+    /**
+     * Copiar las entradas vivas a un lugar que no pisa la tabla actual y
+     * apuntar la cabecera a la copia; un corte antes deja la tabla anterior.
+     */
+    private void compact() {
+        long compactedLength = length - deletedBytes;
+        long areaStart = storage.getDirectoryAreaStart();
+        long target = offset - areaStart >= compactedLength
+                ? areaStart
+                : MappedBlockStorage.align(offset + length);
+
+        ByteBuffer table = storage.readAt(offset, Math.toIntExact(length));
+        ByteBuffer compacted = ByteBuffer.allocate(Math.toIntExact(compactedLength));
+        byte[] bytes = table.array();
+        offsets = new HashMap<>();
+
+        while (table.hasRemaining()) {
+            int start = table.position();
+            byte state = table.get();
+            int nameLength = table.getChar();
+            int end = start + FIXED_BYTES + nameLength;
+
+            if (state == LIVE) {
+                offsets.put(key(table, bytes, nameLength), target + compacted.position());
+                compacted.put(bytes, start, end - start);
+            }
+            table.position(end);
+        }
+
+        storage.writeAt(compacted.flip(), target);
+        storage.forceWrites();
+        storage.setDirectoryArea(target, compactedLength);
+
+        // La copia anterior quedó detrás de la nueva
+        if (target == areaStart) {
+            storage.truncate(MappedBlockStorage.align(target + compactedLength));
+        }
+
+        offset = target;
+        length = compactedLength;
+        deletedBytes = 0;
+    }
+
+    /**
+     * Dejar la tabla vacía al principio del área del directorio.
+     */
+    void clear() {
+        offsets = new HashMap<>();
+        offset = storage.getDirectoryAreaStart();
+        length = 0;
+        deletedBytes = 0;
+
+        storage.setDirectoryArea(offset, length);
+        storage.truncate(offset);
+    }
+}
@@ -0,0 +1,233 @@
+package models;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static constants.Constants.*;
+
+/**
+ * Árbol de directorios del volumen.
+ *
+ * Cada directorio es una entrada de su padre que ocupa un bloque de la FAT, y
+ * ese primer bloque lo identifica: las entradas guardan el id del directorio
+ * que las contiene. Las rutas resueltas de directorios se recuerdan en una
+ * caché LRU acotada, así que resolver una ruta profunda que se usa seguido no
+ * recorre cada nivel.
+ *
+ * Borrar o mover un directorio se hace con el volumen tomado en modo
+ * exclusivo y vacía la caché; crear uno no cambia ninguna ruta ya resuelta.
+ */
+public class DirectoryTree {
+
+    // El raíz no tiene entrada ni bloque propio: usa el primer bloque reservado
+    public static final int ROOT = RESERVED_BLOCKS_START;
+
+    public static final String SEPARATOR = "/";
+
+    private final Map<Integer, Directory> directories = new ConcurrentHashMap<>();
+    private final Directory root = new Directory(ROOT);
+
+    // Ruta absoluta de un directorio → su entrada, en orden de acceso
+    private final Map<String, MetadataFile> cache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, MetadataFile> eldest) {
+            return size() > DENTRY_CACHE_SIZE;
+        }
+    };
+    private long cacheHits;
+    private long cacheMisses;
+
+    public DirectoryTree() {
+        directories.put(ROOT, root);
+    }
+
+    public Directory getRoot() {
+        return root;
+    }
+
+    public Directory getDirectory(int id) {
+        return directories.get(id);
+    }
+
+    /**
+     * Copia de la lista de directorios, incluido el raíz.
+     */
+    public List<Directory> directories() {
+        return new ArrayList<>(directories.values());
+    }
+
+    /**
+     * Ruta absoluta sin ".", ".." ni separadores repetidos. Una ruta relativa
+     * se toma desde base.
+     */
+    public static String normalize(String base, String path) {
+        String full = path.startsWith(SEPARATOR) ? path : base + SEPARATOR + path;
+        Deque<String> parts = new ArrayDeque<>();
+
+        for (String part : full.split(SEPARATOR)) {
+            if (part.isEmpty() || part.equals(".")) continue;
+            if (part.equals("..")) {
+                parts.pollLast();
+            } else {
+                parts.addLast(part);
+            }
+        }
+
+        return SEPARATOR + String.join(SEPARATOR, parts);
+    }
+
+    /**
+     * Ruta del directorio que contiene a una ruta absoluta normalizada.
+     */
+    public static String parentPath(String path) {
+        int slash = path.lastIndexOf(SEPARATOR);
+        return slash == 0 ? SEPARATOR : path.substring(0, slash);
+    }
+
+    /**
+     * Último nombre de una ruta absoluta normalizada; vacío para el raíz.
+     */
+    public static String leafName(String path) {
+        return path.substring(path.lastIndexOf(SEPARATOR) + 1);
+    }
+
+    /**
+     * Directorio de una ruta absoluta normalizada, o null si no existe o no es
+     * un directorio. Sube hasta el primer ancestro que esté en la caché y
+     * recuerda cada nivel que resuelve.
+     */
+    public Directory resolveDirectory(String path) {
+        if (path.equals(SEPARATOR)) return root;
+
+        MetadataFile entry;
+        synchronized (cache) {
+            entry = cache.get(path);
+            if (entry != null) {
+                cacheHits++;
+            } else {
+                cacheMisses++;
+            }
+        }
+        if (entry != null) return directories.get(entry.getFirstBlock());
+
+        Directory parent = resolveDirectory(parentPath(path));
+        if (parent == null) return null;
+
+        entry = parent.getMetadata(leafName(path));
+        if (entry == null || !entry.isDirectory()) return null;
+
+        synchronized (cache) {
+            cache.put(path, entry);
+        }
+        return directories.get(entry.getFirstBlock());
+    }
+
+    /**
+     * Agregar una entrada a su directorio, y si es un directorio también al árbol.
+     */
+    public void add(MetadataFile entry) {
+        directory(entry.getParent()).addFile(entry.getName(), entry);
+        if (entry.isDirectory()) {
+            directory(entry.getFirstBlock());
+        }
+    }
+
+    /**
+     * Quitar una entrada de su directorio, y si es un directorio también del árbol.
+     */
+    public void remove(int parent, String name) {
+        Directory directory = directories.get(parent);
+        if (directory == null) return;
+
+        MetadataFile entry = directory.getMetadata(name);
+        if (entry == null) return;
+
+        directory.deleteFile(name);
+        if (entry.isDirectory()) {
+            directories.remove(entry.getFirstBlock());
+            invalidate();
+        }
+    }
+
+    /**
+     * Copia independiente del árbol con todas sus entradas, para una instantánea.
+     */
+    public DirectoryTree copy() {
+        DirectoryTree copy = new DirectoryTree();
+        for (Directory directory : directories.values()) {
+            for (MetadataFile entry : directory.entries()) {
+                copy.add(entry);
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Al montar, una entrada puede aparecer antes que la del directorio que la contiene.
+     */
+    private Directory directory(int id) {
+        return directories.computeIfAbsent(id, Directory::new);
+    }
+
+    /**
+     * Olvidar las rutas resueltas después de cambiar la forma del árbol.
+     */
+    public void invalidate() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    public int countFiles() {
+        int files = 0;
+        for (Directory directory : directories.values()) {
+            files += directory.countFiles();
+        }
+        return files;
+    }
+
+    /**
+     * Bytes de heap aproximados de todas las entradas (ver Directory.footprint).
+     */
+    public long footprint() {
+        long bytes = 0;
+        for (Directory directory : directories.values()) {
+            bytes += directory.footprint();
+        }
+        return bytes;
+    }
+
+    /**
+     * Directorios sin contar el raíz.
+     */
+    public int countDirectories() {
+        return directories.size() - 1;
+    }
+
+    public long getCacheHits() {
+        synchronized (cache) {
+            return cacheHits;
+        }
+    }
+
+    public long getCacheMisses() {
+        synchronized (cache) {
+            return cacheMisses;
+        }
+    }
+
+    /**
+     * Dejar solo el raíz, vacío.
+     */
+    public void clear() {
+        directories.clear();
+        root.clear();
+        directories.put(ROOT, root);
+        invalidate();
+    }
+}
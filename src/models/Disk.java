@@ -1,86 +1,193 @@
 package models;
 
 import java.util.Arrays;
-import java.util.List;
 
 import static constants.Constants.*;
 
 public class Disk {
 
-    private String[] disk;
+    private final Geometry geometry;
+    private final BlockStorage storage;
 
-    //Inicializar disco vacío.
+    // Caché de bloques si el almacenamiento la tiene; null si no
+    private final CachedBlockStorage cache;
+
+    // Copiados de la geometría para no consultarla en cada bloque
+    private final int blockSize;
+    private final int reservedBlocksEnd;
+
+    //Inicializar disco vacío en memoria.
     public Disk(){
-        this.disk = new String[TOTAL_BLOCKS];
-        Arrays.fill(disk, "");
+        this(Geometry.defaults());
+    }
+
+    public Disk(Geometry geometry){
+        this(geometry, new MemoryBlockStorage(geometry.getTotalBlocks(), geometry.getBlockSize()));
     }
 
-    public void write(int blockNumber, String content){
-        disk[blockNumber] = content;
+    public Disk(Geometry geometry, BlockStorage storage){
+        if (storage.totalBlocks() != geometry.getTotalBlocks()) {
+            throw new IllegalArgumentException("El almacenamiento no coincide con la geometría: "
+                    + storage.totalBlocks() + " bloques, se esperaban " + geometry.getTotalBlocks());
+        }
+
+        this.geometry = geometry;
+        this.storage = storage;
+        this.cache = storage instanceof CachedBlockStorage cached ? cached : null;
+        this.blockSize = geometry.getBlockSize();
+        this.reservedBlocksEnd = geometry.getReservedBlocksEnd();
     }
 
-    public String readBlock(int blockNumber){
-        return disk[blockNumber];
+    public Geometry getGeometry() {
+        return geometry;
+    }
+
+    public CachedBlockStorage getCache() {
+        return cache;
+    }
+
+    public void write(int blockNumber, byte[] content, int offset, int length){
+        storage.write(blockNumber, content, offset, length);
+    }
+
+    /**
+     * Copia del contenido de un bloque.
+     */
+    public byte[] readBlock(int blockNumber){
+        byte[] content = new byte[blockSize];
+        int length = storage.read(blockNumber, 0, content, 0, blockSize);
+        return length == blockSize ? content : Arrays.copyOf(content, length);
+    }
+
+    /**
+     * Copiar parte de un bloque a un arreglo.
+     * Devuelve la cantidad de bytes copiados.
+     */
+    public int readBlock(int blockNumber, int from, byte[] target, int offset, int length){
+        return storage.read(blockNumber, from, target, offset, length);
     }
 
     public void delete(int blockNumber){
-        disk[blockNumber] = "";
+        storage.clear(blockNumber);
     }
 
     public void format() {
-        Arrays.fill(disk, "");
+        storage.format();
+    }
+
+    /**
+     * Forzar los cambios al medio físico.
+     */
+    public void flush() {
+        storage.flush();
+    }
+
+    public void close() {
+        storage.close();
+    }
+
+    public Journal openJournal() {
+        return storage.openJournal();
     }
 
     /**
-     * Escribir contenido fragmentado en múltiples bloques.
+     * Escribir contenido fragmentado en múltiples bloques, con una escritura
+     * por cada racha de bloques físicamente consecutivos.
      */
-    public void writeFragmented(String content, List<Integer> availableBlocks){
+    public void writeFragmented(byte[] content, IntList availableBlocks){
+        writeFragmented(content, 0, content.length, availableBlocks);
+    }
 
+    /**
+     * Escribir los length bytes de content desde offset repartidos en los bloques.
+     */
+    public void writeFragmented(byte[] content, int offset, int length, IntList availableBlocks){
         int contentPointer = 0;
 
-        for (int block : availableBlocks) {
-            int start = contentPointer;
-            int end = Math.min(contentPointer + BLOCK_SIZE, content.length());
+        int i = 0;
+        while (i < availableBlocks.size()) {
+            int start = availableBlocks.get(i);
+            int count = runLength(availableBlocks, i);
+            int runLength = Math.max(0, Math.min(count * blockSize, length - contentPointer));
 
-            String fragment = content.substring(start, end);
-            disk[block] = fragment;
+            storage.writeRun(start, count, content, offset + contentPointer, runLength);
 
-            contentPointer += BLOCK_SIZE;
+            contentPointer += count * blockSize;
+            i += count;
         }
     }
 
     /**
-     * Leer contenido completo de múltiples bloques.
+     * Leer contenido completo de múltiples bloques, con una lectura por cada
+     * racha de bloques físicamente consecutivos.
      */
-    public String readFullContent(List<Integer> blockNumbers){
-        StringBuilder fullContent = new StringBuilder();
+    public byte[] readFullContent(IntList blockNumbers){
+        byte[] content = new byte[blockNumbers.size() * blockSize];
+        int length = readFullContent(blockNumbers, content);
+        return length == content.length ? content : Arrays.copyOf(content, length);
+    }
 
-        for(int block : blockNumbers){
-            fullContent.append(readBlock(block));
+    /**
+     * Leer el contenido de los bloques en target, que tiene que tener lugar
+     * para todos llenos. Devuelve la cantidad de bytes leídos.
+     */
+    public int readFullContent(IntList blockNumbers, byte[] target){
+        int length = 0;
+
+        int i = 0;
+        while (i < blockNumbers.size()) {
+            int count = runLength(blockNumbers, i);
+            length += storage.readRun(blockNumbers.get(i), count, target, length);
+            i += count;
         }
 
-        return fullContent.toString();
+        return length;
+    }
+
+    /**
+     * Cantidad de bloques consecutivos en el disco desde la posición from de la lista.
+     */
+    private static int runLength(IntList blockNumbers, int from) {
+        int start = blockNumbers.get(from);
+        int count = 1;
+        while (from + count < blockNumbers.size() && blockNumbers.get(from + count) == start + count) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Traer del medio una lista de bloques, con una lectura por cada racha de
+     * bloques físicamente consecutivos.
+     */
+    public void prefetch(IntList blockNumbers) {
+        int i = 0;
+        while (i < blockNumbers.size()) {
+            int count = runLength(blockNumbers, i);
+            storage.prefetch(blockNumbers.get(i), count);
+            i += count;
+        }
     }
 
     /**
-     * Calcula cuántos bloques necesita un contenido.
+     * Calcula cuántos bloques necesitan size bytes.
      */
-    public static int calculateRequiredBlocks(String content) {
-        return (int) Math.ceil((double) content.length() / BLOCK_SIZE);
+    public int calculateRequiredBlocks(long size) {
+        return (int) ((size + blockSize - 1) / blockSize);
     }
 
     /**
      * Obtiene espacio disponible en un bloque.
      */
     public int getAvailableSpace(int blockNumber) {
-        return BLOCK_SIZE - disk[blockNumber].length();
+        return blockSize - storage.length(blockNumber);
     }
 
     /**
      * Verifica si un bloque está vacío.
      */
     public boolean isEmpty(int blockNumber) {
-        return disk[blockNumber].isEmpty();
+        return storage.length(blockNumber) == 0;
     }
 
     /**
@@ -89,17 +196,17 @@ public class Disk {
     public void printStatus() {
         System.out.println("\n-----ESTADO DISCO-----");
 
-        int total = disk.length;
+        int total = storage.totalBlocks();
         int columns = (int) Math.ceil(Math.sqrt(total));
 
         for (int i = 0; i < total; i++) {
             String status;
 
             // Identificar tipo de bloque
-            if (i >= RESERVED_BLOCKS_START && i <= RESERVED_BLOCKS_END) {
-                status = disk[i].isEmpty() ? "S" : "S"; // S = Sistema
+            if (i >= RESERVED_BLOCKS_START && i <= reservedBlocksEnd) {
+                status = isEmpty(i) ? "S" : "S"; // S = Sistema
             } else {
-                status = disk[i].isEmpty() ? "0" : "1";
+                status = isEmpty(i) ? "0" : "1";
             }
 
             System.out.printf("[%03d] %s  ", i, status);
@@ -1,95 +1,610 @@
 package models;
 
-import java.util.*;
+import java.nio.IntBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static constants.Constants.*;
 
+/**
+ * Tabla FAT del volumen.
+ *
+ * La asignación y todo cambio de la tabla se hacen bajo el monitor de la Fat.
+ * Cada cadena pertenece a un solo archivo, salvo las colas compartidas por
+ * deduplicación, que nadie modifica; así que quien la recorre con
+ * getNextBlock o su ChainIndex debe tener el lock de ese archivo (ver
+ * services.FileSystem). Los índices ya construidos se leen sin tomar el
+ * monitor, así los lectores de archivos distintos no se bloquean.
+ *
+ * Las instantáneas (ver snapshot) son copias congeladas de la tabla que
+ * comparten los bloques de datos con el volumen. Cada bloque lleva la cuenta
+ * de las instantáneas que lo usan, y uno que el volumen libera sigue ocupado
+ * hasta que ninguna lo usa.
+ *
+ * Con la deduplicación activa (ver FingerprintIndex) varias cadenas pueden
+ * terminar en la misma cola. Cada bloque cuenta las cadenas de más que llegan
+ * a él; dropChain suelta una cadena liberando solo los bloques que no usa
+ * ninguna otra, y antes de escribir en una cadena compartida el sistema de
+ * archivos copia su cola (ver replaceSuffix). Las cuentas no se guardan:
+ * al montar se recalculan con countReferences.
+ */
 public class Fat {
 
-    private int[] fat;
+    private final int[] fat;
+    private final FreeBlockBitmap freeBlocks;
+    private volatile AllocationPolicy allocationPolicy;
+
+    // Instantáneas y flujos abiertos que usan cada bloque; null hasta el primero
+    private int[] snapshotRefs;
+    // Tramos retenidos con pin que todavía no se soltaron
+    private int pins;
+
+    // Cadenas de más que llegan a cada bloque por deduplicación; null si ninguna se comparte
+    private int[] dedupRefs;
+    // Huellas de las colas indexadas; null con la deduplicación apagada
+    private volatile FingerprintIndex fingerprints;
+
+    // Índices de cadenas ya recorridas, por primer y por último bloque
+    private final Map<Integer, ChainIndex> chainsByFirstBlock = new ConcurrentHashMap<>();
+    private final Map<Integer, ChainIndex> chainsByLastBlock = new ConcurrentHashMap<>();
+
+    // Copiados de la geometría para no consultarla en cada recorrido
+    private final int totalBlocks;
+    private final int firstAvailableBlock;
+    private final int reservedBlocksEnd;
 
     public Fat() {
-        this.fat = new int[TOTAL_BLOCKS];
+        this(Geometry.defaults());
+    }
+
+    public Fat(Geometry geometry) {
+        this(geometry, new FirstFitPolicy());
+    }
+
+    public Fat(Geometry geometry, AllocationPolicy allocationPolicy) {
+        this.allocationPolicy = allocationPolicy;
+        this.totalBlocks = geometry.getTotalBlocks();
+        this.firstAvailableBlock = geometry.getFirstAvailableBlock();
+        this.reservedBlocksEnd = geometry.getReservedBlocksEnd();
+        this.fat = new int[totalBlocks];
+        this.freeBlocks = new FreeBlockBitmap(totalBlocks);
         initializeFAT();
     }
 
+    /**
+     * Copia congelada de source para una instantánea, solo para leer cadenas.
+     */
+    private Fat(Fat source) {
+        this.allocationPolicy = source.allocationPolicy;
+        this.totalBlocks = source.totalBlocks;
+        this.firstAvailableBlock = source.firstAvailableBlock;
+        this.reservedBlocksEnd = source.reservedBlocksEnd;
+        this.fat = source.fat.clone();
+        this.freeBlocks = new FreeBlockBitmap(totalBlocks);
+
+        freeBlocks.reset(firstAvailableBlock);
+        for (int i = firstAvailableBlock; i < totalBlocks; i++) {
+            if (fat[i] != AVAILABLE_BLOCK) freeBlocks.markUsed(i);
+        }
+    }
+
     /**
      * Inicializar FAT
      */
     private void initializeFAT() {
-        // Marcar bloques reservados para el sistema (0-9)
-        for (int i = RESERVED_BLOCKS_START; i <= RESERVED_BLOCKS_END; i++) {
+        // Marcar bloques reservados para el sistema
+        for (int i = RESERVED_BLOCKS_START; i <= reservedBlocksEnd; i++) {
             fat[i] = RESERVED_BLOCK;
         }
 
         // Marcar resto como disponible
-        for (int i = FIRST_AVAILABLE_BLOCK; i < TOTAL_BLOCKS; i++) {
+        for (int i = firstAvailableBlock; i < totalBlocks; i++) {
             fat[i] = AVAILABLE_BLOCK;
         }
+
+        freeBlocks.reset(firstAvailableBlock);
+        chainsByFirstBlock.clear();
+        chainsByLastBlock.clear();
     }
 
-    public void linkBlocks(int actualBlock, int nextBlock){
+    /**
+     * Enlazar dos bloques de la cadena que empieza en firstBlock. Si
+     * actualBlock es el final de una cadena indexada, el índice se extiende
+     * con la cadena que empieza en nextBlock.
+     */
+    public synchronized void linkBlocks(int firstBlock, int actualBlock, int nextBlock){
         fat[actualBlock] = nextBlock;
+        freeBlocks.markUsed(actualBlock);
+
+        ChainIndex chain = chainsByLastBlock.remove(actualBlock);
+        if (chain == null) {
+            // Puede ser un bloque intermedio de la cadena
+            invalidateChainsThrough(firstBlock, actualBlock);
+            return;
+        }
+
+        ChainIndex continuation = chainsByFirstBlock.remove(nextBlock);
+        if (continuation == null) {
+            continuation = buildChainIndex(nextBlock);
+        } else {
+            chainsByLastBlock.remove(continuation.getLastBlock());
+        }
+
+        chain.append(continuation);
+        chainsByLastBlock.put(chain.getLastBlock(), chain);
     }
 
-    public void markAsEndOfFile(int blockNumber){
+    /**
+     * Terminar en blockNumber la cadena que empieza en firstBlock.
+     */
+    public synchronized void markAsEndOfFile(int firstBlock, int blockNumber){
         fat[blockNumber] = END_OF_FILE;
+        freeBlocks.markUsed(blockNumber);
+
+        // Puede cortar la cadena indexada por la mitad
+        invalidateChainsThrough(firstBlock, blockNumber);
     }
 
-    public void setAvailable(int blockNumber){
+    /**
+     * Liberar un bloque. Al liberar una cadena se empieza por su primer bloque,
+     * lo que descarta su índice.
+     */
+    public synchronized void setAvailable(int blockNumber){
         // No permitir marcar bloques reservados como disponibles
-        if (blockNumber >= FIRST_AVAILABLE_BLOCK) {
+        if (blockNumber >= firstAvailableBlock) {
             fat[blockNumber] = AVAILABLE_BLOCK;
+            // Si lo usa una instantánea no se reutiliza hasta que se borre
+            if (!isShared(blockNumber)) {
+                freeBlocks.markFree(blockNumber);
+            }
+            invalidateChain(blockNumber);
+        }
+    }
+
+    /**
+     * Copia congelada de la tabla para una instantánea. Cada bloque ocupado
+     * suma una referencia, así que no se reutiliza mientras la copia exista;
+     * las referencias se devuelven con release.
+     */
+    public synchronized Fat snapshot() {
+        if (snapshotRefs == null) {
+            snapshotRefs = new int[totalBlocks];
+        }
+
+        for (int i = firstAvailableBlock; i < totalBlocks; i++) {
+            if (fat[i] != AVAILABLE_BLOCK) snapshotRefs[i]++;
+        }
+        return new Fat(this);
+    }
+
+    /**
+     * Devolver las referencias de una copia tomada con snapshot. Los bloques
+     * que el volumen ya había liberado y nadie más usa quedan libres y se
+     * agregan a released.
+     */
+    public synchronized void release(Fat snapshot, IntList released) {
+        for (int i = firstAvailableBlock; i < totalBlocks; i++) {
+            if (snapshot.fat[i] == AVAILABLE_BLOCK) continue;
+
+            if (--snapshotRefs[i] == 0 && fat[i] == AVAILABLE_BLOCK) {
+                freeBlocks.markFree(i);
+                released.add(i);
+            }
+        }
+    }
+
+    /**
+     * Copia de una cadena con una referencia de más en los bloques de las
+     * posiciones [from, to), para un flujo que los va a leer sin tomar el lock
+     * del archivo. Mientras no se suelten con unpin cuentan como los de una
+     * instantánea: no se reutilizan ni se escribe en su lugar aunque el
+     * archivo se borre, se anexe o se mueva. La copia se hace con la Fat
+     * tomada, así que no se mezcla con un enlace a medias.
+     */
+    public synchronized ChainIndex pin(ChainIndex chain, int from, int to) {
+        ChainIndex copy = new ChainIndex();
+        copy.append(chain);
+
+        if (snapshotRefs == null) {
+            snapshotRefs = new int[totalBlocks];
+        }
+        for (int i = from; i < to; i++) {
+            snapshotRefs[copy.blockAt(i)]++;
+        }
+        pins++;
+        return copy;
+    }
+
+    /**
+     * Soltar un tramo retenido con pin. Los bloques que el volumen ya había
+     * liberado y nadie más usa se agregan a released, pero siguen ocupados
+     * hasta devolverlos con releaseBlocks: el flujo se cierra sin el volumen
+     * tomado, así que hay que borrarlos del disco antes de que otro archivo
+     * pueda recibirlos.
+     */
+    public synchronized void unpin(ChainIndex chain, int from, int to, IntList released) {
+        for (int i = from; i < to; i++) {
+            int block = chain.blockAt(i);
+            if (--snapshotRefs[block] == 0 && fat[block] == AVAILABLE_BLOCK) {
+                released.add(block);
+            }
+        }
+        pins--;
+    }
+
+    /**
+     * Si hay flujos de lectura con bloques retenidos.
+     */
+    public synchronized boolean hasPins() {
+        return pins > 0;
+    }
+
+    /**
+     * Si alguna instantánea o flujo abierto usa el bloque: entonces no se
+     * puede escribir en su lugar.
+     */
+    public synchronized boolean isShared(int blockNumber) {
+        return snapshotRefs != null && snapshotRefs[blockNumber] > 0;
+    }
+
+    /**
+     * Bloques que el volumen ya liberó pero siguen ocupados porque los usa
+     * alguna instantánea o un flujo abierto.
+     */
+    public synchronized int countSnapshotOnlyBlocks() {
+        if (snapshotRefs == null) return 0;
+
+        int blocks = 0;
+        for (int i = firstAvailableBlock; i < totalBlocks; i++) {
+            if (snapshotRefs[i] > 0 && fat[i] == AVAILABLE_BLOCK) blocks++;
+        }
+        return blocks;
+    }
+
+    /**
+     * Poner copies, ya reservados, en lugar de la cola de la cadena que empieza
+     * en firstBlock desde la posición position. La cola vieja queda fuera de
+     * la cadena sin soltar (ver dropChain). Devuelve el bloque anterior, que
+     * ahora apunta a la copia, o -1 si se reemplazó la cadena entera y la
+     * copia pasa a empezarla.
+     */
+    public synchronized int replaceSuffix(int firstBlock, int position, IntList copies) {
+        ChainIndex chain = getChainIndex(firstBlock);
+        int previous = position > 0 ? chain.blockAt(position - 1) : -1;
+        invalidateChain(firstBlock);
+
+        if (previous != -1) {
+            fat[previous] = copies.getFirst();
+        }
+        for (int i = 0; i < copies.size(); i++) {
+            fat[copies.get(i)] = i + 1 < copies.size() ? copies.get(i + 1) : END_OF_FILE;
+            freeBlocks.markUsed(copies.get(i));
+        }
+
+        // Volver a indexarla, así un linkBlocks sobre el último bloque extiende el índice
+        getChainIndex(previous == -1 ? copies.getFirst() : firstBlock);
+        return previous;
+    }
+
+    public boolean isDeduplicating() {
+        return fingerprints != null;
+    }
+
+    /**
+     * Activar la deduplicación con un índice ya cargado, o apagarla con null.
+     * Las colas que ya se comparten siguen compartidas.
+     */
+    public synchronized void setFingerprintIndex(FingerprintIndex index) {
+        this.fingerprints = index;
+    }
+
+    /**
+     * Colas distintas en el índice de huellas, o 0 con la deduplicación apagada.
+     */
+    public synchronized int countFingerprints() {
+        return fingerprints == null ? 0 : fingerprints.size();
+    }
+
+    /**
+     * Indexar los bloques de una cadena con las huellas de sus colas, en el
+     * mismo orden. Si hay más huellas que bloques sobran las del final.
+     */
+    public synchronized void indexChain(IntList blocks, FingerprintIndex.Fingerprint[] tails) {
+        if (fingerprints == null) return;
+
+        for (int i = 0; i < blocks.size() && i < tails.length; i++) {
+            fingerprints.put(blocks.get(i), tails[i]);
         }
     }
 
+    /**
+     * Buscar una cola con esa huella y tomar una referencia a su primer bloque,
+     * que así no se libera aunque se borren los archivos que la usan. La
+     * referencia pasa a ser de la cadena que se enlace con él (ver
+     * linkToShared), o se devuelve con dropChain. Devuelve el bloque, o -1 si
+     * no hay ninguna.
+     */
+    public synchronized int shareSuffix(FingerprintIndex.Fingerprint tail) {
+        if (fingerprints == null) return -1;
+
+        int block = fingerprints.find(tail);
+        if (block == -1) return -1;
+
+        if (dedupRefs == null) {
+            dedupRefs = new int[totalBlocks];
+        }
+        dedupRefs[block]++;
+        return block;
+    }
+
+    /**
+     * Enlazar una lista de bloques, ya reservados, y seguir en sharedBlock, el
+     * primero de una cola compartida tomada con shareSuffix.
+     */
+    public synchronized void linkToShared(IntList blocks, int sharedBlock) {
+        for (int i = 0; i < blocks.size(); i++) {
+            fat[blocks.get(i)] = i + 1 < blocks.size() ? blocks.get(i + 1) : sharedBlock;
+            freeBlocks.markUsed(blocks.get(i));
+        }
+        invalidateChain(blocks.getFirst());
+    }
+
+    /**
+     * Posición del primer bloque de la cadena al que llega otra cadena, desde
+     * donde la cola es compartida, o -1 si es toda de un solo archivo.
+     */
+    public synchronized int sharedPosition(int firstBlock) {
+        if (dedupRefs == null) return -1;
+
+        ChainIndex chain = getChainIndex(firstBlock);
+        for (int i = 0; i < chain.size(); i++) {
+            if (dedupRefs[chain.blockAt(i)] > 0) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Preparar una cadena para escribir en ella: sus bloques propios salen del
+     * índice de huellas, porque su cola va a cambiar, y así ningún archivo
+     * nuevo se enlaza con ellos. Devuelve, como sharedPosition, desde dónde
+     * es compartida: esa cola hay que copiarla antes de escribir.
+     */
+    public synchronized int claimChain(int firstBlock) {
+        int shared = sharedPosition(firstBlock);
+
+        if (fingerprints != null && fingerprints.contains(firstBlock)) {
+            ChainIndex chain = getChainIndex(firstBlock);
+            int owned = shared == -1 ? chain.size() : shared;
+            for (int i = 0; i < owned; i++) {
+                fingerprints.remove(chain.blockAt(i));
+            }
+        }
+
+        return shared;
+    }
+
+    /**
+     * Soltar una referencia a la cadena que empieza en firstBlock, porque se
+     * borra el archivo o se reemplaza esa cola. Los bloques que ya no usa
+     * ninguna otra cadena salen del índice de huellas y quedan en released,
+     * todavía ocupados: se liberan con setAvailable después de confirmar el
+     * cambio en el journal.
+     */
+    public synchronized void dropChain(int firstBlock, IntList released) {
+        released.clear();
+        // Si la cadena entera es compartida su índice queda a nombre de otro archivo
+        invalidateChain(firstBlock);
+
+        int block = firstBlock;
+        while (block != END_OF_FILE) {
+            if (dedupRefs != null && dedupRefs[block] > 0) {
+                // Desde acá la cola sigue siendo de otra cadena
+                dedupRefs[block]--;
+                return;
+            }
+
+            released.add(block);
+            if (fingerprints != null) {
+                fingerprints.remove(block);
+            }
+            block = fat[block];
+        }
+    }
+
+    /**
+     * Recalcular al montar cuántas cadenas llegan a cada bloque, con los
+     * primeros bloques de todos los archivos.
+     */
+    public synchronized void countReferences(IntList firstBlocks) {
+        int[] references = new int[totalBlocks];
+        for (int i = firstAvailableBlock; i < totalBlocks; i++) {
+            if (fat[i] >= firstAvailableBlock) references[fat[i]]++;
+        }
+        for (int i = 0; i < firstBlocks.size(); i++) {
+            references[firstBlocks.get(i)]++;
+        }
+
+        boolean shared = false;
+        for (int i = firstAvailableBlock; i < totalBlocks; i++) {
+            references[i] = Math.max(0, references[i] - 1);
+            shared |= references[i] > 0;
+        }
+        dedupRefs = shared ? references : null;
+    }
+
+    /**
+     * Bloques que no hubo que escribir gracias a la deduplicación: cada cadena
+     * de más que llega a un bloque comparte toda la cola desde ahí.
+     */
+    public synchronized long countDeduplicatedBlocks() {
+        if (dedupRefs == null) return 0;
+
+        long blocks = 0;
+        for (int i = firstAvailableBlock; i < totalBlocks; i++) {
+            if (dedupRefs[i] == 0) continue;
+
+            int length = 0;
+            for (int block = i; block != END_OF_FILE; block = fat[block]) {
+                length++;
+            }
+            blocks += (long) dedupRefs[i] * length;
+        }
+        return blocks;
+    }
+
+    /**
+     * Copia de la tabla, para revisarla en paralelo sin tomar el monitor
+     * (ver services.ConsistencyCheck).
+     */
+    public synchronized int[] copyTable() {
+        return fat.clone();
+    }
+
+    /**
+     * Copia de las cadenas de más que se cuentan en cada bloque (ver
+     * countReferences), o null si no se comparte ninguno.
+     */
+    public synchronized int[] copyReferences() {
+        return dedupRefs == null ? null : dedupRefs.clone();
+    }
+
     public int getNextBlock(int blockNumber){
         return fat[blockNumber];
     }
 
+    public AllocationPolicy getAllocationPolicy() {
+        return allocationPolicy;
+    }
+
+    public synchronized void setAllocationPolicy(AllocationPolicy allocationPolicy) {
+        this.allocationPolicy = allocationPolicy;
+    }
+
     /**
-     * Buscar bloques disponibles en FAT
+     * Buscar y reservar bloques en un solo paso, para que otro hilo no reciba
+     * los mismos. Si no alcanzan no se reserva ninguno y availableBlocks queda
+     * con los que había. Los bloques reservados se enlazan con updateFAT o se
+     * devuelven con releaseBlocks.
      */
-    public List<Integer> searchAvailableBlocks(int requiredBlocks) {
-        List<Integer> availableBlocks = new ArrayList<>();
+    public synchronized void allocateBlocks(int requiredBlocks, int preferredBlock, IntList availableBlocks) {
+        searchAvailableBlocks(requiredBlocks, preferredBlock, availableBlocks);
 
-        // Comenzar desde el primer bloque disponible (después de los reservados)
-        for (int i = FIRST_AVAILABLE_BLOCK; i < fat.length; i++){
-            if (fat[i] == AVAILABLE_BLOCK){
-                availableBlocks.add(i);
-                if (availableBlocks.size() == requiredBlocks) break;
+        if (availableBlocks.size() == requiredBlocks) {
+            for (int i = 0; i < availableBlocks.size(); i++) {
+                freeBlocks.markUsed(availableBlocks.get(i));
             }
         }
+    }
+
+    /**
+     * Reservar requiredBlocks bloques consecutivos, la primera racha libre que
+     * alcance. Devuelve false, sin reservar nada, si no hay ninguna.
+     */
+    public synchronized boolean allocateContiguous(int requiredBlocks, IntList blocks) {
+        blocks.clear();
+        int start = freeBlocks.nextFree(firstAvailableBlock);
+
+        while (start != -1) {
+            int run = freeBlocks.freeRunLength(start, requiredBlocks);
+            if (run == requiredBlocks) {
+                blocks.addRun(start, requiredBlocks);
+                for (int i = 0; i < requiredBlocks; i++) {
+                    freeBlocks.markUsed(start + i);
+                }
+                return true;
+            }
+            start = freeBlocks.nextFree(start + run);
+        }
+
+        return false;
+    }
+
+    /**
+     * Devolver bloques reservados con allocateBlocks que no se llegaron a
+     * usar, o los que dejó unpin.
+     */
+    public synchronized void releaseBlocks(IntList blocks) {
+        for (int i = 0; i < blocks.size(); i++) {
+            setAvailable(blocks.get(i));
+        }
+    }
+
+    /**
+     * Buscar bloques disponibles según la política de asignación.
+     */
+    public IntList searchAvailableBlocks(int requiredBlocks) {
+        IntList availableBlocks = new IntList(requiredBlocks);
+        searchAvailableBlocks(requiredBlocks, -1, availableBlocks);
         return availableBlocks;
     }
 
     /**
-     * Contar bloques disponibles totales
+     * Buscar bloques disponibles intentando que empiecen en preferredBlock,
+     * para que un archivo que crece siga siendo contiguo. El resultado
+     * reemplaza el contenido de availableBlocks.
      */
-    public int countAvailableBlocks(){
-        int count = 0;
-        for (int i = FIRST_AVAILABLE_BLOCK; i < fat.length; i++){
-            if (fat[i] == AVAILABLE_BLOCK) count++;
+    public synchronized void searchAvailableBlocks(int requiredBlocks, int preferredBlock, IntList availableBlocks) {
+        availableBlocks.clear();
+
+        if (preferredBlock >= firstAvailableBlock && preferredBlock < totalBlocks
+                && freeBlocks.freeRunLength(preferredBlock, requiredBlocks) == requiredBlocks) {
+            availableBlocks.addRun(preferredBlock, requiredBlocks);
+            return;
         }
-        return count;
+
+        allocationPolicy.allocate(freeBlocks, firstAvailableBlock, requiredBlocks, availableBlocks);
+    }
+
+    /**
+     * Contar bloques disponibles totales
+     */
+    public synchronized int countAvailableBlocks(){
+        return freeBlocks.freeCount();
     }
 
     /**
      * Contar bloques ocupados por archivos
      */
-    public int countUsedBlocks() {
-        int count = 0;
-        for (int i = FIRST_AVAILABLE_BLOCK; i < fat.length; i++) {
-            if (fat[i] != AVAILABLE_BLOCK) count++;
+    public synchronized int countUsedBlocks() {
+        return (totalBlocks - firstAvailableBlock) - freeBlocks.freeCount();
+    }
+
+    /**
+     * Enlaces que saltan a un bloque que no es el siguiente: cada uno parte
+     * un archivo en un tramo más.
+     */
+    public synchronized int countBreaks() {
+        int breaks = 0;
+        for (int i = firstAvailableBlock; i < totalBlocks; i++) {
+            int next = fat[i];
+            if (next != AVAILABLE_BLOCK && next != END_OF_FILE && next != i + 1) breaks++;
         }
-        return count;
+        return breaks;
     }
 
     /**
-     * Obtener cadena completa de bloques de un archivo.
+     * Índice de la cadena que empieza en firstBlock, recorriendo la FAT solo
+     * la primera vez.
      */
-    public List<Integer> getBlockChain(int firstBlock) {
-        List<Integer> chain = new ArrayList<>();
+    public ChainIndex getChainIndex(int firstBlock) {
+        ChainIndex chain = chainsByFirstBlock.get(firstBlock);
+        if (chain != null) return chain;
+
+        synchronized (this) {
+            chain = chainsByFirstBlock.get(firstBlock);
+
+            if (chain == null) {
+                chain = buildChainIndex(firstBlock);
+                chainsByFirstBlock.put(firstBlock, chain);
+                chainsByLastBlock.put(chain.getLastBlock(), chain);
+            }
+
+            return chain;
+        }
+    }
+
+    private ChainIndex buildChainIndex(int firstBlock) {
+        ChainIndex chain = new ChainIndex();
         int currentBlock = firstBlock;
 
         while (currentBlock != END_OF_FILE) {
@@ -101,43 +616,129 @@ public class Fat {
     }
 
     /**
-     * Actualizar la FAT creando lista enlazada de bloques.
+     * Descartar el índice de la cadena que empieza en firstBlock.
+     */
+    public synchronized void invalidateChain(int firstBlock) {
+        ChainIndex chain = chainsByFirstBlock.remove(firstBlock);
+        if (chain != null) {
+            chainsByLastBlock.remove(chain.getLastBlock());
+        }
+    }
+
+    /**
+     * Descartar el índice de la cadena que empieza en firstBlock, que pasa
+     * por block. Con colas deduplicadas otras cadenas pueden pasar por el
+     * mismo bloque, y se descartan también.
      */
-    public void updateFAT(List<Integer> blocks) {
+    private void invalidateChainsThrough(int firstBlock, int block) {
+        invalidateChain(firstBlock);
+        if (dedupRefs == null) return;
+
+        chainsByFirstBlock.values().removeIf(chain -> {
+            if (!chain.contains(block)) return false;
+            chainsByLastBlock.remove(chain.getLastBlock(), chain);
+            return true;
+        });
+    }
+
+    private void invalidateChains() {
+        chainsByFirstBlock.clear();
+        chainsByLastBlock.clear();
+    }
+
+    /**
+     * Obtener cadena completa de bloques de un archivo.
+     */
+    public IntList getBlockChain(int firstBlock) {
+        IntList chain = new IntList();
+        getBlockChain(firstBlock, chain);
+        return chain;
+    }
+
+    /**
+     * Cargar la cadena de bloques de un archivo en una lista reutilizable.
+     */
+    public void getBlockChain(int firstBlock, IntList chain) {
+        getChainIndex(firstBlock).copyTo(chain);
+    }
+
+    /**
+     * Último bloque de la cadena que empieza en firstBlock.
+     */
+    public int getLastBlock(int firstBlock) {
+        return getChainIndex(firstBlock).getLastBlock();
+    }
+
+    /**
+     * Actualizar la FAT creando lista enlazada de bloques e indexarla.
+     */
+    public synchronized void updateFAT(IntList blocks) {
+        ChainIndex chain = new ChainIndex();
+
         // Enlazar todos los bloques excepto el último
         for (int i = 0; i < blocks.size() - 1; i++) {
             int actualBlock = blocks.get(i);
             int nextBlock = blocks.get(i + 1);
 
             fat[actualBlock] = nextBlock;
+            freeBlocks.markUsed(actualBlock);
+            chain.add(actualBlock);
         }
 
         // El último bloque marca fin de archivo
         int lastBlock = blocks.getLast();
         fat[lastBlock] = END_OF_FILE;
+        freeBlocks.markUsed(lastBlock);
+        chain.add(lastBlock);
+
+        invalidateChain(blocks.getFirst());
+        chainsByFirstBlock.put(blocks.getFirst(), chain);
+        chainsByLastBlock.put(lastBlock, chain);
+    }
+
+    /**
+     * Cargar la tabla guardada en una imagen, con un int por bloque.
+     * Las entradas de los bloques reservados no se toman de la tabla.
+     */
+    public synchronized void load(IntBuffer table) {
+        freeBlocks.reset(firstAvailableBlock);
+
+        for (int i = firstAvailableBlock; i < totalBlocks; i++) {
+            fat[i] = table.get(i);
+            if (fat[i] != AVAILABLE_BLOCK) {
+                freeBlocks.markUsed(i);
+            }
+        }
+
+        invalidateChains();
     }
 
     /**
      * Reiniciar FAT
      */
-    public void format() {
+    public synchronized void format() {
         initializeFAT();
+        snapshotRefs = null;
+        dedupRefs = null;
+        if (fingerprints != null) {
+            fingerprints = new FingerprintIndex(totalBlocks);
+        }
     }
 
-    public void printStatus() {
+    public synchronized void printStatus() {
         System.out.println("\n-----ESTADO FAT-----");
 
         // Mostrar bloques reservados
-        System.out.println("Bloques reservados del sistema (0-9): RESERVED");
+        System.out.println("Bloques reservados del sistema (" + RESERVED_BLOCKS_START + "-" + reservedBlocksEnd + "): RESERVED");
 
         // Mostrar bloques de archivos
-        for (int i = FIRST_AVAILABLE_BLOCK; i < fat.length; i++) {
+        for (int i = firstAvailableBlock; i < totalBlocks; i++) {
             if (fat[i] != AVAILABLE_BLOCK) {
                 String value = (fat[i] == END_OF_FILE) ? "EOF" : String.valueOf(fat[i]);
                 System.out.printf("Bloque %d → %s\n", i, value);
             }
         }
 
-        System.out.println("\nBloques libres: " + countAvailableBlocks() + "/" + (TOTAL_BLOCKS - RESERVED_BLOCKS_COUNT));
+        System.out.println("\nBloques libres: " + countAvailableBlocks() + "/" + (totalBlocks - firstAvailableBlock));
     }
 }
\ No newline at end of file
@@ -0,0 +1,129 @@
+package models;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Índice de huellas para deduplicar los datos del volumen (ver Fat).
+ *
+ * La huella de un bloque resume su contenido y la huella del bloque que le
+ * sigue en la cadena, así que dos bloques con la misma huella empiezan colas
+ * idénticas: el mismo contenido desde ahí hasta el final del archivo. Un
+ * archivo nuevo cuya cola ya está en el volumen enlaza su último bloque propio
+ * con el bloque que la empieza en vez de escribirla otra vez. Se comparan
+ * colas y no bloques sueltos porque en la FAT cada bloque tiene un solo
+ * siguiente: dos cadenas solo pueden compartir desde un bloque hasta el final.
+ *
+ * La huella son los primeros 128 bits del SHA-256. El índice no es seguro
+ * entre hilos: la Fat lo usa bajo su monitor.
+ */
+public class FingerprintIndex {
+
+    /**
+     * Huella de la cola de cadena que empieza en un bloque.
+     */
+    public static final class Fingerprint {
+        private final long high;
+        private final long low;
+
+        private Fingerprint(byte[] digest) {
+            ByteBuffer buffer = ByteBuffer.wrap(digest);
+            this.high = buffer.getLong();
+            this.low = buffer.getLong();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Fingerprint fingerprint && high == fingerprint.high && low == fingerprint.low;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(high ^ low);
+        }
+    }
+
+    private final Map<Fingerprint, Integer> blocks = new HashMap<>();
+    // Huella de cada bloque indexado; null si no lo está
+    private final Fingerprint[] fingerprints;
+
+    public FingerprintIndex(int totalBlocks) {
+        this.fingerprints = new Fingerprint[totalBlocks];
+    }
+
+    /**
+     * Huellas de las colas de un contenido repartido en bloques de blockSize
+     * bytes, una por bloque. Se calculan desde el último bloque hacia el primero.
+     */
+    public static Fingerprint[] tails(byte[] content, int blockSize) {
+        int count = (content.length + blockSize - 1) / blockSize;
+        Fingerprint[] tails = new Fingerprint[count];
+        MessageDigest digest = sha256();
+
+        byte[] next = null;
+        for (int i = count - 1; i >= 0; i--) {
+            int from = i * blockSize;
+            // Marcar si sigue otro bloque, para no confundir una cola con un solo bloque que la contenga
+            digest.update((byte) (next == null ? 0 : 1));
+            digest.update(content, from, Math.min(blockSize, content.length - from));
+            if (next != null) {
+                digest.update(next);
+            }
+
+            next = digest.digest();
+            tails[i] = new Fingerprint(next);
+        }
+
+        return tails;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no disponible", e);
+        }
+    }
+
+    /**
+     * Bloque que empieza una cola con esa huella, o -1 si no hay ninguno.
+     */
+    public int find(Fingerprint fingerprint) {
+        Integer block = blocks.get(fingerprint);
+        return block == null ? -1 : block;
+    }
+
+    /**
+     * Indexar un bloque. Si otro ya tiene la misma huella se sigue usando ese.
+     */
+    public void put(int block, Fingerprint fingerprint) {
+        remove(block);
+        fingerprints[block] = fingerprint;
+        blocks.putIfAbsent(fingerprint, block);
+    }
+
+    /**
+     * Sacar un bloque del índice, porque se libera o cambia su cola.
+     */
+    public void remove(int block) {
+        Fingerprint fingerprint = fingerprints[block];
+        if (fingerprint == null) return;
+
+        fingerprints[block] = null;
+        blocks.remove(fingerprint, block);
+    }
+
+    public boolean contains(int block) {
+        return fingerprints[block] != null;
+    }
+
+    /**
+     * Cantidad de colas distintas que se pueden encontrar.
+     */
+    public int size() {
+        return blocks.size();
+    }
+}
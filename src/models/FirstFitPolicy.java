@@ -0,0 +1,36 @@
+package models;
+
+import static constants.Constants.ALLOCATION_RUN_PROBES;
+
+/**
+ * Primer ajuste: la primera racha libre donde entra el archivo, entre las
+ * primeras ALLOCATION_RUN_PROBES rachas.
+ * En un disco sin borrados coincide con tomar los primeros bloques libres.
+ */
+public class FirstFitPolicy implements AllocationPolicy {
+
+    @Override
+    public String getName() {
+        return "first";
+    }
+
+    @Override
+    public void allocate(FreeBlockBitmap freeBlocks, int firstAvailableBlock, int requiredBlocks, IntList blocks) {
+
+        if (freeBlocks.freeCount() >= requiredBlocks) {
+            int start = freeBlocks.nextFree(firstAvailableBlock);
+
+            for (int probes = 0; start != -1 && probes < ALLOCATION_RUN_PROBES; probes++) {
+                int run = freeBlocks.freeRunLength(start, requiredBlocks);
+                if (run == requiredBlocks) {
+                    blocks.addRun(start, requiredBlocks);
+                    return;
+                }
+                start = freeBlocks.nextFree(start + run);
+            }
+        }
+
+        // Ninguna racha alcanza: usar los primeros bloques libres
+        AllocationPolicy.addScattered(blocks, freeBlocks, firstAvailableBlock, firstAvailableBlock, requiredBlocks);
+    }
+}
@@ -0,0 +1,148 @@
+package models;
+
+import java.util.Arrays;
+
+/**
+ * Mapa de bits de bloques libres con un resumen de dos niveles.
+ *
+ * Cada bit de words indica si un bloque está libre; cada bit de summary
+ * indica si la palabra correspondiente de words tiene algún bloque libre.
+ * Así una búsqueda salta 4096 bloques ocupados por cada palabra de resumen.
+ */
+public class FreeBlockBitmap {
+
+    private static final int WORD_SHIFT = 6;
+    private static final int WORD_MASK = 63;
+
+    private final int totalBlocks;
+    private final long[] words;
+    private final long[] summary;
+
+    // Total actualizado en cada cambio para no recorrer el mapa al contar
+    private int freeCount;
+
+    public FreeBlockBitmap(int totalBlocks) {
+        this.totalBlocks = totalBlocks;
+        this.words = new long[wordsFor(totalBlocks)];
+        this.summary = new long[wordsFor(words.length)];
+    }
+
+    private static int wordsFor(int bits) {
+        return (bits + WORD_MASK) >>> WORD_SHIFT;
+    }
+
+    /**
+     * Marcar como libres los bloques desde firstBlock hasta el final y el resto como ocupados.
+     */
+    public void reset(int firstBlock) {
+        Arrays.fill(words, 0);
+        Arrays.fill(summary, 0);
+        freeCount = 0;
+
+        if (firstBlock >= totalBlocks) return;
+
+        int firstWord = firstBlock >>> WORD_SHIFT;
+        int lastWord = (totalBlocks - 1) >>> WORD_SHIFT;
+
+        for (int w = firstWord; w <= lastWord; w++) {
+            long word = -1L;
+            if (w == firstWord) word &= -1L << (firstBlock & WORD_MASK);
+            if (w == lastWord) word &= -1L >>> (WORD_MASK - ((totalBlocks - 1) & WORD_MASK));
+
+            words[w] = word;
+            summary[w >>> WORD_SHIFT] |= 1L << (w & WORD_MASK);
+        }
+
+        freeCount = totalBlocks - firstBlock;
+    }
+
+    public boolean isFree(int blockNumber) {
+        return (words[blockNumber >>> WORD_SHIFT] & (1L << (blockNumber & WORD_MASK))) != 0;
+    }
+
+    public void markFree(int blockNumber) {
+        int w = blockNumber >>> WORD_SHIFT;
+        long bit = 1L << (blockNumber & WORD_MASK);
+
+        if ((words[w] & bit) != 0) return;
+
+        words[w] |= bit;
+        summary[w >>> WORD_SHIFT] |= 1L << (w & WORD_MASK);
+        freeCount++;
+    }
+
+    public void markUsed(int blockNumber) {
+        int w = blockNumber >>> WORD_SHIFT;
+        long bit = 1L << (blockNumber & WORD_MASK);
+
+        if ((words[w] & bit) == 0) return;
+
+        words[w] &= ~bit;
+        if (words[w] == 0) {
+            summary[w >>> WORD_SHIFT] &= ~(1L << (w & WORD_MASK));
+        }
+        freeCount--;
+    }
+
+    /**
+     * Primer bloque libre mayor o igual a fromBlock, o -1 si no hay.
+     */
+    public int nextFree(int fromBlock) {
+        if (fromBlock >= totalBlocks) return -1;
+
+        // Resto de la palabra actual
+        int w = fromBlock >>> WORD_SHIFT;
+        long word = words[w] & (-1L << (fromBlock & WORD_MASK));
+        if (word != 0) {
+            return (w << WORD_SHIFT) + Long.numberOfTrailingZeros(word);
+        }
+
+        // Saltar palabras llenas usando el resumen
+        int nextWord = w + 1;
+        if (nextWord >= words.length) return -1;
+
+        int s = nextWord >>> WORD_SHIFT;
+        long summaryWord = summary[s] & (-1L << (nextWord & WORD_MASK));
+
+        while (true) {
+            if (summaryWord != 0) {
+                int found = (s << WORD_SHIFT) + Long.numberOfTrailingZeros(summaryWord);
+                return (found << WORD_SHIFT) + Long.numberOfTrailingZeros(words[found]);
+            }
+
+            if (++s >= summary.length) return -1;
+            summaryWord = summary[s];
+        }
+    }
+
+    /**
+     * Longitud de la racha de bloques libres que empieza en startBlock,
+     * contando como máximo maxLength bloques.
+     */
+    public int freeRunLength(int startBlock, int maxLength) {
+        int limit = (int) Math.min(totalBlocks, (long) startBlock + maxLength);
+        int position = startBlock;
+
+        while (position < limit) {
+            int w = position >>> WORD_SHIFT;
+            long used = ~words[w] & (-1L << (position & WORD_MASK));
+
+            if (used != 0) {
+                int end = (w << WORD_SHIFT) + Long.numberOfTrailingZeros(used);
+                return Math.min(end, limit) - startBlock;
+            }
+
+            position = (w + 1) << WORD_SHIFT;
+        }
+
+        return limit - startBlock;
+    }
+
+    public int totalBlocks() {
+        return totalBlocks;
+    }
+
+    public int freeCount() {
+        return freeCount;
+    }
+}
@@ -0,0 +1,102 @@
+package models;
+
+import static constants.Constants.*;
+
+/**
+ * Forma de un volumen: cantidad de bloques, tamaño de bloque y zona reservada.
+ * Es inmutable, así que cada volumen puede copiar sus valores en campos propios.
+ */
+public final class Geometry {
+
+    private final int totalBlocks;
+    private final int blockSize;
+    private final int reservedBlocks;
+
+    public Geometry(int totalBlocks, int blockSize, int reservedBlocks) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("El tamaño de bloque debe ser positivo: " + blockSize);
+        }
+        if (reservedBlocks <= 0 || reservedBlocks >= totalBlocks) {
+            throw new IllegalArgumentException("Bloques reservados inválidos: " + reservedBlocks + " de " + totalBlocks);
+        }
+
+        this.totalBlocks = totalBlocks;
+        this.blockSize = blockSize;
+        this.reservedBlocks = reservedBlocks;
+    }
+
+    /**
+     * Geometría con la zona reservada proporcional al volumen.
+     */
+    public static Geometry of(int totalBlocks, int blockSize) {
+        int reserved = Math.max(MIN_RESERVED_BLOCKS, totalBlocks / RESERVED_BLOCKS_RATIO);
+        return new Geometry(totalBlocks, blockSize, reserved);
+    }
+
+    /**
+     * Geometría por defecto (100 bloques de 10 bytes, 10 reservados).
+     */
+    public static Geometry defaults() {
+        return of(DEFAULT_TOTAL_BLOCKS, DEFAULT_BLOCK_SIZE);
+    }
+
+    public int getTotalBlocks() {
+        return totalBlocks;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public int getReservedBlocks() {
+        return reservedBlocks;
+    }
+
+    /**
+     * Último bloque de la zona reservada.
+     */
+    public int getReservedBlocksEnd() {
+        return RESERVED_BLOCKS_START + reservedBlocks - 1;
+    }
+
+    public int getFirstAvailableBlock() {
+        return RESERVED_BLOCKS_START + reservedBlocks;
+    }
+
+    /**
+     * Bloques disponibles para archivos.
+     */
+    public int getDataBlocks() {
+        return totalBlocks - reservedBlocks;
+    }
+
+    /**
+     * Capacidad para archivos en bytes.
+     */
+    public long getCapacity() {
+        return (long) getDataBlocks() * blockSize;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Geometry other)) return false;
+        return totalBlocks == other.totalBlocks
+                && blockSize == other.blockSize
+                && reservedBlocks == other.reservedBlocks;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * totalBlocks + blockSize) + reservedBlocks;
+    }
+
+    @Override
+    public String toString() {
+        return "Geometry{" +
+                "totalBlocks=" + totalBlocks +
+                ", blockSize=" + blockSize +
+                ", reservedBlocks=" + reservedBlocks +
+                '}';
+    }
+}
@@ -0,0 +1,105 @@
+package models;
+
+import java.util.Arrays;
+
+/**
+ * Lista de enteros primitivos para cadenas de bloques.
+ * Evita crear un Integer por bloque y se puede reutilizar con clear().
+ */
+public class IntList {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int[] values;
+    private int size;
+
+    public IntList() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public IntList(int capacity) {
+        this.values = new int[Math.max(capacity, 1)];
+    }
+
+    public void add(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+        values[size++] = value;
+    }
+
+    /**
+     * Agregar la secuencia start, start + 1, ..., start + count - 1.
+     */
+    public void addRun(int start, int count) {
+        ensureCapacity(size + count);
+        for (int i = 0; i < count; i++) {
+            values[size++] = start + i;
+        }
+    }
+
+    public void addAll(IntList other) {
+        ensureCapacity(size + other.size);
+        System.arraycopy(other.values, 0, values, size, other.size);
+        size += other.size;
+    }
+
+    public int get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("Índice " + index + " fuera de rango (tamaño " + size + ")");
+        }
+        return values[index];
+    }
+
+    public int getFirst() {
+        return get(0);
+    }
+
+    public int getLast() {
+        return get(size - 1);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Quitar y devolver el último valor.
+     */
+    public int removeLast() {
+        int last = getLast();
+        size--;
+        return last;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Vaciar la lista conservando la capacidad.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    public void ensureCapacity(int capacity) {
+        if (capacity > values.length) {
+            values = Arrays.copyOf(values, Math.max(capacity, values.length * 2));
+        }
+    }
+
+    public int[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) text.append(", ");
+            text.append(values[i]);
+        }
+        return text.append(']').toString();
+    }
+}
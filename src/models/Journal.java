@@ -0,0 +1,37 @@
+package models;
+
+import java.io.Closeable;
+
+/**
+ * Registro de los cambios de la FAT y del directorio que los hace
+ * persistentes y consistentes frente a cortes.
+ */
+public interface Journal extends Closeable {
+
+    /**
+     * Cargar en memoria la FAT y el árbol de directorios guardados, aplicando antes las
+     * transacciones que quedaron confirmadas en el journal. Devuelve cuántas
+     * se recuperaron.
+     */
+    int mount(Fat fat, DirectoryTree tree);
+
+    /**
+     * Confirmar una transacción. Al volver, la transacción y los bloques de
+     * datos escritos antes de confirmarla sobreviven a un corte.
+     */
+    void commit(Transaction transaction);
+
+    /**
+     * Pasar las transacciones confirmadas a la FAT y al directorio guardados
+     * y vaciar el journal.
+     */
+    void checkpoint();
+
+    /**
+     * Dejar guardados una FAT y un directorio vacíos.
+     */
+    void format();
+
+    @Override
+    void close();
+}
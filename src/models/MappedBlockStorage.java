@@ -0,0 +1,433 @@
+package models;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bloques guardados en un archivo imagen mapeado en memoria.
+ *
+ * Formato de la imagen:
+ *   [cabecera de HEADER_SIZE bytes][tabla FAT][journal][bloque 0]...[bloque N-1][directorio]
+ *
+ * Cada bloque ocupa un slot fijo: 2 bytes con la cantidad de bytes usados
+ * seguidos de BLOCK_SIZE bytes de contenido. La imagen se mapea por
+ * segmentos a medida que se accede, así que abrirla no depende de su tamaño.
+ *
+ * La tabla FAT guarda un int por bloque. El área del journal (ver
+ * WriteAheadJournal) va detrás de la tabla y crece con la cantidad de
+ * bloques, no con los reservados: una transacción que enlaza o libera muchos
+ * bloques tiene que entrar entera para ser atómica. Como el archivo es
+ * disperso, la parte del área que nunca se escribe no ocupa disco. El
+ * directorio se guarda al final de la imagen, en la posición que indica la
+ * cabecera.
+ */
+public class MappedBlockStorage implements BlockStorage {
+
+    private static final int MAGIC = 0x46415431; // "FAT1"
+    private static final int VERSION = 7;
+    private static final int HEADER_SIZE = 4096;
+    private static final int HEADER_FIELDS_SIZE = 20;
+
+    // Posición y largo del directorio guardado, dentro de la cabecera
+    private static final int DIRECTORY_OFFSET_FIELD = 20;
+    private static final int DIRECTORY_LENGTH_FIELD = 28;
+
+    // Las áreas que se escriben por separado empiezan en página nueva
+    private static final int PAGE_SIZE = 4096;
+
+    // Un MappedByteBuffer no puede superar los 2 GiB
+    private static final int MAX_SEGMENT_BYTES = 1 << 30;
+
+    private static final int LENGTH_BYTES = Character.BYTES;
+
+    // Tamaño del journal: JOURNAL_BYTES_PER_BLOCK por bloque, y nunca menos de JOURNAL_MIN_BYTES
+    private static final int JOURNAL_BYTES_PER_BLOCK = 128;
+    private static final int JOURNAL_MIN_BYTES = 64 * 1024;
+
+    private final FileChannel channel;
+    private final Geometry geometry;
+    private final int totalBlocks;
+    private final int blockSize;
+    private final int slotSize;
+    private final int blocksPerSegment;
+    private final long journalOffset;
+    private final long journalSize;
+    private final long blocksOffset;
+    private final long blocksEnd;
+    private MappedByteBuffer header;
+    // Se accede con get/put absolutos, que no cambian la posición del buffer
+    private final AtomicReferenceArray<MappedByteBuffer> segments;
+
+    private MappedBlockStorage(FileChannel channel, Geometry geometry) {
+        this.channel = channel;
+        this.geometry = geometry;
+        this.totalBlocks = geometry.getTotalBlocks();
+        this.blockSize = geometry.getBlockSize();
+        this.slotSize = LENGTH_BYTES + blockSize;
+        this.blocksPerSegment = Math.max(1, MAX_SEGMENT_BYTES / slotSize);
+        this.journalOffset = HEADER_SIZE + align((long) totalBlocks * Integer.BYTES);
+        this.journalSize = align(Math.max(JOURNAL_MIN_BYTES, (long) totalBlocks * JOURNAL_BYTES_PER_BLOCK));
+        this.blocksOffset = journalOffset + journalSize;
+        this.blocksEnd = blocksOffset + (long) totalBlocks * slotSize;
+        this.segments = new AtomicReferenceArray<>((totalBlocks + blocksPerSegment - 1) / blocksPerSegment);
+    }
+
+    /**
+     * Leer la geometría guardada en una imagen, o null si la imagen no existe.
+     */
+    public static Geometry readGeometry(Path path) {
+        try {
+            if (!Files.exists(path) || Files.size(path) == 0) return null;
+
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_FIELDS_SIZE);
+                channel.read(header, 0);
+
+                checkMagic(header);
+                return new Geometry(header.getInt(8), header.getInt(12), header.getInt(16));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo leer la imagen " + path, e);
+        }
+    }
+
+    /**
+     * Abrir una imagen existente o crearla vacía si no existe.
+     */
+    public static MappedBlockStorage open(Path path, Geometry geometry) {
+        if (geometry.getBlockSize() > Character.MAX_VALUE) {
+            throw new IllegalArgumentException("Tamaño de bloque demasiado grande: " + geometry.getBlockSize());
+        }
+
+        try {
+            boolean exists = Files.exists(path) && Files.size(path) > 0;
+            FileChannel channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+            MappedBlockStorage storage = new MappedBlockStorage(channel, geometry);
+
+            if (exists) {
+                storage.checkHeader();
+            } else {
+                storage.createImage();
+            }
+
+            return storage;
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo abrir la imagen " + path, e);
+        }
+    }
+
+    /**
+     * Crear la imagen. El archivo queda disperso: los bloques en cero están vacíos.
+     */
+    private void createImage() throws IOException {
+        header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        header.putInt(0, MAGIC);
+        header.putInt(4, VERSION);
+        header.putInt(8, totalBlocks);
+        header.putInt(12, blockSize);
+        header.putInt(16, geometry.getReservedBlocks());
+        header.force();
+
+        // Extender el archivo hasta el último byte sin escribir el área de bloques
+        if (channel.size() < blocksEnd) {
+            channel.write(ByteBuffer.allocate(1), blocksEnd - 1);
+        }
+    }
+
+    private void checkHeader() throws IOException {
+        header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        checkMagic(header);
+
+        Geometry stored = new Geometry(header.getInt(8), header.getInt(12), header.getInt(16));
+        if (!stored.equals(geometry)) {
+            throw new IllegalStateException("La geometría de la imagen no coincide: " + stored);
+        }
+    }
+
+    private static void checkMagic(ByteBuffer header) {
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            throw new IllegalStateException("El archivo no es una imagen FAT válida.");
+        }
+    }
+
+    /**
+     * Obtener el segmento mapeado que contiene un bloque, mapeándolo si hace falta.
+     */
+    private MappedByteBuffer segment(int blockNumber) {
+        int index = blockNumber / blocksPerSegment;
+        MappedByteBuffer segment = segments.get(index);
+
+        if (segment == null) {
+            long firstBlock = (long) index * blocksPerSegment;
+            long blocks = Math.min(blocksPerSegment, totalBlocks - firstBlock);
+
+            try {
+                segment = channel.map(FileChannel.MapMode.READ_WRITE,
+                        blocksOffset + firstBlock * slotSize, blocks * slotSize);
+            } catch (IOException e) {
+                throw new UncheckedIOException("No se pudo mapear el segmento " + index, e);
+            }
+            // Si otro hilo lo mapeó primero se usa el suyo
+            if (!segments.compareAndSet(index, null, segment)) {
+                segment = segments.get(index);
+            }
+        }
+
+        return segment;
+    }
+
+    static long align(long size) {
+        return (size + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE;
+    }
+
+    private MappedByteBuffer map(long offset, long size) {
+        try {
+            return channel.map(FileChannel.MapMode.READ_WRITE, offset, size);
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo mapear la imagen", e);
+        }
+    }
+
+    /**
+     * Tabla FAT guardada: un int por bloque, en cero para los bloques libres.
+     */
+    MappedByteBuffer mapFatArea() {
+        return map(HEADER_SIZE, (long) totalBlocks * Integer.BYTES);
+    }
+
+    /**
+     * Área del journal, entre la tabla FAT y los bloques.
+     */
+    MappedByteBuffer mapJournalArea() {
+        return map(journalOffset, Math.min(journalSize, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Leer length bytes de la imagen desde offset en una sola lectura.
+     */
+    ByteBuffer readAt(long offset, int length) {
+        ByteBuffer content = ByteBuffer.allocate(length);
+
+        try {
+            while (content.hasRemaining()) {
+                if (channel.read(content, offset + content.position()) < 0) {
+                    throw new IllegalStateException("La imagen está incompleta.");
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo leer la imagen", e);
+        }
+
+        return content.flip();
+    }
+
+    /**
+     * Escribir content en la imagen desde offset, extendiéndola si hace falta.
+     */
+    void writeAt(ByteBuffer content, long offset) {
+        long position = offset;
+
+        try {
+            while (content.hasRemaining()) {
+                position += channel.write(content, position);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo escribir la imagen", e);
+        }
+    }
+
+    /**
+     * Forzar al disco lo escrito con writeAt.
+     */
+    void forceWrites() {
+        try {
+            channel.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo forzar la imagen", e);
+        }
+    }
+
+    void truncate(long size) {
+        try {
+            if (channel.size() > size) channel.truncate(size);
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo recortar la imagen", e);
+        }
+    }
+
+    /**
+     * Primer byte libre detrás del área de bloques, donde puede ir el directorio.
+     */
+    long getDirectoryAreaStart() {
+        return blocksEnd;
+    }
+
+    long getDirectoryOffset() {
+        long offset = header.getLong(DIRECTORY_OFFSET_FIELD);
+        return offset == 0 ? blocksEnd : offset;
+    }
+
+    long getDirectoryLength() {
+        return header.getLong(DIRECTORY_LENGTH_FIELD);
+    }
+
+    /**
+     * Apuntar la cabecera al directorio guardado y forzarla.
+     */
+    void setDirectoryArea(long offset, long length) {
+        header.putLong(DIRECTORY_OFFSET_FIELD, offset);
+        header.putLong(DIRECTORY_LENGTH_FIELD, length);
+        header.force();
+    }
+
+    @Override
+    public Journal openJournal() {
+        return new WriteAheadJournal(this);
+    }
+
+    private int slotOffset(int blockNumber) {
+        return (blockNumber % blocksPerSegment) * slotSize;
+    }
+
+    public Geometry getGeometry() {
+        return geometry;
+    }
+
+    @Override
+    public int totalBlocks() {
+        return totalBlocks;
+    }
+
+    @Override
+    public void write(int blockNumber, byte[] content, int offset, int length) {
+        MappedByteBuffer segment = segment(blockNumber);
+        int slot = slotOffset(blockNumber);
+
+        segment.putChar(slot, (char) length);
+        segment.put(slot + LENGTH_BYTES, content, offset, length);
+    }
+
+    @Override
+    public int read(int blockNumber, int from, byte[] target, int offset, int length) {
+        MappedByteBuffer segment = segment(blockNumber);
+        int slot = slotOffset(blockNumber);
+        int count = Math.max(0, Math.min(length, segment.getChar(slot) - from));
+
+        segment.get(slot + LENGTH_BYTES + from, target, offset, count);
+        return count;
+    }
+
+    /**
+     * Bloques de la racha que entran en el segmento de firstBlock.
+     */
+    private int inSegment(int firstBlock, int count) {
+        return Math.min(count, blocksPerSegment - firstBlock % blocksPerSegment);
+    }
+
+    /**
+     * Cada bloque se copia con una lectura masiva directo a target, sin pasar
+     * por un arreglo intermedio.
+     */
+    @Override
+    public int readRun(int firstBlock, int count, byte[] target, int offset) {
+        int position = offset;
+        int done = 0;
+
+        while (done < count) {
+            int blocks = inSegment(firstBlock + done, count - done);
+            MappedByteBuffer segment = segment(firstBlock + done);
+            int slot = slotOffset(firstBlock + done);
+
+            for (int i = 0; i < blocks; i++) {
+                int length = segment.getChar(slot);
+                segment.get(slot + LENGTH_BYTES, target, position, length);
+                position += length;
+                slot += slotSize;
+            }
+            done += blocks;
+        }
+
+        return position - offset;
+    }
+
+    @Override
+    public void writeRun(int firstBlock, int count, byte[] content, int offset, int length) {
+        int done = 0;
+
+        while (done < count) {
+            int blocks = inSegment(firstBlock + done, count - done);
+            MappedByteBuffer segment = segment(firstBlock + done);
+            int slot = slotOffset(firstBlock + done);
+
+            for (int i = 0; i < blocks; i++) {
+                int from = (done + i) * blockSize;
+                int blockLength = Math.max(0, Math.min(blockSize, length - from));
+
+                segment.putChar(slot, (char) blockLength);
+                segment.put(slot + LENGTH_BYTES, content, offset + from, blockLength);
+                slot += slotSize;
+            }
+            done += blocks;
+        }
+    }
+
+    @Override
+    public int length(int blockNumber) {
+        return segment(blockNumber).getChar(slotOffset(blockNumber));
+    }
+
+    @Override
+    public void clear(int blockNumber) {
+        segment(blockNumber).putChar(slotOffset(blockNumber), (char) 0);
+    }
+
+    /**
+     * Cargar las páginas de los slots de una racha; si cruza un segmento se
+     * carga un tramo en cada uno.
+     */
+    @Override
+    public void prefetch(int firstBlock, int count) {
+        int block = firstBlock;
+        int end = firstBlock + count;
+
+        while (block < end) {
+            int blocks = inSegment(block, end - block);
+            segment(block).slice(slotOffset(block), blocks * slotSize).load();
+            block += blocks;
+        }
+    }
+
+    @Override
+    public void format() {
+        for (int i = 0; i < totalBlocks; i++) {
+            clear(i);
+        }
+    }
+
+    @Override
+    public void flush() {
+        for (int i = 0; i < segments.length(); i++) {
+            MappedByteBuffer segment = segments.get(i);
+            if (segment != null) segment.force();
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo cerrar la imagen", e);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package models;
+
+import java.util.Arrays;
+
+/**
+ * Bloques guardados en memoria. Se pierden al terminar el programa.
+ *
+ * Cada bloque es un arreglo de BLOCK_SIZE bytes que se crea la primera vez
+ * que se escribe y se reutiliza en las escrituras siguientes.
+ */
+public class MemoryBlockStorage implements BlockStorage {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final byte[][] blocks;
+    private final int[] lengths;
+    private final int blockSize;
+
+    public MemoryBlockStorage(int totalBlocks, int blockSize) {
+        this.blocks = new byte[totalBlocks][];
+        this.lengths = new int[totalBlocks];
+        this.blockSize = blockSize;
+        Arrays.fill(blocks, EMPTY);
+    }
+
+    @Override
+    public int totalBlocks() {
+        return blocks.length;
+    }
+
+    @Override
+    public void write(int blockNumber, byte[] content, int offset, int length) {
+        if (blocks[blockNumber] == EMPTY) {
+            blocks[blockNumber] = new byte[blockSize];
+        }
+        System.arraycopy(content, offset, blocks[blockNumber], 0, length);
+        lengths[blockNumber] = length;
+    }
+
+    @Override
+    public int read(int blockNumber, int from, byte[] target, int offset, int length) {
+        int count = Math.max(0, Math.min(length, lengths[blockNumber] - from));
+        System.arraycopy(blocks[blockNumber], from, target, offset, count);
+        return count;
+    }
+
+    @Override
+    public int readRun(int firstBlock, int count, byte[] target, int offset) {
+        int position = offset;
+        for (int block = firstBlock; block < firstBlock + count; block++) {
+            System.arraycopy(blocks[block], 0, target, position, lengths[block]);
+            position += lengths[block];
+        }
+        return position - offset;
+    }
+
+    @Override
+    public void writeRun(int firstBlock, int count, byte[] content, int offset, int length) {
+        for (int i = 0; i < count; i++) {
+            int from = i * blockSize;
+            write(firstBlock + i, content, offset + from, Math.max(0, Math.min(blockSize, length - from)));
+        }
+    }
+
+    @Override
+    public int length(int blockNumber) {
+        return lengths[blockNumber];
+    }
+
+    @Override
+    public void clear(int blockNumber) {
+        blocks[blockNumber] = EMPTY;
+        lengths[blockNumber] = 0;
+    }
+
+    @Override
+    public void prefetch(int firstBlock, int count) {
+        // Ya está todo en memoria
+    }
+
+    @Override
+    public void format() {
+        Arrays.fill(blocks, EMPTY);
+        Arrays.fill(lengths, 0);
+    }
+
+    @Override
+    public void flush() {
+        // Nada que persistir
+    }
+
+    @Override
+    public Journal openJournal() {
+        return new NoJournal();
+    }
+
+    @Override
+    public void close() {
+        // Nada que liberar
+    }
+}
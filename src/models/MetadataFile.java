@@ -1,25 +1,59 @@
 package models;
 
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.time.format.FormatStyle;
 
+/**
+ * Copia de una entrada de directorio. El directorio guarda las entradas en
+ * columnas (ver Directory) y crea estas copias cuando se las piden; cambiar
+ * una copia no cambia el directorio.
+ */
 public class MetadataFile {
 
     private String name;
-    private int size;
-    private LocalDateTime createdDate;
-    private LocalDateTime lastUpdate;
+    private long size;
+    // Fechas en milisegundos desde la época, como se guardan en la imagen
+    private long createdTime;
+    private long lastUpdateTime;
     private int firstBlock;
 
-    private DateTimeFormatter formatter = DateTimeFormatter.ofLocalizedDateTime(FormatStyle.SHORT);
+    // Directorio que la contiene (el primer bloque del directorio) y si es un directorio
+    private int parent = DirectoryTree.ROOT;
+    private final boolean directory;
+    // Si los bloques guardan el contenido en tramos comprimidos (ver ChunkIndex)
+    private boolean compressed;
 
-    public MetadataFile(String name, int size, int firstBlock) {
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofLocalizedDateTime(FormatStyle.SHORT);
+
+    public MetadataFile(String name, long size, int firstBlock) {
         this.name = name;
         this.size = size;
-        this.createdDate = LocalDateTime.now();
-        this.lastUpdate = LocalDateTime.now();
+        this.createdTime = System.currentTimeMillis();
+        this.lastUpdateTime = createdTime;
         this.firstBlock = firstBlock;
+        this.directory = false;
+    }
+
+    public MetadataFile(String name, long size, int firstBlock, int parent, boolean directory,
+                        long createdTime, long lastUpdateTime) {
+        this.name = name;
+        this.size = size;
+        this.createdTime = createdTime;
+        this.lastUpdateTime = lastUpdateTime;
+        this.firstBlock = firstBlock;
+        this.parent = parent;
+        this.directory = directory;
+    }
+
+    /**
+     * Entrada de un directorio nuevo que ocupa el bloque firstBlock.
+     */
+    public static MetadataFile newDirectory(String name, int firstBlock, int parent) {
+        long now = System.currentTimeMillis();
+        return new MetadataFile(name, 0, firstBlock, parent, true, now, now);
     }
 
     public String getName() {
@@ -30,28 +64,40 @@ public class MetadataFile {
         this.name = name;
     }
 
-    public int getSize() {
+    public long getSize() {
         return size;
     }
 
-    public void setSize(int size) {
+    public void setSize(long size) {
         this.size = size;
     }
 
-    public LocalDateTime getCreatedDate() {
-        return createdDate;
+    public long getCreatedTime() {
+        return createdTime;
+    }
+
+    public void setCreatedTime(long createdTime) {
+        this.createdTime = createdTime;
+    }
+
+    public long getLastUpdateTime() {
+        return lastUpdateTime;
     }
 
-    public void setCreatedDate(LocalDateTime createdDate) {
-        this.createdDate = createdDate;
+    public void setLastUpdateTime(long lastUpdateTime) {
+        this.lastUpdateTime = lastUpdateTime;
+    }
+
+    public LocalDateTime getCreatedDate() {
+        return toDate(createdTime);
     }
 
     public LocalDateTime getLastUpdate() {
-        return lastUpdate;
+        return toDate(lastUpdateTime);
     }
 
-    public void setLastUpdate(LocalDateTime lastUpdate) {
-        this.lastUpdate = lastUpdate;
+    private static LocalDateTime toDate(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
     }
 
     public int getFirstBlock() {
@@ -62,12 +108,32 @@ public class MetadataFile {
         this.firstBlock = firstBlock;
     }
 
+    public int getParent() {
+        return parent;
+    }
+
+    public void setParent(int parent) {
+        this.parent = parent;
+    }
+
+    public boolean isDirectory() {
+        return directory;
+    }
+
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    public void setCompressed(boolean compressed) {
+        this.compressed = compressed;
+    }
+
     public String toFormattedString() {
-        return String.format("%-15s | %6d caracteres | Creado: %s | Modificado: %s | Bloque inicial: %3d",
-                name,
-                size,
-                createdDate.format(formatter),
-                lastUpdate.format(formatter),
+        return String.format("%-15s | %6s bytes | Creado: %s | Modificado: %s | Bloque inicial: %3d",
+                directory ? name + "/" : name,
+                directory ? "<DIR>" : String.valueOf(size),
+                getCreatedDate().format(FORMATTER),
+                getLastUpdate().format(FORMATTER),
                 firstBlock);
     }
 
@@ -76,9 +142,12 @@ public class MetadataFile {
         return "MetadataFile{" +
                 "name='" + name + '\'' +
                 ", size=" + size +
-                ", createdDate=" + createdDate +
-                ", lastUpdate=" + lastUpdate +
+                ", createdDate=" + getCreatedDate() +
+                ", lastUpdate=" + getLastUpdate() +
                 ", firstBlock=" + firstBlock +
+                ", parent=" + parent +
+                ", directory=" + directory +
+                ", compressed=" + compressed +
                 '}';
     }
 }
\ No newline at end of file
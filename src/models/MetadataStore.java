@@ -0,0 +1,307 @@
+package models;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Entradas de un directorio guardadas como columnas de arreglos primitivos,
+ * sin un objeto por entrada.
+ *
+ * Cada entrada es una fila: tamaño, primer bloque, fechas en milisegundos,
+ * opciones y la posición de su nombre dentro de un arreglo compartido de
+ * nombres en UTF-8. Las filas libres se reutilizan. Un nombre se busca en una
+ * tabla hash de direccionamiento abierto que guarda números de fila.
+ *
+ * No es seguro para varios hilos: lo protege Directory.
+ */
+class MetadataStore {
+
+    private static final byte LIVE = 1;
+    private static final byte DIRECTORY = 2;
+    private static final byte COMPRESSED = 4;
+
+    private static final int INITIAL_ROWS = 4;
+
+    // El arreglo de nombres se compacta cuando lo borrado supera a lo vivo y a esto
+    private static final int MIN_COMPACT_BYTES = 4096;
+
+    // Fila especial que compara con los valores de setProbe (ver Directory.page)
+    static final int PROBE = -1;
+
+    private long[] sizes = new long[INITIAL_ROWS];
+    private int[] firstBlocks = new int[INITIAL_ROWS];
+    private long[] createdTimes = new long[INITIAL_ROWS];
+    private long[] updatedTimes = new long[INITIAL_ROWS];
+    private byte[] flags = new byte[INITIAL_ROWS];
+    private int[] nameOffsets = new int[INITIAL_ROWS];
+    private int[] nameLengths = new int[INITIAL_ROWS];
+    private int[] hashes = new int[INITIAL_ROWS];
+
+    // Filas usadas alguna vez; las borradas quedan en freeRows
+    private int rowLimit;
+    private int count;
+    private final IntList freeRows = new IntList(1);
+
+    private byte[] names = new byte[INITIAL_ROWS * 16];
+    private int namesLength;
+    private int garbage;
+
+    // Fila + 1 de cada entrada, 0 si el lugar está libre. Se llena hasta la mitad.
+    private int[] slots = new int[INITIAL_ROWS * 2];
+
+    private long probeValue;
+    private byte[] probeName = new byte[0];
+
+    int count() {
+        return count;
+    }
+
+    /**
+     * Las filas vivas están entre 0 y este valor (ver isLive).
+     */
+    int rowLimit() {
+        return rowLimit;
+    }
+
+    boolean isLive(int row) {
+        return (flags[row] & LIVE) != 0;
+    }
+
+    static byte[] encode(String name) {
+        return name.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Fila de un nombre, o -1 si no está.
+     */
+    int find(byte[] name) {
+        int hash = hash(name, 0, name.length);
+        int mask = slots.length - 1;
+
+        for (int slot = spread(hash) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int row = slots[slot] - 1;
+            if (hashes[row] == hash && nameEquals(row, name)) return row;
+        }
+        return -1;
+    }
+
+    /**
+     * Agregar una entrada con un nombre que no está. Devuelve su fila.
+     */
+    int insert(byte[] name, long size, int firstBlock, boolean directory, boolean compressed,
+               long created, long updated) {
+        int row;
+        if (!freeRows.isEmpty()) {
+            row = freeRows.removeLast();
+        } else {
+            if (rowLimit == sizes.length) growRows();
+            row = rowLimit++;
+        }
+
+        ensureNames(name.length);
+        System.arraycopy(name, 0, names, namesLength, name.length);
+        nameOffsets[row] = namesLength;
+        nameLengths[row] = name.length;
+        namesLength += name.length;
+
+        hashes[row] = hash(name, 0, name.length);
+        set(row, size, firstBlock, directory, compressed, created, updated);
+
+        count++;
+        if (count * 2 > slots.length) {
+            rehash(slots.length * 2);
+        } else {
+            place(row);
+        }
+        return row;
+    }
+
+    /**
+     * Reemplazar los datos de una fila viva, incluido si es un directorio o
+     * está comprimida; el nombre no cambia.
+     */
+    void set(int row, long size, int firstBlock, boolean directory, boolean compressed,
+             long created, long updated) {
+        flags[row] = (byte) (LIVE | (directory ? DIRECTORY : 0) | (compressed ? COMPRESSED : 0));
+        sizes[row] = size;
+        firstBlocks[row] = firstBlock;
+        createdTimes[row] = created;
+        updatedTimes[row] = updated;
+    }
+
+    void setSize(int row, long size, long updated) {
+        sizes[row] = size;
+        updatedTimes[row] = updated;
+    }
+
+    /**
+     * Quitar una fila. En la tabla hash se corren las entradas siguientes en
+     * vez de dejar marcas de borrado.
+     */
+    void remove(int row) {
+        int mask = slots.length - 1;
+        int hole = spread(hashes[row]) & mask;
+        while (slots[hole] != row + 1) {
+            hole = (hole + 1) & mask;
+        }
+        slots[hole] = 0;
+
+        for (int slot = (hole + 1) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int home = spread(hashes[slots[slot] - 1]) & mask;
+            boolean stays = hole <= slot ? hole < home && home <= slot : hole < home || home <= slot;
+            if (stays) continue;
+
+            slots[hole] = slots[slot];
+            slots[slot] = 0;
+            hole = slot;
+        }
+
+        flags[row] = 0;
+        garbage += nameLengths[row];
+        freeRows.add(row);
+        count--;
+
+        if (garbage > MIN_COMPACT_BYTES && garbage > namesLength - garbage) {
+            compactNames();
+        }
+    }
+
+    long size(int row) {
+        return sizes[row];
+    }
+
+    int firstBlock(int row) {
+        return firstBlocks[row];
+    }
+
+    long createdTime(int row) {
+        return createdTimes[row];
+    }
+
+    long updatedTime(int row) {
+        return updatedTimes[row];
+    }
+
+    boolean isDirectory(int row) {
+        return (flags[row] & DIRECTORY) != 0;
+    }
+
+    boolean isCompressed(int row) {
+        return (flags[row] & COMPRESSED) != 0;
+    }
+
+    String name(int row) {
+        return new String(names, nameOffsets[row], nameLengths[row], StandardCharsets.UTF_8);
+    }
+
+    boolean nameStartsWith(int row, byte[] prefix) {
+        return nameLengths[row] >= prefix.length
+                && Arrays.equals(names, nameOffsets[row], nameOffsets[row] + prefix.length, prefix, 0, prefix.length);
+    }
+
+    private boolean nameEquals(int row, byte[] name) {
+        return nameLengths[row] == name.length
+                && Arrays.equals(names, nameOffsets[row], nameOffsets[row] + name.length, name, 0, name.length);
+    }
+
+    /**
+     * Valores con los que compara la fila PROBE.
+     */
+    void setProbe(long value, byte[] name) {
+        probeValue = value;
+        probeName = name;
+    }
+
+    long probeValue() {
+        return probeValue;
+    }
+
+    /**
+     * Comparar dos nombres byte a byte, que en UTF-8 da el orden de los caracteres.
+     */
+    int compareNames(int first, int second) {
+        byte[] firstArray = first == PROBE ? probeName : names;
+        int firstFrom = first == PROBE ? 0 : nameOffsets[first];
+        int firstTo = firstFrom + (first == PROBE ? probeName.length : nameLengths[first]);
+        byte[] secondArray = second == PROBE ? probeName : names;
+        int secondFrom = second == PROBE ? 0 : nameOffsets[second];
+        int secondTo = secondFrom + (second == PROBE ? probeName.length : nameLengths[second]);
+
+        return Arrays.compareUnsigned(firstArray, firstFrom, firstTo, secondArray, secondFrom, secondTo);
+    }
+
+    private void place(int row) {
+        int mask = slots.length - 1;
+        int slot = spread(hashes[row]) & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = row + 1;
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        for (int row = 0; row < rowLimit; row++) {
+            if (isLive(row)) place(row);
+        }
+    }
+
+    private void growRows() {
+        int capacity = sizes.length + (sizes.length >> 1) + 1;
+        sizes = Arrays.copyOf(sizes, capacity);
+        firstBlocks = Arrays.copyOf(firstBlocks, capacity);
+        createdTimes = Arrays.copyOf(createdTimes, capacity);
+        updatedTimes = Arrays.copyOf(updatedTimes, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+        nameOffsets = Arrays.copyOf(nameOffsets, capacity);
+        nameLengths = Arrays.copyOf(nameLengths, capacity);
+        hashes = Arrays.copyOf(hashes, capacity);
+    }
+
+    private void ensureNames(int extra) {
+        if (namesLength + extra > names.length) {
+            names = Arrays.copyOf(names, Math.max(names.length + (names.length >> 1), namesLength + extra));
+        }
+    }
+
+    /**
+     * Copiar los nombres vivos al principio de un arreglo nuevo.
+     */
+    private void compactNames() {
+        byte[] compacted = new byte[Math.max(namesLength - garbage, INITIAL_ROWS * 16)];
+        int length = 0;
+
+        for (int row = 0; row < rowLimit; row++) {
+            if (!isLive(row)) continue;
+
+            System.arraycopy(names, nameOffsets[row], compacted, length, nameLengths[row]);
+            nameOffsets[row] = length;
+            length += nameLengths[row];
+        }
+
+        names = compacted;
+        namesLength = length;
+        garbage = 0;
+    }
+
+    private static int hash(byte[] bytes, int from, int to) {
+        int hash = 1;
+        for (int i = from; i < to; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        return hash;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Bytes de heap que ocupan las columnas, los nombres y la tabla hash.
+     */
+    long footprint() {
+        long perRow = 3L * Long.BYTES + 4L * Integer.BYTES + 1;
+        return perRow * sizes.length + names.length + (long) slots.length * Integer.BYTES
+                + (long) freeRows.size() * Integer.BYTES;
+    }
+}
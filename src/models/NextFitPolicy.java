@@ -0,0 +1,53 @@
+package models;
+
+import static constants.Constants.ALLOCATION_RUN_PROBES;
+
+/**
+ * Siguiente ajuste: como primer ajuste, pero la búsqueda continúa donde
+ * terminó la asignación anterior y da la vuelta al llegar al final. Mira a
+ * lo sumo ALLOCATION_RUN_PROBES rachas en total.
+ */
+public class NextFitPolicy implements AllocationPolicy {
+
+    private int cursor = -1;
+
+    @Override
+    public String getName() {
+        return "next";
+    }
+
+    @Override
+    public void allocate(FreeBlockBitmap freeBlocks, int firstAvailableBlock, int requiredBlocks, IntList blocks) {
+
+        if (cursor < firstAvailableBlock || cursor >= freeBlocks.totalBlocks()) {
+            cursor = firstAvailableBlock;
+        }
+
+        if (freeBlocks.freeCount() >= requiredBlocks) {
+            int start = freeBlocks.nextFree(cursor);
+            boolean wrapped = false;
+
+            for (int probes = 0; probes < ALLOCATION_RUN_PROBES; probes++) {
+                // Al llegar al final, seguir desde el principio hasta el cursor
+                if (start == -1 && !wrapped) {
+                    wrapped = true;
+                    start = freeBlocks.nextFree(firstAvailableBlock);
+                }
+                if (start == -1 || wrapped && start >= cursor) break;
+
+                int run = freeBlocks.freeRunLength(start, requiredBlocks);
+                if (run == requiredBlocks) {
+                    blocks.addRun(start, requiredBlocks);
+                    cursor = start + requiredBlocks;
+                    return;
+                }
+                start = freeBlocks.nextFree(start + run);
+            }
+        }
+
+        AllocationPolicy.addScattered(blocks, freeBlocks, firstAvailableBlock, cursor, requiredBlocks);
+        if (!blocks.isEmpty()) {
+            cursor = blocks.getLast() + 1;
+        }
+    }
+}
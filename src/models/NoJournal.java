@@ -0,0 +1,32 @@
+package models;
+
+/**
+ * Journal de un volumen en memoria: no hay nada que persistir.
+ */
+public class NoJournal implements Journal {
+
+    @Override
+    public int mount(Fat fat, DirectoryTree tree) {
+        return 0;
+    }
+
+    @Override
+    public void commit(Transaction transaction) {
+        // Nada que persistir
+    }
+
+    @Override
+    public void checkpoint() {
+        // Nada que persistir
+    }
+
+    @Override
+    public void format() {
+        // Nada que persistir
+    }
+
+    @Override
+    public void close() {
+        // Nada que liberar
+    }
+}
@@ -0,0 +1,210 @@
+package models;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static constants.Constants.*;
+
+/**
+ * Cambios de la FAT y del directorio que forman una sola operación y se
+ * confirman juntos en el journal.
+ *
+ * Los enlaces entre bloques consecutivos se agrupan en un solo registro, así
+ * que un archivo contiguo ocupa lo mismo sin importar su largo. Cada registro
+ * deja una entrada en un valor fijo, por lo que aplicarlo dos veces da el
+ * mismo resultado que aplicarlo una.
+ */
+public class Transaction {
+
+    // Tipos de registro
+    static final byte LINKS = 1;        // start, count, last: start → start+1 → ... → last
+    static final byte FREE = 2;         // start, count
+    static final byte PUT_FILE = 3;     // padre, nombre, opciones, tamaño, primer bloque, creación, modificación
+    static final byte REMOVE_FILE = 4;  // padre, nombre
+
+    // Opciones de una entrada de directorio
+    static final byte DIRECTORY_FLAG = 1;
+    static final byte COMPRESSED_FLAG = 2;
+
+    private byte[] data = new byte[64];
+    private int length;
+
+    // Registro de bloques en construcción, todavía sin codificar
+    private byte openType;
+    private int openStart;
+    private int openCount;
+    private int openLast;
+
+    /**
+     * Enlazar una lista de bloques en el orden dado, como Fat.updateFAT.
+     */
+    public void chain(IntList blocks) {
+        for (int i = 0; i < blocks.size(); i++) {
+            int next = i + 1 < blocks.size() ? blocks.get(i + 1) : END_OF_FILE;
+            set(blocks.get(i), next);
+        }
+    }
+
+    public void link(int block, int nextBlock) {
+        set(block, nextBlock);
+    }
+
+    public void endOfFile(int block) {
+        set(block, END_OF_FILE);
+    }
+
+    public void free(IntList blocks) {
+        for (int i = 0; i < blocks.size(); i++) {
+            free(blocks.get(i));
+        }
+    }
+
+    public void free(int block) {
+        if (openType == FREE && block == openStart + openCount) {
+            openCount++;
+            return;
+        }
+
+        closeRecord();
+        openType = FREE;
+        openStart = block;
+        openCount = 1;
+    }
+
+    private void set(int block, int value) {
+        if (openType == LINKS) {
+            int runEnd = openStart + openCount - 1;
+
+            // Cambiar a dónde apunta el último bloque del tramo
+            if (block == runEnd) {
+                openLast = value;
+                return;
+            }
+            // Extender el tramo con el bloque al que apuntaba
+            if (block == runEnd + 1 && openLast == block) {
+                openCount++;
+                openLast = value;
+                return;
+            }
+        }
+
+        closeRecord();
+        openType = LINKS;
+        openStart = block;
+        openCount = 1;
+        openLast = value;
+    }
+
+    /**
+     * Guardar la entrada de directorio de un archivo, nueva o modificada.
+     */
+    public void putFile(MetadataFile metadata) {
+        closeRecord();
+        putByte(PUT_FILE);
+        putInt(metadata.getParent());
+        putString(metadata.getName());
+        putByte(options(metadata));
+        putLong(metadata.getSize());
+        putInt(metadata.getFirstBlock());
+        putLong(metadata.getCreatedTime());
+        putLong(metadata.getLastUpdateTime());
+    }
+
+    public void removeFile(int parent, String name) {
+        closeRecord();
+        putByte(REMOVE_FILE);
+        putInt(parent);
+        putString(name);
+    }
+
+    public boolean isEmpty() {
+        return length == 0 && openType == 0;
+    }
+
+    /**
+     * Registros codificados, listos para escribir en el journal.
+     */
+    public ByteBuffer toByteBuffer() {
+        closeRecord();
+        return ByteBuffer.wrap(data, 0, length).slice();
+    }
+
+    private void closeRecord() {
+        if (openType == LINKS) {
+            putByte(LINKS);
+            putInt(openStart);
+            putInt(openCount);
+            putInt(openLast);
+        } else if (openType == FREE) {
+            putByte(FREE);
+            putInt(openStart);
+            putInt(openCount);
+        }
+
+        openType = 0;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, length + extra));
+        }
+    }
+
+    private void putByte(byte value) {
+        ensureCapacity(1);
+        data[length++] = value;
+    }
+
+    private void putInt(int value) {
+        ensureCapacity(Integer.BYTES);
+        ByteBuffer.wrap(data, length, Integer.BYTES).putInt(value);
+        length += Integer.BYTES;
+    }
+
+    private void putLong(long value) {
+        ensureCapacity(Long.BYTES);
+        ByteBuffer.wrap(data, length, Long.BYTES).putLong(value);
+        length += Long.BYTES;
+    }
+
+    private void putString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        putInt(bytes.length);
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, data, length, bytes.length);
+        length += bytes.length;
+    }
+
+    static String readString(ByteBuffer source) {
+        byte[] bytes = new byte[source.getInt()];
+        source.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Leer el cuerpo de un registro PUT_FILE.
+     */
+    static MetadataFile readFile(ByteBuffer source) {
+        int parent = source.getInt();
+        String name = readString(source);
+        byte options = source.get();
+        long size = source.getLong();
+        int firstBlock = source.getInt();
+        long created = source.getLong();
+        long updated = source.getLong();
+
+        MetadataFile metadata = new MetadataFile(name, size, firstBlock, parent,
+                (options & DIRECTORY_FLAG) != 0, created, updated);
+        metadata.setCompressed((options & COMPRESSED_FLAG) != 0);
+        return metadata;
+    }
+
+    /**
+     * Byte de opciones con que se guarda una entrada de directorio.
+     */
+    static byte options(MetadataFile metadata) {
+        return (byte) ((metadata.isDirectory() ? DIRECTORY_FLAG : 0)
+                | (metadata.isCompressed() ? COMPRESSED_FLAG : 0));
+    }
+}
@@ -0,0 +1,302 @@
+package models;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Journal de escritura anticipada guardado en su área de la imagen, detrás de
+ * la tabla FAT (ver MappedBlockStorage).
+ *
+ * Formato del área:
+ *   [MAGIC][reservado][secuencia base][registro][registro]...
+ *   registro = [largo][secuencia][transacción][CRC32 de secuencia y transacción]
+ *
+ * Una transacción se escribe en el journal recién después de forzar al disco
+ * los bloques de datos, y queda confirmada cuando se fuerza su registro. La
+ * tabla FAT y el directorio guardados (DirectoryTable) se actualizan entrada
+ * por entrada en un checkpoint (cuando
+ * el journal se llena, al montar y al cerrar). Al montar se aplican los
+ * registros válidos con secuencias consecutivas desde la base; como aplicar un
+ * registro dos veces no cambia nada, un corte durante el checkpoint también se
+ * recupera así.
+ *
+ * Confirmación en grupo: mientras un hilo fuerza el disco, los que confirman
+ * encolan su transacción y el siguiente force las lleva a todas juntas.
+ */
+public class WriteAheadJournal implements Journal {
+
+    private static final int MAGIC = 0x4A524E4C; // "JRNL"
+    private static final int BASE_SEQUENCE_FIELD = 8;
+    private static final int HEADER_SIZE = 16;
+
+    // Largo, secuencia y CRC de cada registro
+    private static final int FRAME_OVERHEAD = Integer.BYTES + Long.BYTES + Integer.BYTES;
+
+    private final MappedBlockStorage storage;
+    private final MappedByteBuffer area;
+    private final MappedByteBuffer fatArea;
+    private final int capacity;
+
+    // Transacciones confirmadas que todavía no se escribieron, protegidas por el monitor del journal
+    private List<ByteBuffer> pending = new ArrayList<>();
+    private long nextSequence;
+
+    // Lo que sigue se usa solo con syncLock tomado
+    private final Object syncLock = new Object();
+    private long baseSequence;
+    private long durableSequence;
+    private int position = HEADER_SIZE;
+
+    private final DirectoryTable directoryTable;
+
+    private final CRC32 crc = new CRC32();
+
+    WriteAheadJournal(MappedBlockStorage storage) {
+        this.storage = storage;
+        this.area = storage.mapJournalArea();
+        this.fatArea = storage.mapFatArea();
+        this.directoryTable = new DirectoryTable(storage);
+        this.capacity = area.capacity();
+
+        if (capacity < HEADER_SIZE) {
+            throw new IllegalStateException("El área del journal es demasiado chica.");
+        }
+    }
+
+    @Override
+    public int mount(Fat fat, DirectoryTree tree) {
+        int recovered = 0;
+
+        synchronized (syncLock) {
+            directoryTable.open();
+
+            if (area.getInt(0) == MAGIC) {
+                baseSequence = area.getLong(BASE_SEQUENCE_FIELD);
+                recovered = replay();
+                if (recovered > 0) {
+                    saveHome();
+                }
+            }
+            reset(baseSequence + recovered);
+
+            // El árbol sale de la tabla ya recuperada: repetir los registros sobre él no sirve,
+            // porque mover un directorio lo quita de su padre antes de agregarlo en el nuevo
+            directoryTable.load(tree);
+
+            synchronized (this) {
+                nextSequence = baseSequence;
+            }
+            durableSequence = baseSequence - 1;
+        }
+
+        fat.load(fatArea.asIntBuffer());
+
+        return recovered;
+    }
+
+    @Override
+    public void commit(Transaction transaction) {
+        if (transaction.isEmpty()) return;
+
+        ByteBuffer payload = transaction.toByteBuffer();
+        long sequence;
+
+        synchronized (this) {
+            sequence = nextSequence++;
+            pending.add(payload);
+        }
+
+        synchronized (syncLock) {
+            // Otro hilo ya la escribió junto con las suyas
+            if (durableSequence >= sequence) return;
+
+            List<ByteBuffer> batch;
+            long first;
+            synchronized (this) {
+                batch = pending;
+                pending = new ArrayList<>();
+                first = nextSequence - batch.size();
+            }
+
+            // Los datos tienen que llegar al disco antes que los registros que los usan
+            storage.flush();
+
+            for (int i = 0; i < batch.size(); i++) {
+                append(first + i, batch.get(i));
+            }
+            area.force(0, position);
+
+            durableSequence = first + batch.size() - 1;
+        }
+    }
+
+    /**
+     * Escribir un registro al final del journal, haciendo lugar si hace falta.
+     */
+    private void append(long sequence, ByteBuffer payload) {
+        int frameSize = FRAME_OVERHEAD + payload.remaining();
+
+        if (frameSize > capacity - HEADER_SIZE) {
+            // No entra ni con el journal vacío (el área alcanza para tocar todos
+            // los bloques, así que solo pasa con muchísimas entradas de directorio):
+            // se aplica directo a la FAT y al directorio guardados, avisando que
+            // un corte a mitad de esto no es atómico.
+            System.out.println("AVISO: Una transacción de " + frameSize + " bytes no entra en el journal ("
+                    + capacity + " bytes); se aplica sin protección ante cortes.");
+            checkpointLocked();
+            apply(payload.duplicate());
+            saveHome();
+            reset(sequence + 1);
+            return;
+        }
+
+        if (position + frameSize > capacity) {
+            checkpointLocked();
+        }
+
+        area.putInt(position, payload.remaining());
+        area.putLong(position + Integer.BYTES, sequence);
+        area.put(position + Integer.BYTES + Long.BYTES, payload, payload.position(), payload.remaining());
+        area.putInt(position + frameSize - Integer.BYTES, checksum(sequence, payload));
+
+        position += frameSize;
+    }
+
+    private int checksum(long sequence, ByteBuffer payload) {
+        crc.reset();
+        for (int shift = Long.SIZE - Byte.SIZE; shift >= 0; shift -= Byte.SIZE) {
+            crc.update((int) (sequence >>> shift));
+        }
+        crc.update(payload.duplicate());
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Aplicar los registros válidos del journal a la FAT y al directorio
+     * guardados. Devuelve cuántos se aplicaron y deja position después del
+     * último.
+     */
+    private int replay() {
+        int offset = HEADER_SIZE;
+        int applied = 0;
+
+        while (offset + FRAME_OVERHEAD <= capacity) {
+            int length = area.getInt(offset);
+            if (length < 0 || length > capacity - offset - FRAME_OVERHEAD) break;
+
+            long sequence = area.getLong(offset + Integer.BYTES);
+            if (sequence != baseSequence + applied) break;
+
+            ByteBuffer payload = area.slice(offset + Integer.BYTES + Long.BYTES, length);
+            int stored = area.getInt(offset + FRAME_OVERHEAD - Integer.BYTES + length);
+            if (stored != checksum(sequence, payload)) break;
+
+            apply(payload);
+
+            offset += FRAME_OVERHEAD + length;
+            applied++;
+        }
+
+        position = offset;
+        return applied;
+    }
+
+    /**
+     * Aplicar los registros de una transacción a la FAT y al directorio guardados.
+     */
+    private void apply(ByteBuffer payload) {
+        while (payload.hasRemaining()) {
+            byte type = payload.get();
+
+            switch (type) {
+                case Transaction.LINKS -> {
+                    int start = payload.getInt();
+                    int count = payload.getInt();
+                    int last = payload.getInt();
+
+                    for (int i = 0; i < count - 1; i++) {
+                        fatArea.putInt((start + i) * Integer.BYTES, start + i + 1);
+                    }
+                    fatArea.putInt((start + count - 1) * Integer.BYTES, last);
+                }
+                case Transaction.FREE -> {
+                    int start = payload.getInt();
+                    int count = payload.getInt();
+
+                    for (int i = 0; i < count; i++) {
+                        fatArea.putInt((start + i) * Integer.BYTES, 0);
+                    }
+                }
+                case Transaction.PUT_FILE -> {
+                    MetadataFile file = Transaction.readFile(payload);
+                    directoryTable.put(file);
+                }
+                case Transaction.REMOVE_FILE -> {
+                    int parent = payload.getInt();
+                    String name = Transaction.readString(payload);
+                    directoryTable.remove(parent, name);
+                }
+                default -> throw new IllegalStateException("Registro de journal desconocido: " + type);
+            }
+        }
+    }
+
+    /**
+     * Forzar la FAT y el directorio guardados.
+     */
+    private void saveHome() {
+        fatArea.force();
+        directoryTable.force();
+    }
+
+    /**
+     * Vaciar el journal: los registros anteriores a la nueva base dejan de ser válidos.
+     */
+    private void reset(long sequence) {
+        area.putInt(0, MAGIC);
+        area.putLong(BASE_SEQUENCE_FIELD, sequence);
+        area.force(0, HEADER_SIZE);
+
+        baseSequence = sequence;
+        position = HEADER_SIZE;
+    }
+
+    private void checkpointLocked() {
+        int applied = replay();
+        saveHome();
+        reset(baseSequence + applied);
+    }
+
+    @Override
+    public void checkpoint() {
+        synchronized (syncLock) {
+            checkpointLocked();
+        }
+    }
+
+    @Override
+    public void format() {
+        synchronized (syncLock) {
+            byte[] zeros = new byte[Math.min(fatArea.capacity(), 1 << 16)];
+            for (int offset = 0; offset < fatArea.capacity(); offset += zeros.length) {
+                fatArea.put(offset, zeros, 0, Math.min(zeros.length, fatArea.capacity() - offset));
+            }
+
+            fatArea.force();
+            directoryTable.clear();
+
+            // Los registros escritos hasta ahora quedan descartados
+            synchronized (this) {
+                reset(nextSequence);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        checkpoint();
+    }
+}
@@ -0,0 +1,225 @@
+package services;
+
+import models.ChainIndex;
+import models.ChunkIndex;
+import models.Disk;
+import models.IntList;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static constants.Constants.*;
+
+/**
+ * Flujo de bytes de un tramo de archivo que recorre su cadena de bloques de a uno.
+ *
+ * Todos los bloques de una cadena están llenos salvo el último, así que la
+ * posición de un byte determina su bloque sin recorrer la FAT.
+ *
+ * Con lectura anticipada, mientras se lee bloque tras bloque se piden por
+ * adelantado los siguientes de la cadena. La ventana empieza en
+ * READAHEAD_MIN_BLOCKS y se duplica con cada pedido hasta READAHEAD_MAX_BLOCKS;
+ * el siguiente pedido sale cuando queda menos de media ventana pedida por
+ * delante. Si el lector alcanza a lo que el hilo de fondo ya trajo, trae él
+ * mismo el resto de la ventana en una sola lectura en vez de esperar bloque
+ * por bloque. Un salto (skip o una posición no consecutiva) vuelve a la ventana
+ * mínima y no pide nada hasta que la lectura vuelve a ser secuencial. Los
+ * tramos de menos de READAHEAD_MIN_RANGE_BLOCKS bloques no se leen por
+ * adelantado.
+ *
+ * En un archivo comprimido las posiciones son las del contenido original: el
+ * flujo busca en el ChunkIndex el tramo que las contiene y lo descomprime
+ * entero de una vez, sin lectura anticipada.
+ */
+public class ChainInputStream extends InputStream {
+
+    private final Disk disk;
+    private final ChainIndex chain;
+    private final int blockSize;
+
+    private long position;
+    private final long end;
+    private boolean closed;
+
+    // Para read(), que no crea un arreglo por byte
+    private final byte[] single = new byte[1];
+
+    // Tramos del archivo comprimido y el último descomprimido; chunks es null si no está comprimido
+    private final ChunkIndex chunks;
+    private byte[] chunk;
+    private int chunkNumber = -1;
+    private long chunkStart;
+
+    // Suelta los bloques retenidos al abrir el lector (ver PinnedChain)
+    private final Runnable onClose;
+
+    // Lectura anticipada; null si no se usa
+    private final Readahead readahead;
+    private final int lastIndex;
+    private int lastBlockIndex;
+    // Primera posición de la cadena que todavía no se pidió y que todavía no se trajo
+    private int requestedUntil;
+    private final AtomicInteger fetchedUntil = new AtomicInteger();
+    private int window = READAHEAD_MIN_BLOCKS;
+
+    public ChainInputStream(Disk disk, ChainIndex chain, long offset, long end) {
+        this(disk, chain, offset, end, () -> { });
+    }
+
+    public ChainInputStream(Disk disk, ChainIndex chain, long offset, long end, Runnable onClose) {
+        this(disk, chain, offset, end, onClose, null);
+    }
+
+    ChainInputStream(Disk disk, ChainIndex chain, long offset, long end, Runnable onClose, Readahead readahead) {
+        this(disk, chain, null, offset, end, onClose, readahead);
+    }
+
+    /**
+     * Flujo sobre un archivo comprimido; offset y end son posiciones del contenido original.
+     */
+    ChainInputStream(Disk disk, ChainIndex chain, ChunkIndex chunks, long offset, long end, Runnable onClose) {
+        this(disk, chain, chunks, offset, end, onClose, null);
+    }
+
+    private ChainInputStream(Disk disk, ChainIndex chain, ChunkIndex chunks, long offset, long end,
+                             Runnable onClose, Readahead readahead) {
+        this.disk = disk;
+        this.chain = chain;
+        this.chunks = chunks;
+        this.blockSize = disk.getGeometry().getBlockSize();
+        this.position = offset;
+        this.end = end;
+        this.onClose = onClose;
+
+        // Empezar a leer desde el principio del tramo ya cuenta como secuencial
+        int firstIndex = (int) (offset / blockSize);
+        this.lastIndex = end > 0 ? (int) ((end - 1) / blockSize) : -1;
+        this.readahead = lastIndex - firstIndex + 1 >= READAHEAD_MIN_RANGE_BLOCKS ? readahead : null;
+        this.lastBlockIndex = firstIndex - 1;
+        this.requestedUntil = firstIndex;
+    }
+
+    @Override
+    public int read(byte[] target, int offset, int length) throws IOException {
+        ensureOpen();
+        if (length == 0) return 0;
+        if (position >= end) return -1;
+        if (chunks != null) return readChunk(target, offset, length);
+
+        int blockIndex = (int) (position / blockSize);
+        int from = (int) (position % blockSize);
+        int count = (int) Math.min(Math.min(length, blockSize - from), end - position);
+
+        if (readahead != null && blockIndex != lastBlockIndex) {
+            readAhead(blockIndex);
+        }
+
+        int copied = disk.readBlock(chain.blockAt(blockIndex), from, target, offset, count);
+        if (copied == 0) return -1;
+
+        position += copied;
+        return copied;
+    }
+
+    /**
+     * Copiar desde el tramo descomprimido que contiene la posición actual,
+     * descomprimiéndolo si es otro.
+     */
+    private int readChunk(byte[] target, int offset, int length) {
+        int number = chunks.find(position);
+        if (number != chunkNumber) {
+            chunk = chunks.inflate(disk, chain, number);
+            chunkNumber = number;
+            chunkStart = chunks.logicalOffset(number);
+        }
+
+        int from = (int) (position - chunkStart);
+        int count = (int) Math.min(Math.min(length, chunk.length - from), end - position);
+        System.arraycopy(chunk, from, target, offset, count);
+
+        position += count;
+        return count;
+    }
+
+    /**
+     * Pedir los bloques que siguen si la lectura es secuencial y queda poco pedido.
+     */
+    private void readAhead(int blockIndex) {
+        boolean sequential = blockIndex == lastBlockIndex + 1;
+        lastBlockIndex = blockIndex;
+
+        if (!sequential) {
+            window = READAHEAD_MIN_BLOCKS;
+            requestedUntil = blockIndex + 1;
+            fetchedUntil.set(blockIndex + 1);
+            return;
+        }
+
+        if (blockIndex >= fetchedUntil.get()) {
+            int to = Math.min(Math.max(requestedUntil, blockIndex + window), lastIndex + 1);
+            disk.prefetch(blocks(blockIndex, to));
+            fetchedUntil.accumulateAndGet(to, Math::max);
+            requestedUntil = Math.max(requestedUntil, to);
+        }
+        if (requestedUntil - blockIndex > window / 2) return;
+
+        int from = requestedUntil;
+        int to = Math.min(from + window, lastIndex + 1);
+        if (from >= to) return;
+
+        readahead.submit(blocks(from, to), () -> fetchedUntil.accumulateAndGet(to, Math::max));
+
+        requestedUntil = to;
+        window = Math.min(window * 2, READAHEAD_MAX_BLOCKS);
+    }
+
+    /**
+     * Bloques de las posiciones [from, to) de la cadena.
+     */
+    private IntList blocks(int from, int to) {
+        IntList blocks = new IntList(to - from);
+        for (int i = from; i < to; i++) {
+            blocks.add(chain.blockAt(i));
+        }
+        return blocks;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        ensureOpen();
+        long skipped = Math.max(0, Math.min(n, end - position));
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return closed ? 0 : (int) Math.min(Integer.MAX_VALUE, remaining());
+    }
+
+    /**
+     * Bytes que faltan leer del tramo.
+     */
+    public long remaining() {
+        return Math.max(0, end - position);
+    }
+
+    @Override
+    public void close() {
+        if (closed) return;
+
+        closed = true;
+        chunk = null;
+        onClose.run();
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) throw new IOException("El flujo de lectura está cerrado.");
+    }
+}
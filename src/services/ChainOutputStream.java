@@ -0,0 +1,316 @@
+package services;
+
+import models.ChunkIndex;
+import models.Directory;
+import models.Disk;
+import models.Fat;
+import models.IntList;
+import models.Journal;
+import models.MetadataFile;
+import models.Transaction;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.locks.Lock;
+
+import static constants.Constants.*;
+
+/**
+ * Escritor que guarda un archivo a medida que llegan los datos.
+ *
+ * Junta los bytes en un buffer del tamaño de un bloque; cada vez que se
+ * llena pide un bloque a la FAT, lo escribe y lo enlaza a la cadena. Usa la
+ * misma memoria sin importar el tamaño del archivo. Al cerrar actualiza el
+ * directorio con el tamaño y la fecha de modificación y confirma todos los
+ * cambios en el journal como una sola transacción.
+ *
+ * Entre una escritura y otra no tiene ningún lock tomado: toma el del volumen
+ * (compartido) y el del archivo (exclusivo) solo mientras vuelca un bloque,
+ * deshace o confirma, así el hilo que escribe puede hacer otras operaciones
+ * con el flujo abierto.
+ *
+ * En un archivo comprimido junta además COMPRESSION_CHUNK_SIZE bytes antes de
+ * comprimirlos en un tramo (ver ChunkIndex) y escribirlo; el último tramo, que
+ * puede ser más corto, se escribe al cerrar.
+ */
+public class ChainOutputStream extends OutputStream {
+
+    private final Fat fat;
+    private final Disk disk;
+    private final Directory directory;
+    private final Journal journal;
+    private final String name;
+
+    private final byte[] buffer;
+    private int buffered;
+
+    // Bloque donde se volcará el buffer; -1 si hay que pedir uno nuevo
+    private int currentBlock = -1;
+    private int firstBlock = -1;
+    private int lastWrittenBlock = -1;
+
+    // Estado del archivo existente, para deshacer si falta espacio
+    private final MetadataFile existing;
+    private final int originalLastBlock;
+    private final byte[] originalLastContent;
+
+    private long written;
+    private boolean closed;
+
+    // Contenido original que todavía no se comprimió; null si el archivo no está comprimido
+    private final byte[] pending;
+    private int pendingLength;
+
+    // Locks del volumen y del archivo, tomados solo mientras se toca la cadena o el directorio
+    private final Lock volumeLock;
+    private final Lock fileLock;
+
+    // Quita la marca de archivo abierto para escritura
+    private final Runnable onClose;
+
+    private final IntList allocation = new IntList(1);
+
+    // Para write(int), que no crea un arreglo por byte
+    private final byte[] single = new byte[1];
+
+    // Los bloques contiguos se agrupan, así que crece con los tramos y no con los bloques
+    private final Transaction transaction = new Transaction();
+
+    /**
+     * lastFill son los bytes del último bloque del archivo existente según su
+     * tamaño confirmado; lo que el bloque tenga de más no es del archivo.
+     */
+    ChainOutputStream(Fat fat, Disk disk, Directory directory, Journal journal, String name, boolean compress,
+                      int lastFill, Lock volumeLock, Lock fileLock, Runnable onClose) {
+        this.volumeLock = volumeLock;
+        this.fileLock = fileLock;
+        this.onClose = onClose;
+        this.fat = fat;
+        this.disk = disk;
+        this.directory = directory;
+        this.journal = journal;
+        this.name = name;
+        this.buffer = new byte[disk.getGeometry().getBlockSize()];
+        this.existing = directory.getMetadata(name);
+
+        if (existing != null) {
+            // Seguir llenando el último bloque del archivo
+            int lastBlock = fat.getLastBlock(existing.getFirstBlock());
+            originalLastBlock = lastBlock;
+            originalLastContent = disk.readBlock(lastBlock);
+            buffered = disk.readBlock(lastBlock, 0, buffer, 0, lastFill);
+            currentBlock = lastBlock;
+            firstBlock = existing.getFirstBlock();
+            lastWrittenBlock = lastBlock;
+        } else {
+            originalLastBlock = -1;
+            originalLastContent = null;
+        }
+
+        // Un archivo existente sigue como se creó
+        boolean compressed = existing != null ? existing.isCompressed() : compress;
+        this.pending = compressed ? new byte[COMPRESSION_CHUNK_SIZE] : null;
+    }
+
+    @Override
+    public void write(byte[] content, int offset, int length) throws IOException {
+        ensureOpen();
+        written += length;
+
+        if (pending == null) {
+            writeStored(content, offset, length);
+            return;
+        }
+
+        while (length > 0) {
+            int count = Math.min(length, pending.length - pendingLength);
+            System.arraycopy(content, offset, pending, pendingLength, count);
+            pendingLength += count;
+            offset += count;
+            length -= count;
+
+            if (pendingLength == pending.length) {
+                writePending();
+            }
+        }
+    }
+
+    /**
+     * Comprimir lo pendiente en un tramo y escribirlo.
+     */
+    private void writePending() throws IOException {
+        byte[] stored = ChunkIndex.compress(pending, pendingLength);
+        pendingLength = 0;
+        writeStored(stored, 0, stored.length);
+    }
+
+    /**
+     * Agregar bytes a la cadena tal como se guardan.
+     */
+    private void writeStored(byte[] content, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (buffered == buffer.length) {
+                flushBlock();
+            }
+
+            int count = Math.min(length, buffer.length - buffered);
+            System.arraycopy(content, offset, buffer, buffered, count);
+            buffered += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        single[0] = (byte) b;
+        write(single, 0, 1);
+    }
+
+    /**
+     * Volcar el buffer lleno al disco y preparar el siguiente bloque.
+     */
+    private void flushBlock() throws IOException {
+        writeCurrentBlock();
+        currentBlock = -1;
+        buffered = 0;
+    }
+
+    private void writeCurrentBlock() throws IOException {
+        lock();
+        try {
+            if (currentBlock == -1) {
+                currentBlock = allocateBlock();
+            }
+
+            disk.write(currentBlock, buffer, 0, buffered);
+        } finally {
+            unlock();
+        }
+    }
+
+    private void lock() {
+        volumeLock.lock();
+        fileLock.lock();
+    }
+
+    private void unlock() {
+        fileLock.unlock();
+        volumeLock.unlock();
+    }
+
+    /**
+     * Pedir un bloque, preferentemente el siguiente al último, y enlazarlo a la cadena.
+     */
+    private int allocateBlock() throws IOException {
+        int preferred = lastWrittenBlock == -1 ? -1 : lastWrittenBlock + 1;
+        fat.allocateBlocks(1, preferred, allocation);
+
+        if (allocation.isEmpty()) {
+            abort();
+            throw new IOException(MSG_DISK_OUT_OF_SPACE);
+        }
+
+        int block = allocation.getFirst();
+        fat.updateFAT(allocation);
+
+        if (lastWrittenBlock == -1) {
+            firstBlock = block;
+        } else {
+            fat.linkBlocks(firstBlock, lastWrittenBlock, block);
+            transaction.link(lastWrittenBlock, block);
+        }
+        transaction.endOfFile(block);
+
+        lastWrittenBlock = block;
+        return block;
+    }
+
+    /**
+     * Liberar los bloques agregados y dejar el archivo como estaba, con los
+     * locks tomados para que nadie vea la cadena a medio deshacer. La marca de
+     * archivo abierto se quita recién al final, como en close.
+     */
+    private void abort() {
+        closed = true;
+
+        lock();
+        try {
+            int block;
+            if (existing != null) {
+                block = fat.getNextBlock(originalLastBlock);
+
+                disk.write(originalLastBlock, originalLastContent, 0, originalLastContent.length);
+                fat.markAsEndOfFile(existing.getFirstBlock(), originalLastBlock);
+            } else {
+                block = firstBlock;
+            }
+
+            while (block != END_OF_FILE && block != -1) {
+                int next = fat.getNextBlock(block);
+                // Una instantánea tomada con el flujo abierto puede usarlo
+                if (!fat.isShared(block)) {
+                    disk.delete(block);
+                }
+                fat.setAvailable(block);
+                block = next;
+            }
+        } finally {
+            unlock();
+            onClose.run();
+        }
+    }
+
+    /**
+     * Los bloques llenos ya están en el disco; el último se escribe al cerrar.
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+
+        if (pendingLength > 0) {
+            writePending();
+        }
+
+        // Un archivo nuevo vacío igual ocupa un bloque para tener primer bloque
+        if (buffered > 0 || firstBlock == -1) {
+            writeCurrentBlock();
+        }
+        closed = true;
+
+        lock();
+        try {
+            MetadataFile metadata = existing;
+            if (metadata != null) {
+                directory.update(metadata, metadata.getSize() + written, System.currentTimeMillis());
+            } else {
+                metadata = new MetadataFile(name, written, firstBlock);
+                metadata.setParent(directory.getId());
+                metadata.setCompressed(pending != null);
+                directory.addFile(name, metadata);
+            }
+
+            transaction.putFile(metadata);
+            journal.commit(transaction);
+        } finally {
+            unlock();
+            onClose.run();
+        }
+    }
+
+    /**
+     * Bytes escritos hasta el momento, sin comprimir.
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) throw new IOException("El flujo de escritura está cerrado.");
+    }
+}
@@ -0,0 +1,499 @@
+package services;
+
+import models.ChainIndex;
+import models.ChunkIndex;
+import models.Directory;
+import models.DirectoryTree;
+import models.Disk;
+import models.Fat;
+import models.IntList;
+import models.MetadataFile;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static constants.Constants.*;
+
+/**
+ * Revisión de que la FAT, los directorios y el contenido de los bloques
+ * concuerdan, repartida en el pool de fork/join.
+ *
+ * Trabaja sobre una copia de la tabla y se llama con el volumen tomado en modo
+ * exclusivo (ver FileSystem.check). Primero recorre las cadenas de todos los
+ * archivos en paralelo, por rangos de archivos: marca los bloques alcanzados,
+ * corta donde un enlace sale del volumen, llega a un bloque libre o a un
+ * directorio, o cierra un ciclo, y compara el tamaño del directorio con lo
+ * que hay guardado en la cadena. Después recorre la tabla en paralelo, por
+ * rangos de bloques, contando cuántas cadenas llegan a cada bloque y buscando
+ * los ocupados que no alcanza ningún archivo.
+ *
+ * Que dos cadenas lleguen al mismo bloque no es un error por sí solo: así se
+ * comparten las colas deduplicadas. Lo que se revisa es que la cuenta
+ * coincida con la que lleva Fat, que es la que impide liberar o escribir un
+ * bloque que otro archivo todavía usa.
+ *
+ * No cambia nada: devuelve lo que encontró y FileSystem decide qué reparar.
+ */
+class ConsistencyCheck {
+
+    private final Disk disk;
+    private final Fat fat;
+    private final DirectoryTree tree;
+
+    // Copiados de la geometría
+    private final int blockSize;
+    private final int totalBlocks;
+    private final int firstAvailableBlock;
+
+    // Estado de una pasada
+    private int[] table;
+    private boolean[] directoryBlocks;
+    private AtomicIntegerArray reached;
+
+    ConsistencyCheck(Disk disk, Fat fat, DirectoryTree tree) {
+        this.disk = disk;
+        this.fat = fat;
+        this.tree = tree;
+        this.blockSize = disk.getGeometry().getBlockSize();
+        this.totalBlocks = disk.getGeometry().getTotalBlocks();
+        this.firstAvailableBlock = disk.getGeometry().getFirstAvailableBlock();
+    }
+
+    /**
+     * Un archivo revisado y lo que se encontró en su cadena.
+     */
+    static final class FileCheck {
+        final Directory parent;
+        final MetadataFile metadata;
+        final String path;
+
+        // Bloques alcanzados hasta el fin de archivo o el corte; null si el primero no es válido
+        ChainIndex chain;
+        // Bloque donde hay que cortar la cadena y por qué, o -1
+        int cut = -1;
+        Cut cutKind;
+
+        // Si lo guardado no coincide con el tamaño: con cuántos bloques se queda,
+        // cuánto ocupa el último y el tamaño que le corresponde
+        boolean sizeMismatch;
+        long physicalSize;
+        int keepBlocks;
+        int lastLength;
+        long size;
+        // Falso si esa parte de la cadena la comparte con otro archivo
+        boolean repairable = true;
+
+        FileCheck(Directory parent, MetadataFile metadata, String path) {
+            this.parent = parent;
+            this.metadata = metadata;
+            this.path = path;
+        }
+    }
+
+    /**
+     * Por qué se corta una cadena.
+     */
+    enum Cut {
+        // El enlace sale del volumen o llega a un bloque libre
+        BAD_LINK,
+        // El enlace llega al bloque de un directorio
+        DIRECTORY_LINK,
+        // El enlace vuelve a un bloque anterior de la misma cadena
+        CYCLE
+    }
+
+    /**
+     * Lo que encontró una pasada.
+     */
+    static final class Result {
+        int files;
+        int directories;
+        int blocks;
+        int parallelism;
+        long millis;
+
+        final List<FileCheck> invalidFiles = new ArrayList<>();
+        final List<FileCheck> cutFiles = new ArrayList<>();
+        final List<FileCheck> sizeMismatches = new ArrayList<>();
+        final IntList badDirectories = new IntList();
+        int[] referenceMismatches = new int[0];
+        int[] orphans = new int[0];
+        int cycles;
+        int badLinks;
+        int directoryLinks;
+
+        // Una línea por problema, en orden de archivo y de bloque
+        final List<String> messages = new ArrayList<>();
+
+        int problems() {
+            return invalidFiles.size() + cutFiles.size() + sizeMismatches.size() + badDirectories.size()
+                    + referenceMismatches.length + orphans.length;
+        }
+
+        /**
+         * Bloques que el volumen ocupa sin que los use ningún archivo ni directorio.
+         */
+        IntList orphanBlocks() {
+            IntList blocks = new IntList(orphans.length);
+            for (int block : orphans) {
+                blocks.add(block);
+            }
+            return blocks;
+        }
+    }
+
+    /**
+     * Revisar el volumen entero.
+     */
+    Result run() {
+        long started = System.currentTimeMillis();
+        Result result = new Result();
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        result.parallelism = pool.getParallelism();
+        result.blocks = totalBlocks - firstAvailableBlock;
+
+        table = fat.copyTable();
+        directoryBlocks = new boolean[totalBlocks];
+        reached = new AtomicIntegerArray(totalBlocks);
+
+        // Cada directorio ocupa un bloque marcado como fin de archivo
+        List<FileCheck> files = new ArrayList<>();
+        Map<Integer, String> paths = directoryPaths();
+        for (Directory directory : tree.directories()) {
+            int id = directory.getId();
+            if (id != DirectoryTree.ROOT && isDataBlock(id)) {
+                directoryBlocks[id] = true;
+                if (table[id] != END_OF_FILE) result.badDirectories.add(id);
+                result.directories++;
+            }
+
+            String path = paths.getOrDefault(id, "?" + id);
+            for (MetadataFile entry : directory.entries()) {
+                if (!entry.isDirectory()) {
+                    files.add(new FileCheck(directory, entry, child(path, entry.getName())));
+                }
+            }
+        }
+        result.files = files.size();
+
+        // Cadenas de los archivos, en paralelo por rangos de archivos
+        FileCheck[] checks = files.toArray(new FileCheck[0]);
+        pool.invoke(new RangeTask(0, checks.length, CHECK_FILE_GRAIN, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                walk(checks[i]);
+            }
+        }));
+
+        boolean[] cuts = new boolean[totalBlocks];
+        for (FileCheck check : checks) {
+            if (check.cut != -1) cuts[check.cut] = true;
+        }
+
+        // Cadenas que llegan a cada bloque: los enlaces de los bloques alcanzados más los primeros bloques
+        AtomicIntegerArray references = new AtomicIntegerArray(totalBlocks);
+        pool.invoke(new RangeTask(firstAvailableBlock, totalBlocks, CHECK_BLOCK_GRAIN, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                int next = table[i];
+                if (reached.get(i) != 0 && !cuts[i] && isDataBlock(next)) references.incrementAndGet(next);
+            }
+        }));
+        for (FileCheck check : checks) {
+            if (check.chain != null) references.incrementAndGet(check.chain.getFirstBlock());
+        }
+
+        // Comparar con las cuentas de Fat y buscar bloques ocupados que nadie alcanza
+        int[] counted = fat.copyReferences();
+        List<IntList> mismatchParts = new ArrayList<>();
+        List<IntList> orphanParts = new ArrayList<>();
+        pool.invoke(new RangeTask(firstAvailableBlock, totalBlocks, CHECK_BLOCK_GRAIN, (from, to) -> {
+            IntList mismatches = new IntList();
+            IntList orphans = new IntList();
+
+            for (int i = from; i < to; i++) {
+                if (reached.get(i) != 0) {
+                    int expected = Math.max(0, references.get(i) - 1);
+                    if (expected != (counted == null ? 0 : counted[i])) mismatches.add(i);
+                } else if (table[i] != AVAILABLE_BLOCK && !directoryBlocks[i]) {
+                    orphans.add(i);
+                }
+            }
+
+            synchronized (mismatchParts) {
+                mismatchParts.add(mismatches);
+                orphanParts.add(orphans);
+            }
+        }));
+        result.referenceMismatches = sorted(mismatchParts);
+        result.orphans = sorted(orphanParts);
+
+        for (FileCheck check : checks) {
+            classify(check, references, result);
+        }
+        for (int i = 0; i < result.badDirectories.size(); i++) {
+            int block = result.badDirectories.get(i);
+            result.messages.add("Directorio en el bloque " + block + ": la FAT lo enlaza a " + table[block]);
+        }
+        for (int block : result.referenceMismatches) {
+            result.messages.add("Bloque " + block + ": lo alcanzan " + references.get(block) + " cadenas y la FAT cuenta "
+                    + ((counted == null ? 0 : counted[block]) + 1));
+        }
+        for (int block : result.orphans) {
+            result.messages.add("Bloque " + block + " ocupado sin archivo (enlaza a " + table[block] + ")");
+        }
+
+        table = null;
+        directoryBlocks = null;
+        reached = null;
+        result.millis = System.currentTimeMillis() - started;
+        return result;
+    }
+
+    /**
+     * Recorrer la cadena de un archivo, marcando sus bloques, y medir lo que
+     * tiene guardado.
+     */
+    private void walk(FileCheck check) {
+        int first = check.metadata.getFirstBlock();
+        if (!isDataBlock(first) || table[first] == AVAILABLE_BLOCK || directoryBlocks[first]) return;
+
+        ChainIndex chain = new ChainIndex();
+        int block = first;
+        // Ciclos por el método de Brent: se compara con un bloque de control que
+        // avanza cada vez más lejos, así que alcanza con recorrer el ciclo un par de veces
+        int checkpoint = first;
+        int power = 1;
+        int length = 0;
+
+        while (true) {
+            chain.add(block);
+            reached.set(block, 1);
+
+            int next = table[block];
+            if (next == END_OF_FILE) break;
+
+            if (!isDataBlock(next) || table[next] == AVAILABLE_BLOCK) {
+                check.cut = block;
+                check.cutKind = Cut.BAD_LINK;
+                break;
+            }
+            if (directoryBlocks[next]) {
+                check.cut = block;
+                check.cutKind = Cut.DIRECTORY_LINK;
+                break;
+            }
+
+            length++;
+            if (next == checkpoint) {
+                chain = cycleChain(first, length);
+                check.cut = chain.getLastBlock();
+                check.cutKind = Cut.CYCLE;
+                break;
+            }
+            if (length == power) {
+                checkpoint = next;
+                power <<= 1;
+                length = 0;
+            }
+
+            block = next;
+        }
+
+        check.chain = chain;
+        measure(check);
+    }
+
+    /**
+     * Cadena desde first hasta el último bloque antes de volver a entrar en
+     * un ciclo de cycleLength bloques.
+     */
+    private ChainIndex cycleChain(int first, int cycleLength) {
+        int ahead = first;
+        for (int i = 0; i < cycleLength; i++) {
+            ahead = table[ahead];
+        }
+
+        // Bloques antes de entrar al ciclo
+        int behind = first;
+        int tail = 0;
+        while (behind != ahead) {
+            behind = table[behind];
+            ahead = table[ahead];
+            tail++;
+        }
+
+        ChainIndex chain = new ChainIndex();
+        int block = first;
+        for (int i = 0; i < tail + cycleLength; i++) {
+            chain.add(block);
+            block = table[block];
+        }
+        return chain;
+    }
+
+    /**
+     * Comparar el tamaño del directorio con lo guardado en la cadena. En un
+     * archivo comprimido vale lo que cubren los tramos enteros que se pueden
+     * leer; en uno sin comprimir, lo que hay hasta el tamaño.
+     */
+    private void measure(FileCheck check) {
+        ChainIndex chain = check.chain;
+        long physical = (long) (chain.size() - 1) * blockSize
+                + blockSize - disk.getAvailableSpace(chain.getLastBlock());
+        long size = check.metadata.getSize();
+
+        long stored;
+        long logical;
+        if (check.metadata.isCompressed()) {
+            ChunkIndex chunks = ChunkIndex.scan(disk, chain, size, physical);
+            stored = chunks.getStoredSize();
+            logical = chunks.getLogicalSize();
+        } else {
+            stored = Math.min(size, physical);
+            logical = stored;
+        }
+
+        if (stored != physical || logical != size) {
+            check.sizeMismatch = true;
+            check.physicalSize = physical;
+            check.keepBlocks = Math.max(1, disk.calculateRequiredBlocks(stored));
+            check.lastLength = (int) (stored - (long) (check.keepBlocks - 1) * blockSize);
+            check.size = logical;
+        }
+    }
+
+    /**
+     * Anotar los problemas de un archivo. Un archivo cuyo tamaño no coincide
+     * solo se puede recortar si ningún otro llega a la parte que conserva.
+     */
+    private void classify(FileCheck check, AtomicIntegerArray references, Result result) {
+        if (check.chain == null) {
+            result.invalidFiles.add(check);
+            result.messages.add(check.path + ": el primer bloque (" + check.metadata.getFirstBlock() + ") no es válido");
+            return;
+        }
+
+        if (check.cut != -1) {
+            int next = table[check.cut];
+            result.cutFiles.add(check);
+            switch (check.cutKind) {
+                case BAD_LINK -> {
+                    result.badLinks++;
+                    result.messages.add(check.path + ": enlace roto del bloque " + check.cut + " a " + next);
+                }
+                case DIRECTORY_LINK -> {
+                    result.directoryLinks++;
+                    result.messages.add(check.path + ": el bloque " + check.cut + " enlaza al directorio del bloque " + next);
+                }
+                case CYCLE -> {
+                    result.cycles++;
+                    result.messages.add(check.path + ": ciclo que vuelve del bloque " + check.cut + " al " + next);
+                }
+            }
+        }
+
+        if (check.sizeMismatch) {
+            for (int i = 0; i < check.keepBlocks && check.repairable; i++) {
+                check.repairable = references.get(check.chain.blockAt(i)) <= 1;
+            }
+
+            result.sizeMismatches.add(check);
+            result.messages.add(check.path + ": tamaño " + check.metadata.getSize() + " con " + check.physicalSize
+                    + " bytes guardados" + (check.repairable ? "" : " (cola compartida, no se recorta)"));
+        }
+    }
+
+    /**
+     * Ruta de cada directorio, desde el raíz.
+     */
+    private Map<Integer, String> directoryPaths() {
+        Map<Integer, String> paths = new HashMap<>();
+        paths.put(DirectoryTree.ROOT, DirectoryTree.SEPARATOR);
+
+        Deque<Directory> pending = new ArrayDeque<>();
+        pending.add(tree.getRoot());
+        while (!pending.isEmpty()) {
+            Directory directory = pending.poll();
+            String path = paths.get(directory.getId());
+
+            for (MetadataFile entry : directory.entries()) {
+                Directory child = entry.isDirectory() ? tree.getDirectory(entry.getFirstBlock()) : null;
+                if (child != null && !paths.containsKey(child.getId())) {
+                    paths.put(child.getId(), child(path, entry.getName()));
+                    pending.add(child);
+                }
+            }
+        }
+
+        return paths;
+    }
+
+    private static String child(String path, String name) {
+        return path.equals(DirectoryTree.SEPARATOR) ? path + name : path + DirectoryTree.SEPARATOR + name;
+    }
+
+    private boolean isDataBlock(int block) {
+        return block >= firstAvailableBlock && block < totalBlocks;
+    }
+
+    private static int[] sorted(List<IntList> parts) {
+        int size = 0;
+        for (IntList part : parts) {
+            size += part.size();
+        }
+
+        int[] values = new int[size];
+        int at = 0;
+        for (IntList part : parts) {
+            for (int i = 0; i < part.size(); i++) {
+                values[at++] = part.get(i);
+            }
+        }
+
+        Arrays.sort(values);
+        return values;
+    }
+
+    /**
+     * Trabajo sobre los índices [from, to): se parte por la mitad hasta que
+     * queda en grain índices o menos.
+     */
+    private interface Range {
+        void run(int from, int to);
+    }
+
+    private static final class RangeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final int grain;
+        private final Range range;
+
+        RangeTask(int from, int to, int grain, Range range) {
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            this.range = range;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                range.run(from, to);
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            invokeAll(new RangeTask(from, middle, grain, range), new RangeTask(middle, to, grain, range));
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package services;
+
+import models.Directory;
+import models.DirectoryTree;
+import models.MetadataFile;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static constants.Constants.*;
+
+/**
+ * Desfragmentador que recorre el volumen en un hilo de fondo y mueve cada
+ * archivo fragmentado a una racha de bloques consecutivos.
+ *
+ * Mueve un archivo por vez con el lock de ese archivo (ver
+ * FileSystem.defragmentFile) y nunca espera un lock: si el archivo o el volumen
+ * están tomados lo saltea, así las operaciones del usuario no esperan al
+ * desfragmentador. Después de mover un archivo duerme lo necesario para no
+ * pasar de blocksPerSecond bloques por segundo.
+ */
+class Defragmenter implements Runnable {
+
+    private final FileSystem fileSystem;
+    private final DirectoryTree tree;
+
+    private Thread thread;
+    private volatile boolean stopRequested;
+    private volatile int blocksPerSecond;
+
+    // Progreso de la última pasada
+    private volatile String state = "sin ejecutar";
+    private volatile long totalFiles;
+    private volatile long startedMillis;
+    private volatile long finishedMillis;
+    private final AtomicLong filesScanned = new AtomicLong();
+    private final AtomicLong filesMoved = new AtomicLong();
+    private final AtomicLong blocksMoved = new AtomicLong();
+    private final AtomicLong filesBusy = new AtomicLong();
+
+    Defragmenter(FileSystem fileSystem, DirectoryTree tree) {
+        this.fileSystem = fileSystem;
+        this.tree = tree;
+    }
+
+    /**
+     * Empezar una pasada en segundo plano. Devuelve false si ya hay una en curso.
+     */
+    synchronized boolean start(int blocksPerSecond) {
+        if (thread != null && thread.isAlive()) return false;
+
+        this.blocksPerSecond = blocksPerSecond;
+        stopRequested = false;
+        filesScanned.set(0);
+        filesMoved.set(0);
+        blocksMoved.set(0);
+        filesBusy.set(0);
+        totalFiles = tree.countFiles();
+        startedMillis = System.currentTimeMillis();
+        finishedMillis = 0;
+        state = "en curso";
+
+        thread = new Thread(this, "desfragmentador");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    /**
+     * Pedir que la pasada termine y esperar a que el hilo salga.
+     */
+    synchronized void stop() {
+        if (thread == null) return;
+
+        stopRequested = true;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    @Override
+    public void run() {
+        try {
+            for (Directory directory : tree.directories()) {
+                if (!defragment(directory)) break;
+            }
+            state = stopRequested ? "detenida" : "terminada";
+        } catch (InterruptedException e) {
+            state = "detenida";
+        } finally {
+            finishedMillis = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Recorrer un directorio por páginas. Devuelve false si se pidió parar.
+     */
+    private boolean defragment(Directory directory) throws InterruptedException {
+        Directory.Cursor cursor = null;
+
+        do {
+            Directory.Page page = directory.page(Directory.Order.NAME, "", cursor, LIST_PAGE_SIZE);
+
+            for (MetadataFile metadata : page.getEntries()) {
+                if (stopRequested) return false;
+                if (metadata.isDirectory()) continue;
+
+                filesScanned.incrementAndGet();
+                int moved = fileSystem.defragmentFile(directory, metadata.getName());
+
+                if (moved < 0) {
+                    filesBusy.incrementAndGet();
+                } else if (moved > 0) {
+                    filesMoved.incrementAndGet();
+                    blocksMoved.addAndGet(moved);
+                    Thread.sleep(moved * 1000L / blocksPerSecond);
+                }
+            }
+
+            cursor = page.getNext();
+        } while (cursor != null);
+
+        return true;
+    }
+
+    void printStatus() {
+        long elapsed = (finishedMillis != 0 ? finishedMillis : System.currentTimeMillis()) - startedMillis;
+
+        System.out.println("\n-----DESFRAGMENTACIÓN-----");
+        System.out.println("Estado:                " + state);
+        if (startedMillis == 0) return;
+
+        System.out.printf("Archivos revisados:    %d de %d\n", filesScanned.get(), totalFiles);
+        System.out.printf("Archivos movidos:      %d\n", filesMoved.get());
+        System.out.printf("Bloques movidos:       %d\n", blocksMoved.get());
+        System.out.printf("Archivos ocupados:     %d (se saltearon)\n", filesBusy.get());
+        System.out.printf("Límite:                %d bloques/s\n", blocksPerSecond);
+        System.out.printf("Tiempo:                %.1f s\n", elapsed / 1000.0);
+    }
+}
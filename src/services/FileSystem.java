@@ -1,244 +1,1698 @@
 package services;
 
+import models.AllocationPolicy;
+import models.CachedBlockStorage;
+import models.ChainIndex;
+import models.ChunkIndex;
 import models.Directory;
+import models.DirectoryTree;
 import models.Disk;
 import models.Fat;
+import models.FingerprintIndex;
+import models.FirstFitPolicy;
+import models.Geometry;
+import models.IntList;
+import models.Journal;
 import models.MetadataFile;
-
-import java.time.LocalDateTime;
+import models.Transaction;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.time.format.DateTimeFormatter;
+import java.time.format.FormatStyle;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import static constants.Constants.*;
 
-
+/**
+ * Operaciones del sistema de archivos. Es seguro usarlo desde varios hilos:
+ *
+ * - cada operación sobre un archivo toma el lock de lectura o escritura de
+ *   su entrada (directorio que la contiene y nombre) en una tabla repartida
+ *   (LockTable), así que archivos distintos se leen y escriben en paralelo;
+ * - saveAll y deleteAll toman de una vez los locks de todas sus entradas, en
+ *   orden de franja para que dos lotes cruzados no se bloqueen entre sí;
+ * - la asignación de bloques se serializa dentro de Fat;
+ * - format, status y borrar o mover un directorio toman el lock de escritura
+ *   del volumen, que excluye a todas las demás operaciones (que toman el de
+ *   lectura); así la forma del árbol no cambia mientras se resuelve una ruta;
+ * - los flujos (openInput, openOutput) no tienen locks tomados mientras están
+ *   abiertos: un lector retiene los bloques que lee (ver PinnedChain) y un
+ *   escritor toma los locks solo mientras toca la cadena, y lo que modificaría
+ *   su archivo falla en vez de esperar a que se cierre.
+ *
+ * Las rutas pueden ser absolutas o relativas al directorio actual.
+ *
+ * Cada operación que modifica la FAT o el directorio junta sus cambios en una
+ * Transaction y la confirma en el journal del disco antes de soltar el lock
+ * del archivo; en un volumen en memoria el journal no hace nada.
+ *
+ * Las instantáneas (ver Snapshot) comparten bloques con el volumen: nunca se
+ * escribe en un bloque que alguna usa. Anexar a un archivo cuyo último bloque
+ * está compartido primero lo copia a un bloque nuevo (ver copySuffix), y
+ * los bloques que se liberan solo quedan libres cuando ninguna los usa.
+ *
+ * Con la deduplicación activa (ver setDeduplication) un archivo nuevo cuya
+ * cola de bloques ya está en el volumen se enlaza con ella en vez de
+ * escribirla otra vez. Anexar a un archivo que comparte su cola primero la
+ * copia, como con las instantáneas, y borrarlo solo libera los bloques que
+ * ningún otro usa.
+ *
+ * Con la compresión activa (ver setCompression) los archivos nuevos se guardan
+ * en tramos comprimidos (ver ChunkIndex); cada archivo recuerda cómo se creó.
+ * Lo que se guarda en los bloques son los tramos, así que la deduplicación,
+ * las instantáneas y el desfragmentador los tratan como a cualquier otro
+ * contenido; el tamaño del directorio es el del contenido original.
+ */
 public class FileSystem {
 
+    private Geometry geometry;
     private Fat fat;
     private Disk disk;
-    private Directory directory;
+    private final DirectoryTree tree;
+    private final Journal journal;
+    private final Defragmenter defragmenter;
+    private final Readahead readahead;
+
+    // Instantáneas por nombre
+    private final Map<String, Snapshot> snapshots = new ConcurrentHashMap<>();
+
+    // Si los archivos nuevos se comprimen, y los tramos de los comprimidos ya leídos por primer bloque
+    private volatile boolean compressing;
+    private final Map<Integer, ChunkIndex> chunkIndexes = new ConcurrentHashMap<>();
+
+    // Ruta absoluta normalizada desde la que se resuelven las rutas relativas
+    private volatile String currentDirectory = DirectoryTree.SEPARATOR;
+
+    private final ReentrantReadWriteLock volumeLock = new ReentrantReadWriteLock();
+    private final LockTable fileLocks = new LockTable(FILE_LOCK_STRIPES);
+
+    // Entradas con un flujo de escritura abierto (ver openOutput)
+    private final Set<String> writing = ConcurrentHashMap.newKeySet();
+
+    // Listas de bloques reutilizadas por cada hilo para no crear una por llamada
+    private final ThreadLocal<IntList> blocksBuffer = ThreadLocal.withInitial(IntList::new);
+    private final ThreadLocal<IntList> newBlocksBuffer = ThreadLocal.withInitial(IntList::new);
 
     public FileSystem() {
-        this.fat = new Fat();
-        this.disk = new Disk();
-        this.directory = new Directory();
+        this(Geometry.defaults());
+    }
+
+    public FileSystem(Geometry geometry) {
+        this(new Disk(geometry));
+    }
+
+    public FileSystem(Disk disk) {
+        this(disk, new FirstFitPolicy());
+    }
+
+    public FileSystem(Disk disk, AllocationPolicy allocationPolicy) {
+        this.geometry = disk.getGeometry();
+        this.fat = new Fat(geometry, allocationPolicy);
+        this.disk = disk;
+        this.tree = new DirectoryTree();
+
+        // Cargar la FAT y los directorios guardados, recuperando lo que quedó en el journal
+        this.journal = disk.openJournal();
+        int recovered = journal.mount(fat, tree);
+        // Las colas compartidas por deduplicación se reconocen por las cadenas que llegan a cada bloque
+        fat.countReferences(fileFirstBlocks());
+        this.defragmenter = new Defragmenter(this, tree);
+        this.readahead = new Readahead(disk);
 
         System.out.println("-----SISTEMA DE ARCHIVOS FAT-----");
-        System.out.println("Bloques totales: " + TOTAL_BLOCKS);
-        System.out.println("Bloques reservados (sistema): " + RESERVED_BLOCKS_COUNT + " (bloques 0-9)");
-        System.out.println("Bloques disponibles (archivos): " + (TOTAL_BLOCKS - RESERVED_BLOCKS_COUNT));
-        System.out.println("Tamaño de bloque: " + BLOCK_SIZE + " caracteres");
-        System.out.println("Capacidad total: " + ((TOTAL_BLOCKS - RESERVED_BLOCKS_COUNT) * BLOCK_SIZE) + " caracteres\n");
+        System.out.println("Bloques totales: " + geometry.getTotalBlocks());
+        System.out.println("Bloques reservados (sistema): " + geometry.getReservedBlocks()
+                + " (bloques " + RESERVED_BLOCKS_START + "-" + geometry.getReservedBlocksEnd() + ")");
+        System.out.println("Bloques disponibles (archivos): " + geometry.getDataBlocks());
+        System.out.println("Tamaño de bloque: " + geometry.getBlockSize() + " bytes");
+        System.out.println("Capacidad total: " + geometry.getCapacity() + " bytes");
+        if (recovered > 0) {
+            System.out.println("Transacciones recuperadas del journal: " + recovered);
+        }
+        System.out.println();
+
+    }
+
+    /**
+     * Entrada resuelta de una ruta: el directorio que la contiene, su nombre y
+     * el lock tomado sobre ella.
+     */
+    private static final class Entry {
+        final Directory parent;
+        final String name;
+        final Lock lock;
+
+        Entry(Directory parent, String name, Lock lock) {
+            this.parent = parent;
+            this.name = name;
+            this.lock = lock;
+        }
+
+        MetadataFile metadata() {
+            return parent.getMetadata(name);
+        }
+
+        String key() {
+            return FileSystem.key(parent.getId(), name);
+        }
+    }
+
+    /**
+     * Archivo de una operación en lote: su entrada resuelta y, al guardar, el
+     * contenido y el plan de bloques.
+     */
+    private static final class BatchEntry {
+        final String path;
+        final Directory parent;
+        final String name;
+        final String key;
+
+        byte[] content;
+        // Contenido como se guarda: en tramos comprimidos o igual a content
+        byte[] stored;
+        boolean compressed;
+        MetadataFile existing;
+        int lastBlock;
+        int lastFill;
+        int inLastBlock;
+        int newBlocks;
+        int copyBlocks;
+        // Copias de más si otra cola se compartió entre planificar y reservar
+        int extraCopies;
+        SharedTail shared;
+        int allocatedFrom;
+
+        BatchEntry(String path, Directory parent, String name) {
+            this.path = path;
+            this.parent = parent;
+            this.name = name;
+            this.key = key(parent.getId(), name);
+        }
+
+        void append(byte[] more) {
+            if (content == null) {
+                content = more;
+                return;
+            }
+
+            byte[] joined = Arrays.copyOf(content, content.length + more.length);
+            System.arraycopy(more, 0, joined, content.length, more.length);
+            content = joined;
+        }
+    }
+
+    /**
+     * Huellas de las colas de un archivo nuevo y, si alguna ya está en el
+     * volumen, desde qué bloque del contenido se comparte y con qué bloque del
+     * volumen empieza (ver Fat.shareSuffix).
+     */
+    private static final class SharedTail {
+        final FingerprintIndex.Fingerprint[] tails;
+        // Bloques propios del archivo, antes de la cola compartida
+        final int position;
+        // Primer bloque de la cola compartida, o END_OF_FILE si no hay
+        final int block;
+
+        SharedTail(FingerprintIndex.Fingerprint[] tails, int position, int block) {
+            this.tails = tails;
+            this.position = position;
+            this.block = block;
+        }
+
+        boolean found() {
+            return block != END_OF_FILE;
+        }
+    }
+
+    private String absolute(String path) {
+        return DirectoryTree.normalize(currentDirectory, path);
+    }
+
+    private static String key(int parent, String name) {
+        return parent + DirectoryTree.SEPARATOR + name;
+    }
+
+    /**
+     * Clave del lock de una ruta absoluta, con el volumen ya tomado.
+     */
+    private String lockKey(String path) {
+        Directory parent = tree.resolveDirectory(DirectoryTree.parentPath(path));
+        return key(parent == null ? -1 : parent.getId(), DirectoryTree.leafName(path));
+    }
+
+    /**
+     * Tomar el lock compartido del volumen, resolver el directorio que
+     * contiene la ruta y tomar el lock de la entrada. Si el directorio no
+     * existe avisa y devuelve null sin dejar nada tomado.
+     */
+    private Entry lockEntry(String path, boolean write) {
+        String absolute = absolute(path);
+        volumeLock.readLock().lock();
+
+        Directory parent = tree.resolveDirectory(DirectoryTree.parentPath(absolute));
+        String name = DirectoryTree.leafName(absolute);
+
+        if (parent == null || name.isEmpty()) {
+            volumeLock.readLock().unlock();
+            System.out.println(parent == null ? MSG_DIRECTORY_NOT_FOUND : MSG_IS_DIRECTORY);
+            return null;
+        }
+
+        ReadWriteLock fileLock = fileLocks.lockFor(key(parent.getId(), name));
+        Lock lock = write ? fileLock.writeLock() : fileLock.readLock();
+        lock.lock();
+
+        return new Entry(parent, name, lock);
+    }
+
+    /**
+     * Resolver una ruta de una operación en lote con el volumen ya tomado, sin
+     * tomar el lock de la entrada. Si el directorio no existe avisa y devuelve null.
+     */
+    private BatchEntry resolveBatchEntry(String path) {
+        String absolute = absolute(path);
+        Directory parent = tree.resolveDirectory(DirectoryTree.parentPath(absolute));
+        String name = DirectoryTree.leafName(absolute);
+
+        if (parent == null || name.isEmpty()) {
+            System.out.println((parent == null ? MSG_DIRECTORY_NOT_FOUND : MSG_IS_DIRECTORY) + " (" + path + ")");
+            return null;
+        }
+
+        return new BatchEntry(path, parent, name);
+    }
+
+    private void unlockEntry(Entry entry) {
+        entry.lock.unlock();
+        volumeLock.readLock().unlock();
+    }
+
+    /**
+     * Si la entrada tiene un flujo de escritura abierto, avisando. Lo que la
+     * modificaría falla en vez de esperar a que se cierre, que nunca pasa si
+     * el flujo es del mismo hilo.
+     */
+    private boolean isWriting(String key, String path) {
+        if (!writing.contains(key)) return false;
+
+        System.out.println(path == null ? MSG_FILE_OPEN : MSG_FILE_OPEN + " (" + path + ")");
+        return true;
+    }
+
+    /**
+     * Guardar un texto como archivo, codificado en UTF-8. Si existe, anexar contenido.
+     */
+    public void saveFile(String path, String content) {
+        saveFile(path, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Guardar un archivo. Si existe, anexar contenido.
+     */
+    public void saveFile(String path, byte[] content) {
+        Entry entry = lockEntry(path, true);
+        if (entry == null) return;
+
+        try {
+            if (isWriting(entry.key(), null)) return;
+
+            MetadataFile metadata = entry.metadata();
+            if (metadata == null) {
+                createFile(entry.parent, entry.name, content);
+            } else if (metadata.isDirectory()) {
+                System.out.println(MSG_IS_DIRECTORY);
+            } else {
+                appendContent(entry.parent, metadata, content);
+            }
+        } finally {
+            unlockEntry(entry);
+        }
+    }
+
+    /**
+     * Crear un archivo nuevo.
+     */
+    private void createFile(Directory directory, String name, byte[] content) {
+        //Con la compresión activa se guardan los tramos comprimidos
+        boolean compressed = compressing;
+        byte[] stored = compressed ? ChunkIndex.compress(content) : content;
+
+        //Calcular bloques necesarios (un archivo vacío igual ocupa un bloque para tener primer bloque)
+        int requiredBlocks = Math.max(1, disk.calculateRequiredBlocks(stored.length));
+        System.out.println("Bloques necesarios: " + requiredBlocks);
+        if (compressed) {
+            System.out.println("Comprimido: " + content.length + " → " + stored.length + " bytes");
+        }
+
+        //Con la deduplicación activa, solo se escriben los bloques anteriores a una cola que ya esté en el volumen
+        SharedTail shared = shareTail(stored);
+        if (shared != null && shared.found()) {
+            requiredBlocks = shared.position;
+            System.out.println("Bloques deduplicados: " + (shared.tails.length - shared.position)
+                    + " (cola en el bloque " + shared.block + ")");
+        }
+
+        //Buscar y reservar bloques disponibles
+        IntList availableBlocks = blocksBuffer.get();
+        fat.allocateBlocks(requiredBlocks, -1, availableBlocks);
+
+        //Validar espacio suficiente
+        if (availableBlocks.size() < requiredBlocks) {
+            System.out.println(MSG_DISK_OUT_OF_SPACE);
+            System.out.println("Se necesitan " + requiredBlocks + " bloques, solo hay " + availableBlocks.size());
+            unshare(shared);
+            return;
+        }
+
+        System.out.println("Bloques asignados: " + availableBlocks);
+
+        Transaction transaction = new Transaction();
+        storeNewFile(directory, name, stored, content.length, compressed, availableBlocks, shared, transaction);
+
+        //Confirmar en el journal
+        journal.commit(transaction);
+
+        //Recién confirmado puede enlazarse con él otro archivo
+        if (shared != null) {
+            fat.indexChain(availableBlocks, shared.tails);
+        }
+
+        System.out.println(MSG_FILE_SAVED);
+    }
+
+    /**
+     * Escribir un archivo nuevo en bloques ya reservados, enlazarlos en la FAT,
+     * agregarlo al directorio y anotar los cambios en la transacción. content
+     * es lo que se guarda y size el tamaño original, que difieren si está
+     * comprimido. Si shared encontró una cola en el volumen, blocks tiene solo
+     * los bloques anteriores y el último se enlaza con ella.
+     */
+    private void storeNewFile(Directory directory, String name, byte[] content, long size, boolean compressed,
+                              IntList blocks, SharedTail shared, Transaction transaction) {
+        int firstBlock;
+
+        if (shared == null || !shared.found()) {
+            //Escribir en disco
+            disk.writeFragmented(content, blocks);
+
+            //Actualizar FAT
+            fat.updateFAT(blocks);
+
+            transaction.chain(blocks);
+            firstBlock = blocks.getFirst();
+        } else if (blocks.isEmpty()) {
+            // El archivo entero ya está en el volumen
+            firstBlock = shared.block;
+        } else {
+            // Escribir solo los bloques propios y seguir en la cola compartida
+            disk.writeFragmented(content, 0, blocks.size() * geometry.getBlockSize(), blocks);
+            fat.linkToShared(blocks, shared.block);
+
+            transaction.chain(blocks);
+            transaction.link(blocks.getLast(), shared.block);
+            firstBlock = blocks.getFirst();
+        }
+
+        //Agregar al directorio
+        MetadataFile metadata = new MetadataFile(name, size, firstBlock);
+        metadata.setParent(directory.getId());
+        metadata.setCompressed(compressed);
+        directory.addFile(name, metadata);
+
+        transaction.putFile(metadata);
+    }
+
+    /**
+     * Con la deduplicación activa, calcular las huellas de las colas de un
+     * archivo nuevo y buscar, desde la más larga, una que ya esté en el
+     * volumen, tomando una referencia a su primer bloque. Con la deduplicación
+     * apagada devuelve null.
+     */
+    private SharedTail shareTail(byte[] content) {
+        if (!fat.isDeduplicating()) return null;
+
+        FingerprintIndex.Fingerprint[] tails = FingerprintIndex.tails(content, geometry.getBlockSize());
+        for (int i = 0; i < tails.length; i++) {
+            int block = fat.shareSuffix(tails[i]);
+            if (block != -1) {
+                return new SharedTail(tails, i, block);
+            }
+        }
+        return new SharedTail(tails, tails.length, END_OF_FILE);
+    }
+
+    /**
+     * Devolver la referencia que tomó shareTail si el archivo no se llega a
+     * guardar. Si mientras tanto se borraron los archivos que usaban la cola,
+     * ahora se libera.
+     */
+    private void unshare(SharedTail shared) {
+        if (shared == null || !shared.found()) return;
+
+        IntList released = new IntList();
+        fat.dropChain(shared.block, released);
+
+        Transaction transaction = new Transaction();
+        transaction.free(released);
+        commit(transaction, released);
+    }
+
+    /**
+     * Anexar contenido a un archivo existente. A uno comprimido se le agregan
+     * tramos nuevos con el contenido comprimido.
+     */
+    private boolean appendContent(Directory directory, MetadataFile metadata, byte[] content) {
+        int added = content.length;
+        if (metadata.isCompressed()) {
+            content = ChunkIndex.compress(content);
+        }
+
+        int firstBlock = metadata.getFirstBlock();
+
+        //Obtener el último bloque de la cadena actual (índice en caché, sin recorrer la FAT)
+        int lastBlock = fat.getLastBlock(firstBlock);
+
+        //Verificar espacio disponible en el último bloque
+        int used = lastBlockFill(metadata);
+        int availableSpace = geometry.getBlockSize() - used;
+
+        //Calcular cuánto podemos agregar al último bloque
+        int toAppendInLastBlock = Math.min(availableSpace, content.length);
+        int remaining = content.length - toAppendInLastBlock;
+
+        //Si la cola se comparte con otro archivo o una instantánea usa el último bloque, copiarla antes de escribir
+        IntList copies = new IntList();
+        if (!reserveCopies(metadata, toAppendInLastBlock > 0, copies)) {
+            System.out.println(MSG_DISK_OUT_OF_SPACE);
+            return false;
+        }
+
+        //Si queda contenido, reservar los bloques antes de escribir nada
+        IntList newBlocks = newBlocksBuffer.get();
+        newBlocks.clear();
+        if (remaining > 0) {
+            int additionalBlocks = disk.calculateRequiredBlocks(remaining);
+            // Preferir el bloque siguiente al último (o a su copia) para mantener el archivo contiguo
+            int preferredBlock = copies.isEmpty() ? lastBlock + 1 : copies.getLast() + 1;
+            fat.allocateBlocks(additionalBlocks, preferredBlock, newBlocks);
+
+            if (newBlocks.size() < additionalBlocks) {
+                fat.releaseBlocks(copies);
+                System.out.println(MSG_DISK_OUT_OF_SPACE);
+                return false;
+            }
+        }
+
+        //Con todo reservado, la cadena deja de ofrecerse para compartir
+        if (!claimCopies(metadata, toAppendInLastBlock > 0, copies)) {
+            fat.releaseBlocks(copies);
+            fat.releaseBlocks(newBlocks);
+            System.out.println(MSG_DISK_OUT_OF_SPACE);
+            return false;
+        }
+
+        Transaction transaction = new Transaction();
+        IntList released = new IntList();
+        if (!copies.isEmpty()) {
+            lastBlock = copySuffix(directory, metadata, copies, transaction, released);
+        }
+
+        if (!newBlocks.isEmpty()) {
+            System.out.println("Bloques adicionales: " + newBlocks);
+        }
+
+        storeAppend(directory, metadata, lastBlock, used, content, added, toAppendInLastBlock, newBlocks,
+                transaction);
+
+        //Confirmar en el journal
+        commit(transaction, released);
+
+        System.out.println("Contenido agregado al archivo '" + metadata.getName() + "'.");
+
+        return true;
+    }
+
+    /**
+     * Bytes del último bloque de un archivo que le pertenecen según su tamaño
+     * confirmado, guardados como están (en tramos si está comprimido). No sale
+     * del largo del bloque en el disco: el último bloque se reescribe en su
+     * lugar antes de confirmar en el journal, así que si el sistema se cayó en
+     * el medio el bloque tiene bytes de más que el archivo nunca tuvo.
+     */
+    private int lastBlockFill(MetadataFile metadata) {
+        long stored = metadata.isCompressed()
+                ? chunkIndex(metadata, fat.getChainIndex(metadata.getFirstBlock())).getStoredSize()
+                : metadata.getSize();
+        return stored == 0 ? 0 : (int) ((stored - 1) % geometry.getBlockSize()) + 1;
+    }
+
+    /**
+     * Anexar content a un archivo: los primeros inLastBlock bytes completan su
+     * último bloque, que tiene used bytes del archivo, y el resto va a
+     * newBlocks, ya reservados. El archivo crece added bytes, menos que
+     * content si está comprimido. Anota los cambios en la transacción.
+     */
+    private void storeAppend(Directory directory, MetadataFile metadata, int lastBlock, int used, byte[] content,
+                             long added, int inLastBlock, IntList newBlocks, Transaction transaction) {
+        //Completar el último bloque; lo que pase de used no se confirmó y se pisa
+        if (inLastBlock > 0) {
+            byte[] block = new byte[disk.getGeometry().getBlockSize()];
+            disk.readBlock(lastBlock, 0, block, 0, used);
+            System.arraycopy(content, 0, block, used, inLastBlock);
+            disk.write(lastBlock, block, 0, used + inLastBlock);
+        }
+
+        if (!newBlocks.isEmpty()) {
+            // Escribir contenido restante
+            disk.writeFragmented(content, inLastBlock, content.length - inLastBlock, newBlocks);
+
+            // Actualizar FAT con los nuevos bloques
+            fat.updateFAT(newBlocks);
+
+            // Enlazar último bloque anterior con los nuevos (extiende el índice de la cadena)
+            fat.linkBlocks(metadata.getFirstBlock(), lastBlock, newBlocks.getFirst());
+
+            transaction.chain(newBlocks);
+            transaction.link(lastBlock, newBlocks.getFirst());
+        }
+
+        //Actualizar metadata
+        directory.update(metadata, metadata.getSize() + added, System.currentTimeMillis());
+        transaction.putFile(metadata);
+    }
+
+    /**
+     * Cuántos bloques del final de un archivo hay que copiar antes de anexarle
+     * contenido: desde el primero que comparte con otro archivo, o solo el
+     * último si se escribe en él y lo usa una instantánea. No cambia nada; la
+     * cadena sale del índice de huellas recién en claimChain.
+     */
+    private int blocksToCopy(MetadataFile metadata, boolean writesLastBlock) {
+        return blocksToCopy(metadata, fat.sharedPosition(metadata.getFirstBlock()), writesLastBlock);
+    }
+
+    /**
+     * Lo mismo, sabiendo desde qué posición comparte la cadena con otro
+     * archivo (-1 si no comparte ninguna).
+     */
+    private int blocksToCopy(MetadataFile metadata, int shared, boolean writesLastBlock) {
+        ChainIndex chain = fat.getChainIndex(metadata.getFirstBlock());
+        if (shared != -1) return chain.size() - shared;
+
+        return writesLastBlock && fat.isShared(chain.getLastBlock()) ? 1 : 0;
+    }
+
+    /**
+     * Sacar la cadena de un archivo del índice de huellas, porque su cola va a
+     * cambiar (ver Fat.claimChain), y devolver cuántos bloques hay que copiar.
+     * Va después de reservar los bloques: si no alcanzan, la cadena sigue
+     * ofreciéndose para compartir. Puede dar más que blocksToCopy si mientras
+     * tanto otro archivo se enlazó con la cola.
+     */
+    private int claimChain(MetadataFile metadata, boolean writesLastBlock) {
+        return blocksToCopy(metadata, fat.claimChain(metadata.getFirstBlock()), writesLastBlock);
+    }
+
+    /**
+     * Reservar en copies los bloques para copiar la cola de un archivo (ver
+     * blocksToCopy). Devuelve false, sin reservar nada, si no hay lugar.
+     */
+    private boolean reserveCopies(MetadataFile metadata, boolean writesLastBlock, IntList copies) {
+        int count = blocksToCopy(metadata, writesLastBlock);
+        if (count == 0) return true;
+
+        fat.allocateBlocks(count, fat.getLastBlock(metadata.getFirstBlock()) + 1, copies);
+        return copies.size() == count;
+    }
+
+    /**
+     * Sacar la cadena del índice de huellas (ver claimChain) con las copias ya
+     * reservadas en copies, y reservar las que falten si la cola se compartió
+     * mientras tanto. Devuelve false si no hay lugar para ellas; copies queda
+     * como estaba.
+     */
+    private boolean claimCopies(MetadataFile metadata, boolean writesLastBlock, IntList copies) {
+        int missing = claimChain(metadata, writesLastBlock) - copies.size();
+        if (missing <= 0) return true;
+
+        IntList extra = new IntList(missing);
+        fat.allocateBlocks(missing, -1, extra);
+        if (extra.size() < missing) return false;
+
+        copies.addAll(extra);
+        return true;
+    }
+
+    /**
+     * Copiar la cola de un archivo a copies, ya reservados y uno por cada
+     * bloque copiado, y ponerla en su lugar en la cadena. La cola vieja sigue
+     * siendo de los archivos o instantáneas que la usan; los bloques que ya
+     * no usa nadie se agregan a released, para liberarlos después de
+     * confirmar la transacción. Anota los cambios en la transacción y
+     * devuelve el nuevo último bloque.
+     */
+    private int copySuffix(Directory directory, MetadataFile metadata, IntList copies,
+                           Transaction transaction, IntList released) {
+        ChainIndex chain = fat.getChainIndex(metadata.getFirstBlock());
+        int position = chain.size() - copies.size();
+
+        IntList suffix = new IntList(copies.size());
+        for (int i = position; i < chain.size(); i++) {
+            suffix.add(chain.blockAt(i));
+        }
+        disk.writeFragmented(disk.readFullContent(suffix), copies);
+
+        int previous = fat.replaceSuffix(metadata.getFirstBlock(), position, copies);
+        if (previous == -1) {
+            metadata.setFirstBlock(copies.getFirst());
+            directory.addFile(metadata.getName(), metadata);
+            transaction.putFile(metadata);
+        } else {
+            transaction.link(previous, copies.getFirst());
+        }
+        transaction.chain(copies);
+
+        IntList dropped = new IntList();
+        fat.dropChain(suffix.getFirst(), dropped);
+        transaction.free(dropped);
+        released.addAll(dropped);
+
+        return copies.getLast();
+    }
+
+    /**
+     * Confirmar una transacción y recién después liberar los bloques que dejó:
+     * si otro archivo los reutiliza, su transacción queda después de esta en
+     * el journal.
+     */
+    void commit(Transaction transaction, IntList released) {
+        journal.commit(transaction);
+
+        for (int i = 0; i < released.size(); i++) {
+            releaseBlock(released.get(i));
+        }
+    }
+
+    /**
+     * Soltar un bloque que el volumen deja de usar. Si lo usa una instantánea
+     * conserva su contenido y sigue ocupado hasta que ninguna lo use.
+     */
+    private void releaseBlock(int block) {
+        // Si era el primero de un archivo comprimido, su índice de tramos ya no sirve
+        chunkIndexes.remove(block);
+        if (!fat.isShared(block)) {
+            disk.delete(block);
+        }
+        fat.setAvailable(block);
+    }
+
+    /**
+     * Guardar varios archivos en una sola operación. Cada ruta se crea o, si
+     * ya existe, se le anexa el contenido, como en saveFile; pero los bloques
+     * de todos se reservan en una sola pasada del asignador, los cambios de la
+     * FAT y de los directorios se confirman en el journal como una sola
+     * transacción y solo se informa un resumen. Si no hay espacio para todos no
+     * se guarda ninguno. El journal tiene lugar para un archivo de un bloque
+     * por cada bloque del volumen; un lote cuya transacción igual no entra se
+     * aplica directo avisando que deja de ser atómico (ver WriteAheadJournal).
+     * Devuelve la cantidad de archivos guardados.
+     */
+    public int saveAll(Map<String, byte[]> files) {
+        volumeLock.readLock().lock();
+        try {
+            Map<String, BatchEntry> entries = new LinkedHashMap<>();
+            for (Map.Entry<String, byte[]> file : files.entrySet()) {
+                BatchEntry entry = resolveBatchEntry(file.getKey());
+                if (entry == null) continue;
+
+                // Dos rutas que llevan al mismo archivo se guardan una detrás de la otra
+                BatchEntry previous = entries.putIfAbsent(entry.key, entry);
+                (previous != null ? previous : entry).append(file.getValue());
+            }
+
+            int[] stripes = fileLocks.lockAll(entries.keySet());
+            try {
+                return saveLocked(entries.values());
+            } finally {
+                fileLocks.unlockAll(stripes);
+            }
+        } finally {
+            volumeLock.readLock().unlock();
+        }
+    }
+
+    private int saveLocked(Collection<BatchEntry> entries) {
+        // Planificar cuánto completa el último bloque de cada archivo y cuántos bloques nuevos lleva
+        List<BatchEntry> planned = new ArrayList<>(entries.size());
+        int requiredBlocks = 0;
+
+        for (BatchEntry entry : entries) {
+            MetadataFile metadata = entry.parent.getMetadata(entry.name);
+            if (metadata != null && metadata.isDirectory()) {
+                System.out.println(MSG_IS_DIRECTORY + " (" + entry.path + ")");
+                continue;
+            }
+            if (isWriting(entry.key, entry.path)) continue;
+
+            // Un archivo existente sigue como se creó; uno nuevo, según la compresión del volumen
+            entry.compressed = metadata != null ? metadata.isCompressed() : compressing;
+            entry.stored = entry.compressed ? ChunkIndex.compress(entry.content) : entry.content;
+
+            int length = entry.stored.length;
+            if (metadata == null) {
+                entry.shared = shareTail(entry.stored);
+                // Un archivo nuevo vacío igual ocupa un bloque para tener primer bloque
+                entry.newBlocks = entry.shared != null && entry.shared.found()
+                        ? entry.shared.position
+                        : Math.max(1, disk.calculateRequiredBlocks(length));
+            } else {
+                entry.existing = metadata;
+                entry.lastBlock = fat.getLastBlock(metadata.getFirstBlock());
+                entry.lastFill = lastBlockFill(metadata);
+                entry.inLastBlock = Math.min(geometry.getBlockSize() - entry.lastFill, length);
+                entry.newBlocks = disk.calculateRequiredBlocks(length - entry.inLastBlock);
+                // Una cola compartida hay que copiarla antes de escribir en ella
+                entry.copyBlocks = blocksToCopy(metadata, entry.inLastBlock > 0);
+            }
+
+            requiredBlocks += entry.newBlocks + entry.copyBlocks;
+            planned.add(entry);
+        }
+
+        // Reservar los bloques de todos los archivos en una sola pasada
+        IntList allocated = blocksBuffer.get();
+        allocated.clear();
+        if (requiredBlocks > 0) {
+            fat.allocateBlocks(requiredBlocks, -1, allocated);
+
+            if (allocated.size() < requiredBlocks) {
+                System.out.println(MSG_DISK_OUT_OF_SPACE);
+                System.out.println("Se necesitan " + requiredBlocks + " bloques, solo hay " + allocated.size());
+                for (BatchEntry entry : planned) {
+                    unshare(entry.shared);
+                }
+                return 0;
+            }
+        }
+
+        // Con todo reservado, las cadenas que cambian dejan de ofrecerse para compartir
+        int missingCopies = 0;
+        for (BatchEntry entry : planned) {
+            if (entry.existing == null) continue;
+
+            entry.extraCopies = Math.max(0, claimChain(entry.existing, entry.inLastBlock > 0) - entry.copyBlocks);
+            missingCopies += entry.extraCopies;
+        }
+
+        // Si mientras tanto otro archivo se enlazó con alguna cola, reservar las copias que faltan
+        IntList extraCopies = new IntList(missingCopies);
+        if (missingCopies > 0) {
+            fat.allocateBlocks(missingCopies, -1, extraCopies);
+
+            if (extraCopies.size() < missingCopies) {
+                System.out.println(MSG_DISK_OUT_OF_SPACE);
+                fat.releaseBlocks(allocated);
+                for (BatchEntry entry : planned) {
+                    unshare(entry.shared);
+                }
+                return 0;
+            }
+        }
+
+        // Repartir los bloques en orden y confirmar todo junto
+        Transaction transaction = new Transaction();
+        IntList released = new IntList();
+        IntList blocks = newBlocksBuffer.get();
+        int next = 0;
+        int nextExtra = 0;
+
+        for (BatchEntry entry : planned) {
+            if (entry.copyBlocks + entry.extraCopies > 0) {
+                blocks.clear();
+                for (int i = 0; i < entry.copyBlocks; i++) {
+                    blocks.add(allocated.get(next++));
+                }
+                for (int i = 0; i < entry.extraCopies; i++) {
+                    blocks.add(extraCopies.get(nextExtra++));
+                }
+                entry.lastBlock = copySuffix(entry.parent, entry.existing, blocks, transaction, released);
+            }
+
+            entry.allocatedFrom = next;
+            blocks.clear();
+            for (int i = 0; i < entry.newBlocks; i++) {
+                blocks.add(allocated.get(next++));
+            }
+
+            if (entry.existing == null) {
+                storeNewFile(entry.parent, entry.name, entry.stored, entry.content.length, entry.compressed,
+                        blocks, entry.shared, transaction);
+            } else {
+                storeAppend(entry.parent, entry.existing, entry.lastBlock, entry.lastFill, entry.stored,
+                        entry.content.length, entry.inLastBlock, blocks, transaction);
+            }
+        }
+
+        commit(transaction, released);
+
+        // Recién confirmados pueden enlazarse con ellos otros archivos
+        for (BatchEntry entry : planned) {
+            if (entry.shared == null) continue;
+
+            blocks.clear();
+            for (int i = 0; i < entry.newBlocks; i++) {
+                blocks.add(allocated.get(entry.allocatedFrom + i));
+            }
+            fat.indexChain(blocks, entry.shared.tails);
+        }
+
+        System.out.println("Guardados " + planned.size() + " archivos en " + requiredBlocks + " bloques nuevos.");
+        return planned.size();
+    }
+
+    /**
+     * Crear un directorio vacío. Ocupa un bloque de la FAT, que lo identifica.
+     */
+    public void makeDirectory(String path) {
+        Entry entry = lockEntry(path, true);
+        if (entry == null) return;
+
+        try {
+            if (isWriting(entry.key(), null)) return;
+            if (entry.parent.exists(entry.name)) {
+                System.out.println("Ya existe un archivo con el nombre '" + entry.name + "'.");
+                return;
+            }
+
+            IntList blocks = blocksBuffer.get();
+            fat.allocateBlocks(1, -1, blocks);
+            if (blocks.isEmpty()) {
+                System.out.println(MSG_DISK_OUT_OF_SPACE);
+                return;
+            }
+            fat.updateFAT(blocks);
+
+            MetadataFile metadata = MetadataFile.newDirectory(entry.name, blocks.getFirst(), entry.parent.getId());
+            tree.add(metadata);
+
+            Transaction transaction = new Transaction();
+            transaction.chain(blocks);
+            transaction.putFile(metadata);
+            journal.commit(transaction);
+
+            System.out.println("Directorio creado: " + entry.name);
+        } finally {
+            unlockEntry(entry);
+        }
+    }
+
+    /**
+     * Cambiar el directorio desde el que se resuelven las rutas relativas.
+     */
+    public void changeDirectory(String path) {
+        String absolute = absolute(path);
+
+        volumeLock.readLock().lock();
+        try {
+            if (tree.resolveDirectory(absolute) == null) {
+                System.out.println(MSG_DIRECTORY_NOT_FOUND);
+                return;
+            }
+            currentDirectory = absolute;
+        } finally {
+            volumeLock.readLock().unlock();
+        }
+    }
+
+    public String getCurrentDirectory() {
+        return currentDirectory;
+    }
+
+    Fat getFat() {
+        return fat;
+    }
+
+    DirectoryTree getTree() {
+        return tree;
+    }
+
+    Geometry getGeometry() {
+        return geometry;
+    }
+
+    private boolean isDirectory(String absolute) {
+        volumeLock.readLock().lock();
+        try {
+            return tree.resolveDirectory(absolute) != null;
+        } finally {
+            volumeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Renombrar o mover un archivo o directorio. Si el destino es un
+     * directorio existente, se mueve adentro con el mismo nombre.
+     */
+    public void renameFile(String source, String target) {
+        String from = absolute(source);
+        String to = absolute(target);
+
+        // Mover un directorio cambia las rutas de todo lo que contiene
+        if (isDirectory(from)) {
+            volumeLock.writeLock().lock();
+            try {
+                moveLocked(from, destination(from, to));
+                tree.invalidate();
+            } finally {
+                volumeLock.writeLock().unlock();
+            }
+            return;
+        }
+
+        volumeLock.readLock().lock();
+        try {
+            to = destination(from, to);
+            String fromKey = lockKey(from);
+            String toKey = lockKey(to);
+
+            fileLocks.lockBoth(fromKey, toKey);
+            try {
+                moveLocked(from, to);
+            } finally {
+                fileLocks.unlockBoth(fromKey, toKey);
+            }
+        } finally {
+            volumeLock.readLock().unlock();
+        }
+    }
+
+    private String destination(String from, String to) {
+        if (tree.resolveDirectory(to) == null) return to;
+        return DirectoryTree.normalize(to, DirectoryTree.leafName(from));
+    }
+
+    private void moveLocked(String from, String to) {
+        Directory fromParent = tree.resolveDirectory(DirectoryTree.parentPath(from));
+        Directory toParent = tree.resolveDirectory(DirectoryTree.parentPath(to));
+        String oldName = DirectoryTree.leafName(from);
+        String newName = DirectoryTree.leafName(to);
+
+        MetadataFile metadata = fromParent == null ? null : fromParent.getMetadata(oldName);
+        if (metadata == null || oldName.isEmpty()) {
+            System.out.println("El archivo '" + from + "' no existe.");
+            return;
+        }
+
+        if (toParent == null || newName.isEmpty()) {
+            System.out.println(MSG_DIRECTORY_NOT_FOUND);
+            return;
+        }
+
+        if (toParent.exists(newName)) {
+            System.out.println("Ya existe un archivo con el nombre '" + to + "'.");
+            return;
+        }
+
+        if (isWriting(key(fromParent.getId(), oldName), from) || isWriting(key(toParent.getId(), newName), to)) {
+            return;
+        }
+
+        if (metadata.isDirectory()) {
+            // Se convirtió en directorio después de mirar la ruta sin el volumen exclusivo
+            if (!volumeLock.isWriteLockedByCurrentThread()) {
+                System.out.println("No se pudo mover el archivo.");
+                return;
+            }
+            if (to.startsWith(from + DirectoryTree.SEPARATOR)) {
+                System.out.println("ERROR: No se puede mover un directorio dentro de sí mismo.");
+                return;
+            }
+        }
+
+        fromParent.deleteFile(oldName);
+        metadata.setName(newName);
+        metadata.setParent(toParent.getId());
+        toParent.addFile(newName, metadata);
+
+        Transaction transaction = new Transaction();
+        transaction.removeFile(fromParent.getId(), oldName);
+        transaction.putFile(metadata);
+        journal.commit(transaction);
+
+        System.out.println("Archivo movido correctamente: " + from + " → " + to);
+    }
+
+    /**
+     * Leer un archivo completo.
+     */
+    public void readFile(String path) {
+        Entry entry = lockEntry(path, false);
+        if (entry == null) return;
+
+        try {
+            readLocked(entry);
+        } finally {
+            unlockEntry(entry);
+        }
+    }
+
+    /**
+     * Entrada de un archivo con su lock tomado, o null avisando si no existe o es un directorio.
+     */
+    private static MetadataFile fileMetadata(Entry entry) {
+        MetadataFile metadata = entry.metadata();
+
+        if (metadata == null) {
+            System.out.println(MSG_FILE_NOT_FOUND);
+            return null;
+        }
+        if (metadata.isDirectory()) {
+            System.out.println(MSG_IS_DIRECTORY);
+            return null;
+        }
+
+        return metadata;
+    }
+
+    private void readLocked(Entry entry) {
+        MetadataFile metadata = fileMetadata(entry);
+        if (metadata == null) return;
+
+        int firstBlock = metadata.getFirstBlock();
+
+        // Obtener cadena de bloques
+        IntList blocks = blocksBuffer.get();
+        fat.getBlockChain(firstBlock, blocks);
+
+        // Leer contenido completo
+        byte[] content = metadata.isCompressed()
+                ? readCompressed(metadata)
+                : disk.readFullContent(blocks);
+
+        System.out.println(new String(content, StandardCharsets.UTF_8));
 
+        System.out.println("\nTamaño: " + metadata.getSize() + " bytes");
+        System.out.println("Bloques asignados: " + blocks);
+    }
+
+    /**
+     * Contenido original completo de un archivo comprimido.
+     */
+    private byte[] readCompressed(MetadataFile metadata) {
+        ChainIndex chain = fat.getChainIndex(metadata.getFirstBlock());
+        try (ChainInputStream input = new ChainInputStream(disk, chain, chunkIndex(metadata, chain),
+                0, metadata.getSize(), () -> { })) {
+            return input.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Índice de los tramos de un archivo comprimido, extendido hasta su tamaño
+     * actual leyendo su cadena. Se guarda por primer bloque, como los índices
+     * de cadena de la Fat, y se olvida cuando ese bloque se libera.
+     */
+    private ChunkIndex chunkIndex(MetadataFile metadata, ChainIndex chain) {
+        ChunkIndex chunks = chunkIndexes.computeIfAbsent(metadata.getFirstBlock(), block -> new ChunkIndex());
+        chunks.extend(disk, chain, metadata.getSize());
+        return chunks;
+    }
+
+    /**
+     * Abrir un flujo sobre los bytes [offset, offset + length) de un archivo.
+     * El contenido se lee de a un bloque por vez, o de a un tramo si está
+     * comprimido, sin cargar el archivo en memoria.
+     * El flujo no tiene tomado el lock del archivo: retiene sus bloques (ver
+     * PinnedChain) y lee lo que el archivo tenía al abrirlo, aunque mientras
+     * tanto se anexe, se borre o se mueva.
+     * Devuelve null si el archivo no existe.
+     */
+    public ChainInputStream openInput(String path, long offset, long length) {
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException("Posición y longitud deben ser positivas.");
+        }
+
+        Entry entry = lockEntry(path, false);
+        if (entry == null) return null;
+
+        try {
+            MetadataFile metadata = fileMetadata(entry);
+            if (metadata == null) return null;
+
+            long size = metadata.getSize();
+            long start = Math.min(offset, size);
+            long end = start + Math.min(length, size - start);
+
+            ChainIndex chain = fat.getChainIndex(metadata.getFirstBlock());
+            if (metadata.isCompressed()) {
+                // Un tramo puede empezar en cualquier bloque: se retiene la cadena entera
+                PinnedChain pinned = new PinnedChain(fat, disk, chain, 0, chain.size());
+                try {
+                    return new ChainInputStream(disk, pinned.chain(), chunkIndex(metadata, pinned.chain()),
+                            start, end, pinned);
+                } catch (RuntimeException e) {
+                    pinned.run();
+                    throw e;
+                }
+            }
+
+            PinnedChain pinned = PinnedChain.range(fat, disk, chain, start, end);
+            return new ChainInputStream(disk, pinned.chain(), start, end, pinned, readahead);
+        } finally {
+            unlockEntry(entry);
+        }
+    }
+
+    /**
+     * Abrir un lector de texto UTF-8 sobre los bytes [offset, offset + length)
+     * de un archivo (ver openInput). Devuelve null si el archivo no existe.
+     */
+    public Reader openReader(String path, long offset, long length) {
+        ChainInputStream input = openInput(path, offset, length);
+        return input == null ? null : decode(input);
+    }
+
+    /**
+     * Lector UTF-8 sobre un flujo de la cadena, con el buffer de bytes a la
+     * medida del tramo para que abrir lectores cortos no cueste un buffer entero.
+     */
+    private static Reader decode(ChainInputStream input) {
+        int bufferSize = (int) Math.max(1, Math.min(input.remaining(), READ_BUFFER_SIZE));
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        return Channels.newReader(Channels.newChannel(input), decoder, bufferSize);
+    }
+
+    /**
+     * Leer un tramo de un archivo y mostrarlo a medida que se lee.
+     */
+    public void readFile(String path, long offset, long length) {
+        ChainInputStream input = openInput(path, offset, length);
+        if (input == null) return;
+
+        long total = print(input);
+        System.out.println("\n\nLeídos " + total + " bytes desde la posición " + offset);
+    }
+
+    /**
+     * Mostrar como texto lo que queda de un flujo y cerrarlo. Devuelve los bytes leídos.
+     */
+    private static long print(ChainInputStream input) {
+        char[] buffer = new char[READ_BUFFER_SIZE];
+        long total = input.remaining();
+
+        try (Reader reader = decode(input)) {
+            int read;
+            while ((read = reader.read(buffer, 0, buffer.length)) != -1) {
+                System.out.print(new String(buffer, 0, read));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return total;
+    }
+
+    /**
+     * Abrir un flujo que crea el archivo o agrega al final si ya existe.
+     * Los datos se guardan bloque a bloque; el directorio se actualiza al cerrar.
+     * El flujo no tiene tomados los locks entre una escritura y otra: los toma
+     * solo mientras enlaza un bloque o confirma al cerrar. Hasta que se cierra
+     * el archivo queda marcado como abierto para escritura, y guardar, anexar,
+     * borrar, mover o abrir otro escritor sobre él falla en vez de esperar.
+     * Devuelve null si el directorio no existe, la ruta es un directorio o el
+     * archivo ya está abierto para escritura.
+     */
+    public ChainOutputStream openOutput(String path) {
+        Entry entry = lockEntry(path, true);
+        if (entry == null) return null;
+
+        try {
+            MetadataFile existing = entry.metadata();
+            if (existing != null && existing.isDirectory()) {
+                System.out.println(MSG_IS_DIRECTORY);
+                return null;
+            }
+
+            String key = entry.key();
+            if (!writing.add(key)) {
+                System.out.println(MSG_FILE_OPEN);
+                return null;
+            }
+
+            try {
+                // El flujo sigue escribiendo en el último bloque: si la cola es compartida, copiarla antes
+                if (existing != null) {
+                    IntList copies = new IntList();
+                    if (!reserveCopies(existing, true, copies)) {
+                        writing.remove(key);
+                        System.out.println(MSG_DISK_OUT_OF_SPACE);
+                        return null;
+                    }
+                    if (!claimCopies(existing, true, copies)) {
+                        fat.releaseBlocks(copies);
+                        writing.remove(key);
+                        System.out.println(MSG_DISK_OUT_OF_SPACE);
+                        return null;
+                    }
+
+                    if (!copies.isEmpty()) {
+                        Transaction transaction = new Transaction();
+                        IntList released = new IntList();
+                        copySuffix(entry.parent, existing, copies, transaction, released);
+                        commit(transaction, released);
+                    }
+                }
+
+                int lastFill = existing != null ? lastBlockFill(existing) : 0;
+                return new ChainOutputStream(fat, disk, entry.parent, journal, entry.name, compressing, lastFill,
+                        volumeLock.readLock(), entry.lock, () -> writing.remove(key));
+            } catch (RuntimeException e) {
+                writing.remove(key);
+                throw e;
+            }
+        } finally {
+            unlockEntry(entry);
+        }
+    }
+
+    /**
+     * Abrir un escritor de texto que guarda en UTF-8 (ver openOutput).
+     * Devuelve null si el directorio no existe o la ruta es un directorio.
+     */
+    public Writer openWriter(String path) {
+        ChainOutputStream output = openOutput(path);
+        return output == null ? null : new OutputStreamWriter(output, StandardCharsets.UTF_8);
     }
 
     /**
-     * Guardar un archivo. Si existe, anexar contenido.
+     * Importar un archivo del sistema anfitrión tal cual, byte a byte, usando
+     * memoria constante.
      */
-    public void saveFile(String name, String content) {
+    public void importFile(Path source, String path) {
+        if (!Files.isRegularFile(source)) {
+            System.out.println("ERROR: No existe el archivo " + source);
+            return;
+        }
 
-        if (directory.exists(name)) {
-            appendContent(name, content);
+        ChainOutputStream target = openOutput(path);
+        if (target == null) return;
+
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        long total = 0;
+
+        try (ChainOutputStream output = target;
+             InputStream input = Files.newInputStream(source)) {
+            int read;
+            while ((read = input.read(buffer, 0, buffer.length)) != -1) {
+                output.write(buffer, 0, read);
+            }
+            total = output.getWritten();
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
             return;
         }
 
-        createFile(name, content);
+        System.out.println("Importados " + total + " bytes de " + source + " en '" + path + "'.");
     }
 
     /**
-     * Crear un archivo nuevo.
+     * Listar los archivos del directorio actual.
      */
-    private void createFile(String name, String content) {
-        //Calcular bloques necesarios
-        int requiredBlocks = Disk.calculateRequiredBlocks(content);
-        System.out.println("Bloques necesarios: " + requiredBlocks);
+    public void listFiles() {
+        listFiles(currentDirectory);
+    }
 
-        //Buscar bloques disponibles
-        List<Integer> availableBlocks = fat.searchAvailableBlocks(requiredBlocks);
+    /**
+     * Listar por nombre todos los archivos de un directorio, o los de un
+     * patrón "ruta/prefijo*".
+     */
+    public void listFiles(String pattern) {
+        Directory.Cursor cursor = null;
+        do {
+            cursor = listFiles(pattern, Directory.Order.NAME, cursor);
+        } while (cursor != null);
+    }
 
-        //Validar espacio suficiente
-        if (availableBlocks.size() < requiredBlocks) {
-            System.out.println(MSG_DISK_OUT_OF_SPACE);
-            System.out.println("Se necesitan " + requiredBlocks + " bloques, solo hay " + availableBlocks.size());
-            return;
+    /**
+     * Mostrar una página de un listado, después de after (null para la
+     * primera). Devuelve el cursor de la página siguiente, o null si no hay más.
+     */
+    public Directory.Cursor listFiles(String pattern, Directory.Order order, Directory.Cursor after) {
+        // "docs/inf*" lista las entradas de docs que empiezan con "inf"
+        String path = pattern;
+        String prefix = "";
+        if (pattern.endsWith("*")) {
+            int slash = pattern.lastIndexOf(DirectoryTree.SEPARATOR);
+            path = slash < 0 ? "." : pattern.substring(0, slash + 1);
+            prefix = pattern.substring(slash + 1, pattern.length() - 1);
         }
+        String absolute = absolute(path);
+
+        volumeLock.readLock().lock();
+        try {
+            Directory directory = tree.resolveDirectory(absolute);
+            if (directory == null) {
+                System.out.println(MSG_DIRECTORY_NOT_FOUND);
+                return null;
+            }
 
-        System.out.println("Bloques asignados: " + availableBlocks);
+            Directory.Page page = directory.page(order, prefix, after, LIST_PAGE_SIZE);
+            StringBuilder out = new StringBuilder();
 
-        //Escribir en disco
-        disk.writeFragmented(content, availableBlocks);
+            if (after == null) {
+                out.append("\nDirectorio: ").append(absolute);
+                if (!prefix.isEmpty()) out.append(" (").append(prefix).append("*)");
+                out.append('\n');
 
-        //Actualizar FAT
-        fat.updateFAT(availableBlocks);
+                if (page.getEntries().isEmpty()) {
+                    System.out.println(out.append("\nNo hay archivos para listar."));
+                    return null;
+                }
+                out.append("\n-----DIRECTORIO DE ARCHIVOS-----\n");
+            }
 
-        //Agregar al directorio
-        int firstBlock = availableBlocks.getFirst();
-        MetadataFile metadata = new MetadataFile(name, content.length(), firstBlock);
-        directory.addFile(name, metadata);
+            for (MetadataFile metadata : page.getEntries()) {
+                out.append(metadata.toFormattedString()).append('\n');
+            }
+            if (page.getNext() == null) {
+                out.append("\nTotal de archivos: ").append(directory.count()).append('\n');
+            }
 
-        System.out.println(MSG_FILE_SAVED);
+            System.out.print(out);
+            return page.getNext();
+        } finally {
+            volumeLock.readLock().unlock();
+        }
     }
 
     /**
-     * Anexar contenido a un archivo existente.
+     * Eliminar un archivo o un directorio vacío.
      */
-    private boolean appendContent(String name, String content) {
-        //Obtener metadata del archivo
-        MetadataFile metadata = directory.getMetadata(name);
-        int firstBlock = metadata.getFirstBlock();
-
-        //Obtener cadena de bloques actual
-        List<Integer> currentBlocks = fat.getBlockChain(firstBlock);
-        int lastBlock = currentBlocks.getLast();
-
-        //Verificar espacio disponible en el último bloque
-        int availableSpace = disk.getAvailableSpace(lastBlock);
-        String existingContent = disk.readBlock(lastBlock);
+    public void deleteFile(String path) {
+        String absolute = absolute(path);
+        if (isDirectory(absolute)) {
+            removeDirectory(absolute);
+            return;
+        }
 
-        //Calcular cuánto podemos agregar al último bloque
-        int toAppendInLastBlock = Math.min(availableSpace, content.length());
-        String remainingContent = content.substring(toAppendInLastBlock);
+        Entry entry = lockEntry(absolute, true);
+        if (entry == null) return;
 
-        //Completar el último bloque
-        if (toAppendInLastBlock > 0) {
-            disk.write(lastBlock, existingContent + content.substring(0, toAppendInLastBlock));
+        try {
+            deleteLocked(entry);
+        } finally {
+            unlockEntry(entry);
         }
+    }
 
-        //Si queda contenido, necesitamos más bloques
-        if (!remainingContent.isEmpty()) {
-            int additionalBlocks = Disk.calculateRequiredBlocks(remainingContent);
-            List<Integer> newBlocks = fat.searchAvailableBlocks(additionalBlocks);
+    private void deleteLocked(Entry entry) {
+        MetadataFile metadata = fileMetadata(entry);
+        if (metadata == null || isWriting(entry.key(), null)) return;
 
-            if (newBlocks.size() < additionalBlocks) {
-                System.out.println(MSG_DISK_OUT_OF_SPACE);
-                return false;
-            }
+        int firstBlock = metadata.getFirstBlock();
 
-            System.out.println("Bloques adicionales: " + newBlocks);
+        // Obtener los bloques de la cadena que no comparte con otro archivo
+        IntList blocks = blocksBuffer.get();
+        fat.dropChain(firstBlock, blocks);
 
-            // Escribir contenido restante
-            disk.writeFragmented(remainingContent, newBlocks);
+        System.out.println("Liberando bloques: " + blocks);
+
+        // Eliminar del directorio
+        entry.parent.deleteFile(entry.name);
 
-            // Enlazar último bloque anterior con los nuevos
-            fat.linkBlocks(lastBlock, newBlocks.getFirst());
+        // Confirmar antes de liberar: si otro archivo reutiliza los bloques,
+        // su transacción tiene que quedar después de esta en el journal
+        Transaction transaction = new Transaction();
+        transaction.removeFile(entry.parent.getId(), entry.name);
+        transaction.free(blocks);
+        journal.commit(transaction);
 
-            // Actualizar FAT con los nuevos bloques
-            fat.updateFAT(newBlocks);
+        // Liberar bloques en disco y en FAT
+        for (int i = 0; i < blocks.size(); i++) {
+            releaseBlock(blocks.get(i));
         }
 
-        //Actualizar metadata
-        metadata.setSize(metadata.getSize() + content.length());
-        metadata.setLastUpdate(LocalDateTime.now());
+        System.out.println("Archivo eliminado correctamente.");
+    }
 
-        System.out.println("Contenido agregado al archivo '" + name + "'.");
+    /**
+     * Eliminar varios archivos en una sola operación, confirmada en el journal
+     * como una sola transacción. Los directorios se eliminan de a uno con
+     * deleteFile. Devuelve la cantidad de archivos eliminados.
+     */
+    public int deleteAll(Collection<String> paths) {
+        volumeLock.readLock().lock();
+        try {
+            Map<String, BatchEntry> entries = new LinkedHashMap<>();
+            for (String path : paths) {
+                BatchEntry entry = resolveBatchEntry(path);
+                if (entry != null) entries.putIfAbsent(entry.key, entry);
+            }
 
-        return true;
+            int[] stripes = fileLocks.lockAll(entries.keySet());
+            try {
+                return deleteLocked(entries.values());
+            } finally {
+                fileLocks.unlockAll(stripes);
+            }
+        } finally {
+            volumeLock.readLock().unlock();
+        }
     }
 
-    public void renameFile(String oldName, String newName) {
-        if (!directory.exists(oldName)) {
-            System.out.println("El archivo '" + oldName + "' no existe.");
-            return;
-        }
+    private int deleteLocked(Collection<BatchEntry> entries) {
+        Transaction transaction = new Transaction();
+        IntList freed = blocksBuffer.get();
+        freed.clear();
+        IntList chain = newBlocksBuffer.get();
+        int deleted = 0;
+
+        for (BatchEntry entry : entries) {
+            MetadataFile metadata = entry.parent.getMetadata(entry.name);
+            if (metadata == null || metadata.isDirectory()) {
+                System.out.println((metadata == null ? MSG_FILE_NOT_FOUND : MSG_IS_DIRECTORY) + " (" + entry.path + ")");
+                continue;
+            }
+            if (isWriting(entry.key, entry.path)) continue;
 
-        if (directory.exists(newName)) {
-            System.out.println("Ya existe un archivo con el nombre '" + newName + "'.");
-            return;
+            // Si dos archivos del lote comparten cola, la libera el último
+            fat.dropChain(metadata.getFirstBlock(), chain);
+            freed.addAll(chain);
+
+            entry.parent.deleteFile(entry.name);
+            transaction.removeFile(entry.parent.getId(), entry.name);
+            transaction.free(chain);
+            deleted++;
         }
 
-        boolean success = directory.renameFile(oldName, newName);
+        // Confirmar antes de liberar, igual que al eliminar un solo archivo
+        journal.commit(transaction);
 
-        if (success) {
-            System.out.println("Archivo renombrado correctamente: " + oldName + " → " + newName);
-        } else {
-            System.out.println("No se pudo renombrar el archivo.");
+        for (int i = 0; i < freed.size(); i++) {
+            releaseBlock(freed.get(i));
         }
+
+        System.out.println("Eliminados " + deleted + " archivos, " + freed.size() + " bloques liberados.");
+        return deleted;
     }
 
     /**
-     * Leer un archivo completo.
+     * Eliminar un directorio vacío y liberar su bloque.
      */
-    public void readFile(String name) {
+    private void removeDirectory(String absolute) {
+        volumeLock.writeLock().lock();
+        try {
+            Directory parent = tree.resolveDirectory(DirectoryTree.parentPath(absolute));
+            String name = DirectoryTree.leafName(absolute);
+
+            if (parent == null || name.isEmpty()) {
+                System.out.println("ERROR: No se puede eliminar el directorio raíz.");
+                return;
+            }
 
-        if (!directory.exists(name)) {
-            System.out.println(MSG_FILE_NOT_FOUND);
-            return;
-        }
+            MetadataFile metadata = parent.getMetadata(name);
+            if (metadata == null || !metadata.isDirectory()) {
+                System.out.println(MSG_DIRECTORY_NOT_FOUND);
+                return;
+            }
 
-        MetadataFile metadata = directory.getMetadata(name);
-        int firstBlock = metadata.getFirstBlock();
+            int block = metadata.getFirstBlock();
+            Directory directory = tree.getDirectory(block);
+            if (!directory.isEmpty()) {
+                System.out.println(MSG_DIRECTORY_NOT_EMPTY);
+                return;
+            }
 
-        // Obtener cadena de bloques
-        List<Integer> blocks = fat.getBlockChain(firstBlock);
+            // Un flujo que crea un archivo todavía no lo agregó al directorio
+            String prefix = key(directory.getId(), "");
+            if (writing.stream().anyMatch(key -> key.startsWith(prefix))) {
+                System.out.println("ERROR: Hay un archivo abierto para escritura en el directorio.");
+                return;
+            }
 
-        // Leer contenido completo
-        String content = disk.readFullContent(blocks);
+            tree.remove(parent.getId(), name);
 
-        System.out.println(content);
+            Transaction transaction = new Transaction();
+            transaction.removeFile(parent.getId(), name);
+            transaction.free(block);
+            journal.commit(transaction);
 
-        System.out.println("\nTamaño: " + metadata.getSize() + " caracteres");
-        System.out.println("Bloques asignados: " + blocks);
+            releaseBlock(block);
+
+            System.out.println("Directorio eliminado correctamente.");
+        } finally {
+            volumeLock.writeLock().unlock();
+        }
     }
 
     /**
-     * Listar todos los archivos.
+     * Empezar a desfragmentar en segundo plano, moviendo a lo sumo
+     * blocksPerSecond bloques por segundo.
      */
-    public void listFiles() {
-        directory.list();
+    public void startDefrag(int blocksPerSecond) {
+        if (blocksPerSecond <= 0) {
+            System.out.println("ERROR: El límite de bloques por segundo debe ser positivo.");
+            return;
+        }
+
+        if (defragmenter.start(blocksPerSecond)) {
+            System.out.println("Desfragmentación iniciada (" + blocksPerSecond + " bloques/s).");
+        } else {
+            System.out.println("Ya hay una desfragmentación en curso.");
+        }
+    }
+
+    public void stopDefrag() {
+        defragmenter.stop();
+        System.out.println("Desfragmentación detenida.");
+    }
+
+    public void showDefragStatus() {
+        defragmenter.printStatus();
     }
 
     /**
-     * Eliminar un archivo.
+     * Mover un archivo fragmentado a bloques consecutivos, en una sola
+     * transacción. No espera locks: devuelve -1 si el volumen o el archivo
+     * están tomados o el archivo está abierto para escritura; si no, los
+     * bloques movidos (0 si ya era contiguo o no hay una racha libre donde
+     * entre).
      */
-    public void deleteFile(String name) {
-
-        if (!directory.exists(name)) {
-            System.out.println(MSG_FILE_NOT_FOUND);
-            return;
+    int defragmentFile(Directory directory, String name) {
+        if (!volumeLock.readLock().tryLock()) return -1;
+        try {
+            String key = key(directory.getId(), name);
+            Lock lock = fileLocks.lockFor(key).writeLock();
+            if (!lock.tryLock()) return -1;
+            try {
+                // Un flujo de escritura abierto sigue enlazando bloques a la cadena
+                if (writing.contains(key)) return -1;
+                return relocateLocked(directory, name);
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            volumeLock.readLock().unlock();
         }
+    }
 
+    private int relocateLocked(Directory directory, String name) {
         MetadataFile metadata = directory.getMetadata(name);
-        int firstBlock = metadata.getFirstBlock();
+        if (metadata == null || metadata.isDirectory()) return 0;
 
-        // Obtener cadena de bloques
-        List<Integer> blocks = fat.getBlockChain(firstBlock);
+        IntList blocks = blocksBuffer.get();
+        fat.getBlockChain(metadata.getFirstBlock(), blocks);
+        if (isContiguous(blocks)) return 0;
 
-        System.out.println("Liberando bloques: " + blocks);
+        // Una cola compartida por deduplicación se deja en su lugar: moverla la duplicaría
+        if (fat.sharedPosition(metadata.getFirstBlock()) != -1) return 0;
 
-        // Liberar bloques en disco
-        for (int block : blocks) {
-            disk.delete(block);
-        }
+        IntList target = newBlocksBuffer.get();
+        if (!fat.allocateContiguous(blocks.size(), target)) return 0;
 
-        // Liberar bloques en FAT
-        for (int block : blocks) {
-            fat.setAvailable(block);
-        }
+        // Copiar los datos y enlazar la cadena nueva antes de tocar la vieja
+        disk.writeFragmented(disk.readFullContent(blocks), target);
+        fat.updateFAT(target);
 
-        // Eliminar del directorio
-        directory.deleteFile(name);
+        int moved = blocks.size();
+        int oldFirstBlock = metadata.getFirstBlock();
+        metadata.setFirstBlock(target.getFirst());
+        directory.addFile(name, metadata);
 
-        System.out.println("Archivo eliminado correctamente.");
+        // Si mientras tanto otro archivo se enlazó con la cadena vieja, sus bloques siguen en uso
+        fat.dropChain(oldFirstBlock, blocks);
+
+        // Como en deleteLocked: confirmar antes de liberar los bloques viejos
+        Transaction transaction = new Transaction();
+        transaction.chain(target);
+        transaction.putFile(metadata);
+        transaction.free(blocks);
+        commit(transaction, blocks);
+
+        return moved;
+    }
+
+    private static boolean isContiguous(IntList blocks) {
+        for (int i = 1; i < blocks.size(); i++) {
+            if (blocks.get(i) != blocks.get(i - 1) + 1) return false;
+        }
+        return true;
     }
 
     /**
      * Mostrar los bloques que ocupa un archivo.
      */
-    public void showBlocks(String name) {
-        System.out.println("Bloques del archivo: " + name);
-
-        if (!directory.exists(name)) {
-            System.out.println(MSG_FILE_NOT_FOUND);
-            return;
+    public void showBlocks(String path) {
+        Entry entry = lockEntry(path, false);
+        if (entry == null) return;
+
+        try {
+            showBlocksLocked(entry);
+        } finally {
+            unlockEntry(entry);
         }
+    }
+
+    private void showBlocksLocked(Entry entry) {
+        System.out.println("Bloques del archivo: " + entry.name);
+
+        MetadataFile metadata = fileMetadata(entry);
+        if (metadata == null) return;
 
-        MetadataFile metadata = directory.getMetadata(name);
         int firstBlock = metadata.getFirstBlock();
 
-        List<Integer> blocks = fat.getBlockChain(firstBlock);
+        IntList blocks = blocksBuffer.get();
+        fat.getBlockChain(firstBlock, blocks);
 
         System.out.println("\n-----CADENA FAT-----");
 
-        for (int block : blocks) {
+        for (int i = 0; i < blocks.size(); i++) {
+            int block = blocks.get(i);
             int next = fat.getNextBlock(block);
             String nextStr = (next == END_OF_FILE) ? "EOF" : String.valueOf(next);
             System.out.printf("Bloque %3d → %s\n", block, nextStr);
@@ -248,7 +1702,7 @@ public class FileSystem {
 
         for (int i = 0; i < blocks.size(); i++) {
             int block = blocks.get(i);
-            String content = disk.readBlock(block);
+            String content = new String(disk.readBlock(block), StandardCharsets.UTF_8);
             System.out.printf("Bloque %3d: \"%s\"%n", block, content);
         }
 
@@ -259,56 +1713,152 @@ public class FileSystem {
      * Mostrar el estado completo del sistema.
      */
     public void showStatus() {
-        fat.printStatus();
-        disk.printStatus();
-        directory.list();
+        volumeLock.writeLock().lock();
+        try {
+            fat.printStatus();
+            disk.printStatus();
+            tree.getRoot().list();
+        } finally {
+            volumeLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Cambiar la política de asignación de bloques del volumen.
+     */
+    public void setAllocationPolicy(String name) {
+        try {
+            fat.setAllocationPolicy(AllocationPolicy.forName(name));
+            System.out.println("Política de asignación: " + name);
+        } catch (IllegalArgumentException e) {
+            System.out.println("ERROR: " + e.getMessage() + " (opciones: first, best, next)");
+        }
+    }
+
+    public void showAllocationPolicy() {
+        System.out.println("Política de asignación: " + fat.getAllocationPolicy().getName());
     }
 
     /**
      * Mostrar estadísticas del sistema.
      */
     public void showStats() {
-        int totalBlocks = TOTAL_BLOCKS - RESERVED_BLOCKS_COUNT;
+        int totalBlocks = geometry.getDataBlocks();
+        int blockSize = geometry.getBlockSize();
         int usedBlocks = fat.countUsedBlocks();
         int freeBlocks = fat.countAvailableBlocks();
 
-        int totalCapacity = totalBlocks * BLOCK_SIZE;
-        int usedCapacity = usedBlocks * BLOCK_SIZE;
-        int freeCapacity = freeBlocks * BLOCK_SIZE;
+        long totalCapacity = geometry.getCapacity();
+        long usedCapacity = (long) usedBlocks * blockSize;
+        long freeCapacity = (long) freeBlocks * blockSize;
 
         double usagePercentage = (double) usedBlocks / totalBlocks * 100;
 
-        int fileCount = directory.count();
-        double avgFragmentation = fileCount > 0 ? (double) usedBlocks / fileCount : 0;
+        int fileCount = tree.countFiles();
+        // Un archivo contiguo es un solo tramo
+        double avgFragmentation = fileCount > 0 ? (double) (fileCount + fat.countBreaks()) / fileCount : 0;
 
 
         System.out.println("\n-----ESTADÍSTICAS DEL SISTEMA FAT-----");
 
 
         System.out.println("\nCAPACIDAD:");
-        System.out.printf("Capacidad total:    %d caracteres\n", totalCapacity);
-        System.out.printf("Espacio usado:      %d caracteres (%.1f%%)\n", usedCapacity, usagePercentage);
-        System.out.printf("Espacio libre:      %d caracteres (%.1f%%)\n", freeCapacity, 100 - usagePercentage);
+        System.out.printf("Capacidad total:    %d bytes\n", totalCapacity);
+        System.out.printf("Espacio usado:      %d bytes (%.1f%%)\n", usedCapacity, usagePercentage);
+        System.out.printf("Espacio libre:      %d bytes (%.1f%%)\n", freeCapacity, 100 - usagePercentage);
 
         System.out.println("\nBLOQUES:");
         System.out.printf("Total de bloques:   %d bloques\n", totalBlocks);
         System.out.printf("Bloques ocupados:   %d bloques\n", usedBlocks);
         System.out.printf("Bloques libres:     %d bloques\n", freeBlocks);
-        System.out.printf("Bloques reservados: %d bloques (sistema)\n", RESERVED_BLOCKS_COUNT);
+        System.out.printf("Bloques reservados: %d bloques (sistema)\n", geometry.getReservedBlocks());
 
         System.out.println("\nARCHIVOS:");
         System.out.printf("Total de archivos:  %d\n", fileCount);
-        System.out.printf("Fragmentación avg:  %.2f bloques/archivo\n", avgFragmentation);
+        System.out.printf("Directorios:        %d\n", tree.countDirectories());
+        System.out.printf("Fragmentación avg:  %.2f tramos/archivo\n", avgFragmentation);
+        System.out.printf("Caché de rutas:     %d aciertos, %d fallos\n", tree.getCacheHits(), tree.getCacheMisses());
+        System.out.printf("Metadatos en heap:  %d bytes\n", tree.footprint());
+
+        CachedBlockStorage cache = disk.getCache();
+        if (cache != null) {
+            long hits = cache.getHits();
+            long reads = hits + cache.getMisses();
+
+            System.out.println("\nCACHÉ DE BLOQUES:");
+            System.out.printf("Marcos:             %d (%d bytes)\n", cache.getFrames(), cache.footprint());
+            System.out.printf("Aciertos:           %d de %d lecturas (%.1f%%)\n",
+                    hits, reads, reads > 0 ? (double) hits / reads * 100 : 0);
+            System.out.printf("Fallos:             %d\n", cache.getMisses());
+            System.out.printf("Desalojos:          %d\n", cache.getEvictions());
+            System.out.printf("Escritos al disco:  %d bloques\n", cache.getWrittenBack());
+            System.out.printf("Lectura anticipada: %d bloques pedidos, %d traídos, %d leídos después\n",
+                    readahead.getRequested(), cache.getPrefetched(), cache.getPrefetchHits());
+            System.out.printf("Descartados:        %d pedidos (cola llena)\n", readahead.getDropped());
+        }
+
+        long deduplicated = fat.countDeduplicatedBlocks();
+        if (fat.isDeduplicating() || deduplicated > 0) {
+            System.out.println("\nDEDUPLICACIÓN:");
+            System.out.printf("Estado:             %s\n", fat.isDeduplicating() ? "activa" : "apagada");
+            System.out.printf("Colas indexadas:    %d\n", fat.countFingerprints());
+            System.out.printf("Espacio ahorrado:   %d bloques (%d bytes)\n", deduplicated, deduplicated * blockSize);
+        }
+
+        long[] compression = compressionTotals();
+        if (compressing || compression[0] > 0) {
+            System.out.println("\nCOMPRESIÓN:");
+            System.out.printf("Estado:             %s\n", compressing ? "activa" : "apagada");
+            System.out.printf("Archivos:           %d comprimidos\n", compression[0]);
+            System.out.printf("Contenido:          %d bytes guardados en %d bytes (%.2f:1)\n",
+                    compression[1], compression[2], compression[2] > 0 ? (double) compression[1] / compression[2] : 1);
+        }
+
+        if (!snapshots.isEmpty()) {
+            System.out.println("\nINSTANTÁNEAS:");
+            System.out.printf("Instantáneas:       %d\n", snapshots.size());
+            System.out.printf("Bloques retenidos:  %d (liberados en el volumen, usados por instantáneas)\n",
+                    fat.countSnapshotOnlyBlocks());
+        }
 
         System.out.println("\nCONFIGURACIÓN:");
-        System.out.printf("Tamaño de bloque:   %d caracteres\n", BLOCK_SIZE);
-        System.out.printf("Bloques totales:    %d (10 reservados + 90 disponibles)\n", TOTAL_BLOCKS);
+        System.out.printf("Tamaño de bloque:   %d bytes\n", blockSize);
+        System.out.printf("Asignación:         %s\n", fat.getAllocationPolicy().getName());
+        System.out.printf("Bloques totales:    %d (%d reservados + %d disponibles)\n",
+                geometry.getTotalBlocks(), geometry.getReservedBlocks(), totalBlocks);
 
         // Barra de progreso visual
         System.out.println("\nOCUPACIÓN DEL DISCO:");
         printProgressBar(usagePercentage);
     }
 
+    /**
+     * Cantidad de archivos comprimidos, su tamaño original y lo que ocupan sus
+     * tramos en los bloques.
+     */
+    private long[] compressionTotals() {
+        long[] totals = new long[3];
+        int blockSize = geometry.getBlockSize();
+
+        volumeLock.readLock().lock();
+        try {
+            for (Directory directory : tree.directories()) {
+                for (MetadataFile entry : directory.entries()) {
+                    if (!entry.isCompressed()) continue;
+
+                    ChainIndex chain = fat.getChainIndex(entry.getFirstBlock());
+                    totals[0]++;
+                    totals[1] += entry.getSize();
+                    totals[2] += (long) chain.size() * blockSize - disk.getAvailableSpace(chain.getLastBlock());
+                }
+            }
+        } finally {
+            volumeLock.readLock().unlock();
+        }
+
+        return totals;
+    }
+
     /**
      * Mostrar una barra de progreso visual.
      */
@@ -327,17 +1877,307 @@ public class FileSystem {
         System.out.printf("] %.1f%%\n", percentage);
     }
 
+    /**
+     * Activar o apagar la deduplicación de los archivos nuevos. Al activarla
+     * se indexan las colas de todos los archivos, leyendo el volumen entero
+     * con el volumen tomado en modo exclusivo. Las huellas viven en memoria:
+     * al montar de nuevo hay que volver a activarla. Apagarla no separa las
+     * colas que ya se comparten.
+     */
+    public void setDeduplication(boolean enabled) {
+        volumeLock.writeLock().lock();
+        try {
+            if (!enabled) {
+                fat.setFingerprintIndex(null);
+                System.out.println("Deduplicación apagada.");
+                return;
+            }
+
+            if (fat.isDeduplicating()) {
+                System.out.println("La deduplicación ya está activa.");
+                return;
+            }
+
+            // Un escritor abierto sigue llenando su último bloque: su huella no sería la final
+            if (!writing.isEmpty()) {
+                System.out.println("ERROR: Hay archivos abiertos para escritura; cerrarlos antes de deduplicar.");
+                return;
+            }
+
+            FingerprintIndex index = indexTails();
+            fat.setFingerprintIndex(index);
+
+            System.out.println("Deduplicación activada: " + index.size() + " colas indexadas.");
+        } finally {
+            volumeLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Huellas de las colas de todos los archivos, leyendo el volumen entero.
+     */
+    private FingerprintIndex indexTails() {
+        FingerprintIndex index = new FingerprintIndex(geometry.getTotalBlocks());
+        IntList blocks = blocksBuffer.get();
+        for (Directory directory : tree.directories()) {
+            for (MetadataFile entry : directory.entries()) {
+                if (entry.isDirectory()) continue;
+
+                fat.getBlockChain(entry.getFirstBlock(), blocks);
+                FingerprintIndex.Fingerprint[] tails =
+                        FingerprintIndex.tails(disk.readFullContent(blocks), geometry.getBlockSize());
+                for (int i = 0; i < tails.length; i++) {
+                    index.put(blocks.get(i), tails[i]);
+                }
+            }
+        }
+        return index;
+    }
+
+    public void showDeduplication() {
+        System.out.println("Deduplicación: " + (fat.isDeduplicating() ? "activa" : "apagada"));
+    }
+
+    /**
+     * Activar o apagar la compresión de los archivos nuevos. Los que ya
+     * existen siguen como se crearon, también al anexarles contenido. Como la
+     * deduplicación, vive en memoria y al montar de nuevo empieza apagada.
+     */
+    public void setCompression(boolean enabled) {
+        compressing = enabled;
+        System.out.println("Compresión " + (enabled ? "activada" : "apagada") + " para los archivos nuevos.");
+    }
+
+    public void showCompression() {
+        System.out.println("Compresión: " + (compressing ? "activa" : "apagada"));
+    }
+
+    /**
+     * Primer bloque de cada archivo del volumen.
+     */
+    private IntList fileFirstBlocks() {
+        IntList blocks = new IntList();
+        for (Directory directory : tree.directories()) {
+            for (MetadataFile entry : directory.entries()) {
+                if (!entry.isDirectory()) blocks.add(entry.getFirstBlock());
+            }
+        }
+        return blocks;
+    }
+
+    /**
+     * Revisar que la FAT, los directorios y el contenido de los bloques
+     * concuerdan (ver ConsistencyCheck) y, si repair, reparar lo que se
+     * encuentre (ver Repair). Toma el volumen en modo exclusivo.
+     *
+     * No repara mientras haya instantáneas, porque comparten los bloques que
+     * cambiaría. Devuelve los problemas que quedan, o -1 sin revisar si hay
+     * archivos abiertos para escritura: sus cadenas están a medio enlazar.
+     */
+    public int check(boolean repair) {
+        volumeLock.writeLock().lock();
+        try {
+            if (!writing.isEmpty()) {
+                System.out.println("ERROR: Hay archivos abiertos para escritura; cerrarlos antes de revisar.");
+                return -1;
+            }
+
+            Repair repairer = new Repair(this, disk, fat, tree, journal);
+            ConsistencyCheck.Result result = repairer.check();
+
+            if (!repair || result.problems() == 0) return result.problems();
+            if (!snapshots.isEmpty()) {
+                System.out.println("ERROR: Hay instantáneas; eliminarlas antes de reparar.");
+                return result.problems();
+            }
+
+            return repairer.repair(result);
+        } finally {
+            volumeLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Volver a armar lo que sale de las cadenas después de cambiarlas por
+     * fuera de las operaciones de archivos (ver Repair): las cadenas que
+     * llegan a cada bloque, los índices de tramos y las huellas.
+     */
+    void reindex() {
+        fat.countReferences(fileFirstBlocks());
+        chunkIndexes.clear();
+        if (fat.isDeduplicating()) {
+            // Las huellas de los bloques recortados o liberados ya no sirven
+            fat.setFingerprintIndex(indexTails());
+        }
+    }
+
     /**
      * Formatear el sistema completo.
      */
     public void format() {
+        defragmenter.stop();
+
+        volumeLock.writeLock().lock();
+        try {
+            if (!snapshots.isEmpty()) {
+                System.out.println("ERROR: Hay instantáneas; eliminarlas antes de formatear.");
+                return;
+            }
+            if (!writing.isEmpty() || fat.hasPins()) {
+                System.out.println("ERROR: Hay archivos abiertos; cerrarlos antes de formatear.");
+                return;
+            }
 
-        // Limpiar todas las estructuras
-        fat.format();
-        disk.format();
-        directory.clear();
+            // Limpiar todas las estructuras
+            fat.format();
+            disk.format();
+            tree.clear();
+            chunkIndexes.clear();
+            journal.format();
+            currentDirectory = DirectoryTree.SEPARATOR;
+        } finally {
+            volumeLock.writeLock().unlock();
+        }
 
         System.out.println(MSG_SYSTEM_FORMATTED);
     }
 
+    /**
+     * Tomar una instantánea del volumen con un nombre. Toma el volumen en modo
+     * exclusivo, así que espera a que terminen las operaciones en curso, y
+     * copia la FAT y el árbol de directorios; los datos no se copian. No se
+     * toma mientras haya archivos abiertos para escritura.
+     */
+    public void createSnapshot(String name) {
+        volumeLock.writeLock().lock();
+        try {
+            if (snapshots.containsKey(name)) {
+                System.out.println("ERROR: Ya existe una instantánea con el nombre '" + name + "'.");
+                return;
+            }
+
+            // Un escritor abierto sigue escribiendo su último bloque en su lugar: la instantánea lo vería cambiar
+            if (!writing.isEmpty()) {
+                System.out.println("ERROR: Hay archivos abiertos para escritura; cerrarlos antes de tomar una instantánea.");
+                return;
+            }
+
+            Snapshot snapshot = new Snapshot(name, disk, fat.snapshot(), fat, tree.copy(), readahead);
+            snapshots.put(name, snapshot);
+
+            System.out.println("Instantánea '" + name + "' creada: " + snapshot.countFiles() + " archivos, "
+                    + snapshot.countBlocks() + " bloques compartidos.");
+        } finally {
+            volumeLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Eliminar una instantánea y liberar los bloques que solo usaba ella.
+     */
+    public void deleteSnapshot(String name) {
+        Snapshot snapshot = snapshots.remove(name);
+        if (snapshot == null) {
+            System.out.println("ERROR: No existe la instantánea '" + name + "'.");
+            return;
+        }
+
+        // Que no se abran más lectores; los abiertos retienen sus bloques hasta cerrarse
+        snapshot.delete();
+
+        volumeLock.writeLock().lock();
+        try {
+            IntList released = new IntList();
+            fat.release(snapshot.getFat(), released);
+
+            for (int i = 0; i < released.size(); i++) {
+                disk.delete(released.get(i));
+            }
+
+            System.out.println("Instantánea '" + name + "' eliminada, " + released.size() + " bloques liberados.");
+        } finally {
+            volumeLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Instantánea con ese nombre, o null si no existe.
+     */
+    public Snapshot getSnapshot(String name) {
+        return snapshots.get(name);
+    }
+
+    public void listSnapshots() {
+        if (snapshots.isEmpty()) {
+            System.out.println("No hay instantáneas.");
+            return;
+        }
+
+        DateTimeFormatter formatter = DateTimeFormatter.ofLocalizedDateTime(FormatStyle.SHORT);
+
+        System.out.println("\n-----INSTANTÁNEAS-----");
+        snapshots.values().stream()
+                .sorted(Comparator.comparingLong(Snapshot::getCreatedTime))
+                .forEach(snapshot -> System.out.printf("%-15s | Creada: %s | %d archivos | %d bloques%n",
+                        snapshot.getName(), snapshot.getCreatedDate().format(formatter),
+                        snapshot.countFiles(), snapshot.countBlocks()));
+    }
+
+    /**
+     * Mostrar un archivo tal como estaba al tomar la instantánea. La ruta se
+     * resuelve desde el directorio actual.
+     */
+    public void readSnapshotFile(String name, String path) {
+        Snapshot snapshot = snapshots.get(name);
+        if (snapshot == null) {
+            System.out.println("ERROR: No existe la instantánea '" + name + "'.");
+            return;
+        }
+
+        ChainInputStream input = snapshot.openInput(absolute(path), 0, Long.MAX_VALUE);
+        if (input == null) {
+            System.out.println(MSG_FILE_NOT_FOUND);
+            return;
+        }
+
+        long total = print(input);
+        System.out.println("\n\nLeídos " + total + " bytes de la instantánea '" + name + "'.");
+    }
+
+    /**
+     * Listar un directorio tal como estaba al tomar la instantánea.
+     */
+    public void listSnapshotFiles(String name, String path) {
+        Snapshot snapshot = snapshots.get(name);
+        if (snapshot == null) {
+            System.out.println("ERROR: No existe la instantánea '" + name + "'.");
+            return;
+        }
+
+        Directory directory = snapshot.getDirectory(absolute(path));
+        if (directory == null) {
+            System.out.println(MSG_DIRECTORY_NOT_FOUND);
+            return;
+        }
+
+        directory.list();
+    }
+
+    /**
+     * Persistir y liberar el disco. El journal queda vacío para que el próximo
+     * montaje no tenga nada que recuperar.
+     */
+    public void close() {
+        defragmenter.stop();
+        readahead.stop();
+
+        volumeLock.writeLock().lock();
+        try {
+            journal.close();
+            disk.close();
+        } finally {
+            volumeLock.writeLock().unlock();
+        }
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,83 @@
+package services;
+
+import java.util.Collection;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Tabla de locks de lectura/escritura repartidos por nombre de archivo.
+ *
+ * Cada nombre cae en una franja fija de la tabla, así que operaciones sobre
+ * archivos distintos casi nunca comparten lock y la tabla no crece con la
+ * cantidad de archivos.
+ */
+public class LockTable {
+
+    private final ReadWriteLock[] stripes;
+    private final int mask;
+
+    public LockTable(int stripes) {
+        if (Integer.bitCount(stripes) != 1) {
+            throw new IllegalArgumentException("La cantidad de franjas debe ser potencia de 2: " + stripes);
+        }
+
+        this.stripes = new ReadWriteLock[stripes];
+        this.mask = stripes - 1;
+
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    private int stripeOf(String name) {
+        int hash = name.hashCode();
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    public ReadWriteLock lockFor(String name) {
+        return stripes[stripeOf(name)];
+    }
+
+    /**
+     * Tomar los locks de escritura de dos nombres siempre en el mismo orden,
+     * para que dos operaciones cruzadas no se bloqueen entre sí.
+     */
+    public void lockBoth(String first, String second) {
+        int a = stripeOf(first);
+        int b = stripeOf(second);
+
+        stripes[Math.min(a, b)].writeLock().lock();
+        if (a != b) {
+            stripes[Math.max(a, b)].writeLock().lock();
+        }
+    }
+
+    public void unlockBoth(String first, String second) {
+        int a = stripeOf(first);
+        int b = stripeOf(second);
+
+        if (a != b) {
+            stripes[Math.max(a, b)].writeLock().unlock();
+        }
+        stripes[Math.min(a, b)].writeLock().unlock();
+    }
+
+    /**
+     * Tomar los locks de escritura de varios nombres en orden de franja, como
+     * lockBoth. Devuelve las franjas tomadas, para soltarlas con unlockAll.
+     */
+    public int[] lockAll(Collection<String> names) {
+        int[] taken = names.stream().mapToInt(this::stripeOf).sorted().distinct().toArray();
+
+        for (int stripe : taken) {
+            stripes[stripe].writeLock().lock();
+        }
+        return taken;
+    }
+
+    public void unlockAll(int[] taken) {
+        for (int i = taken.length - 1; i >= 0; i--) {
+            stripes[taken[i]].writeLock().unlock();
+        }
+    }
+}
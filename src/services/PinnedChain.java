@@ -0,0 +1,63 @@
+package services;
+
+import models.ChainIndex;
+import models.Disk;
+import models.Fat;
+import models.IntList;
+
+/**
+ * Tramo de una cadena retenido en la Fat del volumen mientras lo lee un flujo
+ * (ver Fat.pin), en lugar de tener tomado el lock del archivo.
+ *
+ * Los bloques retenidos no se reutilizan ni se escriben en su lugar, así que
+ * el flujo sigue leyendo lo que había al abrirlo aunque el archivo se anexe,
+ * se borre o se desfragmente. Soltarlo borra del disco los bloques que el
+ * volumen liberó mientras tanto y recién después los devuelve a la Fat.
+ */
+class PinnedChain implements Runnable {
+
+    private final Fat fat;
+    private final Disk disk;
+    private final ChainIndex chain;
+    private final int from;
+    private final int to;
+
+    /**
+     * Retener las posiciones [from, to) de la cadena.
+     */
+    PinnedChain(Fat fat, Disk disk, ChainIndex chain, int from, int to) {
+        this.fat = fat;
+        this.disk = disk;
+        this.chain = fat.pin(chain, from, to);
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Retener los bloques que contienen los bytes [start, end) de la cadena.
+     */
+    static PinnedChain range(Fat fat, Disk disk, ChainIndex chain, long start, long end) {
+        int blockSize = disk.getGeometry().getBlockSize();
+        int from = (int) (start / blockSize);
+        int to = end > start ? (int) ((end - 1) / blockSize) + 1 : from;
+        return new PinnedChain(fat, disk, chain, from, to);
+    }
+
+    /**
+     * Copia de la cadena tomada al retenerla; no cambia aunque el archivo sí.
+     */
+    ChainIndex chain() {
+        return chain;
+    }
+
+    @Override
+    public void run() {
+        IntList released = new IntList();
+        fat.unpin(chain, from, to, released);
+
+        for (int i = 0; i < released.size(); i++) {
+            disk.delete(released.get(i));
+        }
+        fat.releaseBlocks(released);
+    }
+}
@@ -0,0 +1,75 @@
+package services;
+
+import models.Disk;
+import models.IntList;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static constants.Constants.*;
+
+/**
+ * Lectura anticipada de bloques en un hilo de fondo.
+ *
+ * Los lectores secuenciales (ver ChainInputStream) piden los bloques que siguen en
+ * su cadena y este hilo los trae del medio mientras el lector consume los
+ * anteriores. Es solo una ayuda: si la cola está llena el pedido se descarta,
+ * y lo que se trae no cambia ningún contenido.
+ */
+class Readahead {
+
+    private final Disk disk;
+    private final ThreadPoolExecutor executor;
+
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    Readahead(Disk disk) {
+        this.disk = disk;
+        this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(READAHEAD_QUEUE_SIZE),
+                task -> {
+                    Thread thread = new Thread(task, "lectura anticipada");
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                (task, pool) -> dropped.incrementAndGet());
+    }
+
+    /**
+     * Pedir que se traigan unos bloques, en el orden de la cadena. done se
+     * ejecuta en el hilo de fondo cuando ya están.
+     */
+    void submit(IntList blocks, Runnable done) {
+        requested.addAndGet(blocks.size());
+        executor.execute(() -> {
+            disk.prefetch(blocks);
+            done.run();
+        });
+    }
+
+    /**
+     * Descartar los pedidos pendientes y esperar al que está en curso.
+     */
+    void stop() {
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    long getRequested() {
+        return requested.get();
+    }
+
+    /**
+     * Pedidos descartados porque la cola estaba llena.
+     */
+    long getDropped() {
+        return dropped.get();
+    }
+}
@@ -0,0 +1,149 @@
+package services;
+
+import models.DirectoryTree;
+import models.Disk;
+import models.Fat;
+import models.IntList;
+import models.Journal;
+import models.Transaction;
+
+import static constants.Constants.*;
+
+/**
+ * Revisión del volumen con ConsistencyCheck, su informe y la reparación de lo
+ * que encuentra (ver FileSystem.check). Reparar:
+ *
+ * - quita las entradas cuyo primer bloque no es válido;
+ * - corta las cadenas en un enlace roto, un enlace a un directorio o un
+ *   ciclo, y vuelve a marcar como fin de archivo el bloque de cada directorio;
+ * - recorta la cadena y ajusta el tamaño de los archivos donde no
+ *   coinciden, salvo que esa parte la comparta con otro archivo;
+ * - libera los bloques ocupados que no usa ningún archivo;
+ * - vuelve a contar las cadenas que llegan a cada bloque.
+ *
+ * Cada paso se confirma en el journal y revisa de nuevo antes del siguiente,
+ * porque cortar cadenas cambia los tamaños y los bloques sueltos que ve.
+ * FileSystem lo usa con el volumen tomado en modo exclusivo.
+ */
+class Repair {
+
+    private final FileSystem fileSystem;
+    private final Disk disk;
+    private final Fat fat;
+    private final DirectoryTree tree;
+    private final Journal journal;
+    private final ConsistencyCheck check;
+
+    Repair(FileSystem fileSystem, Disk disk, Fat fat, DirectoryTree tree, Journal journal) {
+        this.fileSystem = fileSystem;
+        this.disk = disk;
+        this.fat = fat;
+        this.tree = tree;
+        this.journal = journal;
+        this.check = new ConsistencyCheck(disk, fat, tree);
+    }
+
+    /**
+     * Revisar el volumen e imprimir el informe.
+     */
+    ConsistencyCheck.Result check() {
+        ConsistencyCheck.Result result = check.run();
+        print(result);
+        return result;
+    }
+
+    /**
+     * Reparar lo que encontró una revisión. Devuelve los problemas que quedan.
+     */
+    int repair(ConsistencyCheck.Result result) {
+        // Primero la forma de las cadenas; cortarlas puede dejar bloques sueltos y tamaños de más
+        cutChains(result);
+
+        // Con las cadenas ya cortadas, recortar lo que sobra de cada archivo
+        trimFiles(check.run());
+
+        // Los bloques que quedaron sin archivo se liberan al final, cuando ya no los alcanza ninguna cadena
+        IntList orphans = check.run().orphanBlocks();
+        Transaction transaction = new Transaction();
+        transaction.free(orphans);
+        fileSystem.commit(transaction, orphans);
+
+        fileSystem.reindex();
+
+        result = check.run();
+        System.out.println("Después de reparar: " + result.problems() + " problemas.");
+        return result.problems();
+    }
+
+    private void cutChains(ConsistencyCheck.Result result) {
+        Transaction transaction = new Transaction();
+        for (ConsistencyCheck.FileCheck file : result.invalidFiles) {
+            tree.remove(file.parent.getId(), file.metadata.getName());
+            transaction.removeFile(file.parent.getId(), file.metadata.getName());
+        }
+        for (ConsistencyCheck.FileCheck file : result.cutFiles) {
+            fat.markAsEndOfFile(file.metadata.getFirstBlock(), file.cut);
+            transaction.endOfFile(file.cut);
+        }
+        for (int i = 0; i < result.badDirectories.size(); i++) {
+            // Un directorio ocupa un solo bloque, que es también el primero de su cadena
+            fat.markAsEndOfFile(result.badDirectories.get(i), result.badDirectories.get(i));
+            transaction.endOfFile(result.badDirectories.get(i));
+        }
+        journal.commit(transaction);
+    }
+
+    private void trimFiles(ConsistencyCheck.Result result) {
+        int blockSize = disk.getGeometry().getBlockSize();
+        Transaction transaction = new Transaction();
+
+        for (ConsistencyCheck.FileCheck file : result.sizeMismatches) {
+            if (!file.repairable) continue;
+
+            int lastBlock = file.chain.blockAt(file.keepBlocks - 1);
+            if (file.keepBlocks < file.chain.size()) {
+                fat.markAsEndOfFile(file.metadata.getFirstBlock(), lastBlock);
+                transaction.endOfFile(lastBlock);
+            }
+            if (blockSize - disk.getAvailableSpace(lastBlock) != file.lastLength) {
+                disk.write(lastBlock, disk.readBlock(lastBlock), 0, file.lastLength);
+            }
+
+            file.parent.update(file.metadata, file.size, System.currentTimeMillis());
+            transaction.putFile(file.metadata);
+        }
+        journal.commit(transaction);
+    }
+
+    private static void print(ConsistencyCheck.Result result) {
+        System.out.println("\n-----REVISIÓN DEL VOLUMEN-----");
+        System.out.printf("Revisados:          %d archivos, %d directorios, %d bloques\n",
+                result.files, result.directories, result.blocks);
+        System.out.printf("Tiempo:             %d ms (%d hilos)\n", result.millis, result.parallelism);
+
+        if (result.problems() == 0) {
+            System.out.println("Sin problemas.");
+            return;
+        }
+
+        System.out.println("\nPROBLEMAS:");
+        System.out.printf("Entradas inválidas: %d\n", result.invalidFiles.size());
+        System.out.printf("Enlaces rotos:      %d\n", result.badLinks);
+        System.out.printf("Ciclos:             %d\n", result.cycles);
+        System.out.printf("Cruces:             %d a directorios, %d cuentas de referencias\n",
+                result.directoryLinks, result.referenceMismatches.length);
+        System.out.printf("Directorios:        %d sin fin de archivo\n", result.badDirectories.size());
+        System.out.printf("Tamaños:            %d no coinciden\n", result.sizeMismatches.size());
+        System.out.printf("Bloques huérfanos:  %d\n", result.orphans.length);
+        System.out.printf("Total:              %d\n", result.problems());
+
+        System.out.println();
+        int shown = Math.min(result.messages.size(), CHECK_REPORT_LIMIT);
+        for (int i = 0; i < shown; i++) {
+            System.out.println("  " + result.messages.get(i));
+        }
+        if (shown < result.messages.size()) {
+            System.out.println("  ... y " + (result.messages.size() - shown) + " más.");
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package services;
+
+import models.Directory;
+import models.DirectoryTree;
+import models.ChainIndex;
+import models.ChunkIndex;
+import models.Disk;
+import models.Fat;
+import models.MetadataFile;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Instantánea del volumen: copia congelada de la FAT y del árbol de
+ * directorios tomada en un instante (ver FileSystem.createSnapshot).
+ *
+ * Los bloques de datos no se copian, se comparten con el volumen. La Fat del
+ * volumen cuenta cuántas instantáneas usan cada bloque: uno que el volumen
+ * libera no se reutiliza mientras alguna lo use, y antes de escribir en uno
+ * compartido el sistema de archivos lo copia a un bloque nuevo. Así lo que se
+ * lee de una instantánea no cambia aunque el volumen se siga modificando, y
+ * leerla no toma ningún lock del volumen.
+ *
+ * Cada lector retiene en la Fat del volumen los bloques que lee (ver
+ * PinnedChain), así que borrar la instantánea no espera a que se cierren: esos
+ * bloques siguen ocupados hasta entonces. Las instantáneas viven en memoria y
+ * no sobreviven al desmontar el volumen.
+ */
+public class Snapshot {
+
+    private final String name;
+    private final long createdTime;
+    private final Disk disk;
+    private final Fat fat;
+    // Fat del volumen, donde los lectores retienen sus bloques
+    private final Fat volume;
+    private final DirectoryTree tree;
+    private final Readahead readahead;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private boolean deleted;
+
+    Snapshot(String name, Disk disk, Fat fat, Fat volume, DirectoryTree tree, Readahead readahead) {
+        this.name = name;
+        this.createdTime = System.currentTimeMillis();
+        this.disk = disk;
+        this.fat = fat;
+        this.volume = volume;
+        this.tree = tree;
+        this.readahead = readahead;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCreatedTime() {
+        return createdTime;
+    }
+
+    public LocalDateTime getCreatedDate() {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(createdTime), ZoneId.systemDefault());
+    }
+
+    public int countFiles() {
+        return tree.countFiles();
+    }
+
+    /**
+     * Bloques que usa la instantánea, compartidos o no con el volumen.
+     */
+    public int countBlocks() {
+        return fat.countUsedBlocks();
+    }
+
+    Fat getFat() {
+        return fat;
+    }
+
+    /**
+     * Abrir un flujo sobre los bytes [offset, offset + length) de un archivo de
+     * la instantánea, dado por su ruta absoluta normalizada. Devuelve null si
+     * el archivo no existe o la instantánea ya se borró.
+     */
+    public ChainInputStream openInput(String path, long offset, long length) {
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException("Posición y longitud deben ser positivas.");
+        }
+
+        // El lock solo cubre la apertura: que delete no libere los bloques antes de retenerlos
+        lock.readLock().lock();
+        try {
+            MetadataFile metadata = deleted ? null : findFile(path);
+            if (metadata == null) return null;
+
+            long size = metadata.getSize();
+            long start = Math.min(offset, size);
+            long end = start + Math.min(length, size - start);
+
+            ChainIndex chain = fat.getChainIndex(metadata.getFirstBlock());
+            if (metadata.isCompressed()) {
+                PinnedChain pinned = new PinnedChain(volume, disk, chain, 0, chain.size());
+                try {
+                    // Los tramos no se recuerdan entre lecturas: la instantánea no cambia pero se lee poco
+                    ChunkIndex chunks = new ChunkIndex();
+                    chunks.extend(disk, pinned.chain(), size);
+                    return new ChainInputStream(disk, pinned.chain(), chunks, start, end, pinned);
+                } catch (RuntimeException e) {
+                    pinned.run();
+                    throw e;
+                }
+            }
+
+            PinnedChain pinned = PinnedChain.range(volume, disk, chain, start, end);
+            return new ChainInputStream(disk, pinned.chain(), start, end, pinned, readahead);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private MetadataFile findFile(String path) {
+        Directory parent = tree.resolveDirectory(DirectoryTree.parentPath(path));
+        MetadataFile metadata = parent == null ? null : parent.getMetadata(DirectoryTree.leafName(path));
+        return metadata == null || metadata.isDirectory() ? null : metadata;
+    }
+
+    /**
+     * Directorio de la instantánea con esa ruta absoluta normalizada, o null si no existe.
+     */
+    public Directory getDirectory(String path) {
+        return tree.resolveDirectory(path);
+    }
+
+    /**
+     * Marcar la instantánea como borrada. Espera solo a los lectores que se
+     * están abriendo; los ya abiertos siguen leyendo sus bloques retenidos.
+     */
+    void delete() {
+        lock.writeLock().lock();
+        try {
+            deleted = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
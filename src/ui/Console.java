@@ -1,9 +1,13 @@
 package ui;
 
+import models.Directory;
 import services.FileSystem;
 
+import java.nio.file.Path;
 import java.util.Scanner;
 
+import static constants.Constants.DEFAULT_DEFRAG_RATE;
+
 public class Console {
 
     private FileSystem fileSystem;
@@ -11,7 +15,11 @@ public class Console {
     private boolean running;
 
     public Console() {
-        this.fileSystem = new FileSystem();
+        this(new FileSystem());
+    }
+
+    public Console(FileSystem fileSystem) {
+        this.fileSystem = fileSystem;
         this.scanner = new Scanner(System.in);
         this.running = true;
     }
@@ -20,7 +28,7 @@ public class Console {
         showHelp();
 
         while (running) {
-            System.out.print("\nFAT> ");
+            System.out.print("\nFAT:" + fileSystem.getCurrentDirectory() + "> ");
             String input = scanner.nextLine().trim();
 
             if (input.isEmpty()) continue;
@@ -29,6 +37,7 @@ public class Console {
         }
 
         scanner.close();
+        fileSystem.close();
         System.out.println("Saliendo...");
     }
 
@@ -42,11 +51,23 @@ public class Console {
         else if (command.equals("read")) {
             commandRead(parts);
         }
-        else if (command.equals("rename")) {
+        else if (command.equals("import")) {
+            commandImport(parts);
+        }
+        else if (command.equals("rename") || command.equals("mv")) {
             commandRename(parts);
         }
-        else if (command.equals("list")) {
-            commandList();
+        else if (command.equals("list") || command.equals("ls")) {
+            commandList(parts);
+        }
+        else if (command.equals("mkdir")) {
+            commandMakeDirectory(parts);
+        }
+        else if (command.equals("cd")) {
+            commandChangeDirectory(parts);
+        }
+        else if (command.equals("pwd")) {
+            System.out.println(fileSystem.getCurrentDirectory());
         }
         else if (command.equals("delete")) {
             commandDelete(parts);
@@ -60,6 +81,24 @@ public class Console {
         else if (command.equals("stats")) {
             commandStats();
         }
+        else if (command.equals("policy")) {
+            commandPolicy(parts);
+        }
+        else if (command.equals("defrag")) {
+            commandDefrag(parts);
+        }
+        else if (command.equals("snapshot")) {
+            commandSnapshot(parts);
+        }
+        else if (command.equals("dedup")) {
+            commandDedup(parts);
+        }
+        else if (command.equals("compress")) {
+            commandCompress(parts);
+        }
+        else if (command.equals("check")) {
+            commandCheck(parts);
+        }
         else if (command.equals("format")) {
             commandFormat();
         }
@@ -96,16 +135,43 @@ public class Console {
     private void commandRead(String[] parts) {
 
         if (parts.length < 2) {
-            System.out.println("Uso: read <nombre>");
+            System.out.println("Uso: read <nombre> [posición] [longitud]");
             return;
         }
 
-        fileSystem.readFile(parts[1]);
+        String[] args = parts[1].split("\\s+");
+        if (args.length == 1) {
+            fileSystem.readFile(args[0]);
+            return;
+        }
+
+        try {
+            long offset = Long.parseLong(args[1]);
+            long length = args.length > 2 ? Long.parseLong(args[2]) : Long.MAX_VALUE;
+            fileSystem.readFile(args[0], offset, length);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Posición y longitud deben ser números positivos.");
+        }
+    }
+
+    private void commandImport(String[] parts) {
+        if (parts.length < 2) {
+            System.out.println("Uso: import <rutaAnfitrión> <nombre>");
+            return;
+        }
+
+        String[] args = parts[1].split("\\s+");
+        if (args.length < 2) {
+            System.out.println("Ruta de origen y nombre requeridos.");
+            return;
+        }
+
+        fileSystem.importFile(Path.of(args[0]), args[1]);
     }
 
     private void commandRename(String[] parts) {
         if (parts.length < 2) {
-            System.out.println("Uso: rename <nombreActual> <nombreNuevo>");
+            System.out.println("Uso: mv <rutaActual> <rutaNueva>");
             return;
         }
 
@@ -118,8 +184,47 @@ public class Console {
         fileSystem.renameFile(names[0], names[1]);
     }
 
-    private void commandList() {
-        fileSystem.listFiles();
+    private void commandList(String[] parts) {
+        String pattern = ".";
+        Directory.Order order = Directory.Order.NAME;
+
+        if (parts.length > 1) {
+            for (String arg : parts[1].trim().split("\\s+")) {
+                if (arg.startsWith("-")) {
+                    try {
+                        order = Directory.Order.forName(arg.substring(1));
+                    } catch (IllegalArgumentException e) {
+                        System.out.println(e.getMessage() + " (opciones: -name, -size, -time)");
+                        return;
+                    }
+                } else {
+                    pattern = arg;
+                }
+            }
+        }
+
+        // Mostrar de a una página, preguntando antes de seguir
+        Directory.Cursor cursor = fileSystem.listFiles(pattern, order, null);
+        while (cursor != null) {
+            System.out.print("-- Enter para ver más, q para terminar -- ");
+            if (scanner.nextLine().trim().equalsIgnoreCase("q")) return;
+
+            cursor = fileSystem.listFiles(pattern, order, cursor);
+        }
+    }
+
+    private void commandMakeDirectory(String[] parts) {
+        if (parts.length < 2) {
+            System.out.println("Uso: mkdir <ruta>");
+            return;
+        }
+
+        fileSystem.makeDirectory(parts[1].trim());
+    }
+
+    private void commandChangeDirectory(String[] parts) {
+        // Sin argumento vuelve al raíz
+        fileSystem.changeDirectory(parts.length < 2 ? "/" : parts[1].trim());
     }
 
     private void commandDelete(String[] parts) {
@@ -149,6 +254,95 @@ public class Console {
         fileSystem.showStatus();
     }
 
+    private void commandPolicy(String[] parts) {
+        if (parts.length < 2) {
+            fileSystem.showAllocationPolicy();
+            return;
+        }
+
+        fileSystem.setAllocationPolicy(parts[1].trim());
+    }
+
+    private void commandDefrag(String[] parts) {
+        String[] args = parts.length < 2 ? new String[] {"start"} : parts[1].trim().split("\\s+");
+
+        switch (args[0].toLowerCase()) {
+            case "start" -> {
+                try {
+                    int rate = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_DEFRAG_RATE;
+                    fileSystem.startDefrag(rate);
+                } catch (NumberFormatException e) {
+                    System.out.println("El límite debe ser un número de bloques por segundo.");
+                }
+            }
+            case "stop" -> fileSystem.stopDefrag();
+            case "status" -> fileSystem.showDefragStatus();
+            default -> System.out.println("Uso: defrag [start [bloques/s] | stop | status]");
+        }
+    }
+
+    private void commandSnapshot(String[] parts) {
+        String[] args = parts.length < 2 ? new String[] {"list"} : parts[1].trim().split("\\s+");
+        String usage = "Uso: snapshot [list | create <nombre> | delete <nombre> | read <nombre> <ruta> | ls <nombre> [ruta]]";
+
+        switch (args[0].toLowerCase()) {
+            case "list" -> fileSystem.listSnapshots();
+            case "create" -> {
+                if (args.length < 2) System.out.println(usage);
+                else fileSystem.createSnapshot(args[1]);
+            }
+            case "delete" -> {
+                if (args.length < 2) System.out.println(usage);
+                else fileSystem.deleteSnapshot(args[1]);
+            }
+            case "read" -> {
+                if (args.length < 3) System.out.println(usage);
+                else fileSystem.readSnapshotFile(args[1], args[2]);
+            }
+            case "ls" -> {
+                if (args.length < 2) System.out.println(usage);
+                else fileSystem.listSnapshotFiles(args[1], args.length > 2 ? args[2] : ".");
+            }
+            default -> System.out.println(usage);
+        }
+    }
+
+    private void commandDedup(String[] parts) {
+        if (parts.length < 2) {
+            fileSystem.showDeduplication();
+            return;
+        }
+
+        switch (parts[1].trim().toLowerCase()) {
+            case "on" -> fileSystem.setDeduplication(true);
+            case "off" -> fileSystem.setDeduplication(false);
+            default -> System.out.println("Uso: dedup [on | off]");
+        }
+    }
+
+    private void commandCompress(String[] parts) {
+        if (parts.length < 2) {
+            fileSystem.showCompression();
+            return;
+        }
+
+        switch (parts[1].trim().toLowerCase()) {
+            case "on" -> fileSystem.setCompression(true);
+            case "off" -> fileSystem.setCompression(false);
+            default -> System.out.println("Uso: compress [on | off]");
+        }
+    }
+
+    private void commandCheck(String[] parts) {
+        if (parts.length < 2) {
+            fileSystem.check(false);
+        } else if (parts[1].trim().equalsIgnoreCase("repair")) {
+            fileSystem.check(true);
+        } else {
+            System.out.println("Uso: check [repair]");
+        }
+    }
+
     private void commandFormat() {
         System.out.println("\nEsta operación eliminará TODOS los archivos.");
         System.out.print("¿Está seguro de que desea continuar? (S/N): ");
@@ -167,13 +361,23 @@ public class Console {
         System.out.println("\n       -----COMANDOS DISPONIBLES-----              ");
 
         System.out.println("save <name> <content>      - Guardar archivo");
-        System.out.println("read <name>                - Leer archivo");
-        System.out.println("rename <name> <newName>    - Renombrar archivo");
-        System.out.println("list                       - Listar archivos");
-        System.out.println("delete <name>              - Eliminar archivo");
+        System.out.println("read <name> [pos] [len]    - Leer archivo (o un tramo)");
+        System.out.println("import <path> <name>       - Importar archivo del anfitrión");
+        System.out.println("mv <path> <newPath>        - Renombrar o mover archivo o directorio");
+        System.out.println("ls [-name|-size|-time] [path|prefix*] - Listar archivos por páginas");
+        System.out.println("mkdir <path>               - Crear directorio");
+        System.out.println("cd [path]                  - Cambiar de directorio (sin ruta, al raíz)");
+        System.out.println("pwd                        - Mostrar directorio actual");
+        System.out.println("delete <path>              - Eliminar archivo o directorio vacío");
         System.out.println("blocks <name>              - Ver bloques de archivo");
         System.out.println("stats                      - Ver estadísticas del sistema");
         System.out.println("status                     - Estado detallado del sistema");
+        System.out.println("policy [first|best|next]   - Ver o cambiar política de asignación");
+        System.out.println("defrag [start [n]|stop|status] - Desfragmentar en segundo plano");
+        System.out.println("snapshot [list|create|delete|read|ls] <name> - Instantáneas del volumen");
+        System.out.println("dedup [on|off]             - Ver o cambiar la deduplicación de archivos nuevos");
+        System.out.println("compress [on|off]          - Ver o cambiar la compresión de archivos nuevos");
+        System.out.println("check [repair]             - Revisar la FAT y los directorios (y reparar)");
         System.out.println("format                     - Formatear sistema");
         System.out.println("clear                      - Limpiar consola");
         System.out.println("help                       - Mostrar ayuda");
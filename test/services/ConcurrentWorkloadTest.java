@@ -0,0 +1,220 @@
+package services;
+
+import models.Directory;
+import models.DirectoryTree;
+import models.Fat;
+import models.Geometry;
+import models.MetadataFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static constants.Constants.AVAILABLE_BLOCK;
+import static constants.Constants.END_OF_FILE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Varios hilos guardan, anexan, leen, borran y renombran sobre un mismo
+ * conjunto de nombres, con flujos abiertos mientras hacen otras operaciones.
+ * Al terminar, sin deduplicación ni instantáneas, cada bloque ocupado tiene
+ * que pertenecer a una sola cadena que termina en END_OF_FILE, y los libres
+ * tienen que ser exactamente los que no alcanza ningún archivo.
+ */
+class ConcurrentWorkloadTest {
+
+    private static final int THREADS = 4;
+    private static final int OPERATIONS = 1500;
+    private static final int NAMES = 12;
+    private static final int BLOCK_SIZE = 64;
+
+    // Cada archivo es una sucesión de registros de este largo; uno a medias o en cero es un bloque perdido
+    private static final int RECORD = 16;
+
+    private PrintStream out;
+    private FileSystem fileSystem;
+
+    @BeforeEach
+    void setUp() {
+        // Cada operación informa por consola; acá solo interesa el estado final
+        out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        fileSystem = new FileSystem(Geometry.of(4096, BLOCK_SIZE));
+        fileSystem.makeDirectory("/dir");
+    }
+
+    @AfterEach
+    void tearDown() {
+        fileSystem.close();
+        System.setOut(out);
+    }
+
+    @Test
+    void mixedWorkloadKeepsChainsConsistent() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            long seed = t;
+            workers.add(pool.submit(() -> {
+                work(new Random(seed));
+                return null;
+            }));
+        }
+
+        pool.shutdown();
+        if (!pool.awaitTermination(60, TimeUnit.SECONDS)) {
+            pool.shutdownNow();
+            fail("La carga no terminó: algún hilo quedó bloqueado.");
+        }
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+
+        assertChainsConsistent();
+        assertEquals(0, fileSystem.check(false));
+    }
+
+    private void work(Random random) throws IOException {
+        for (int i = 0; i < OPERATIONS; i++) {
+            String path = path(random);
+
+            switch (random.nextInt(8)) {
+                case 0, 1 -> fileSystem.saveFile(path, records(random, 1 + random.nextInt(12)));
+                case 2 -> {
+                    Map<String, byte[]> batch = new LinkedHashMap<>();
+                    batch.put(path, records(random, 1 + random.nextInt(6)));
+                    batch.put(path(random), records(random, 1 + random.nextInt(6)));
+                    fileSystem.saveAll(batch);
+                }
+                case 3 -> read(random, path);
+                case 4 -> write(random, path);
+                case 5 -> fileSystem.deleteFile(path);
+                case 6 -> fileSystem.deleteAll(List.of(path, path(random)));
+                default -> fileSystem.renameFile(path, path(random));
+            }
+        }
+    }
+
+    /**
+     * Leer un archivo entero mientras el mismo hilo lo modifica.
+     */
+    private void read(Random random, String path) throws IOException {
+        try (ChainInputStream input = fileSystem.openInput(path, 0, Long.MAX_VALUE)) {
+            if (input == null) return;
+            long size = input.remaining();
+
+            fileSystem.saveFile(path, records(random, 1));
+            if (random.nextBoolean()) fileSystem.deleteFile(path);
+
+            byte[] content = input.readAllBytes();
+            assertEquals(size, content.length, "Lectura cortada en " + path);
+            assertRecords(content, path);
+        }
+    }
+
+    /**
+     * Escribir con un flujo, copiando otro archivo y tocando ambos con el flujo abierto.
+     */
+    private void write(Random random, String path) throws IOException {
+        String source = path(random);
+        OutputStream output = fileSystem.openOutput(path);
+        if (output == null) return;
+
+        try (output) {
+            output.write(records(random, 1 + random.nextInt(8)));
+            fileSystem.saveFile(path, records(random, 1));
+
+            try (InputStream input = fileSystem.openInput(source, 0, Long.MAX_VALUE)) {
+                if (input != null) input.transferTo(output);
+            }
+            fileSystem.deleteFile(source);
+        }
+    }
+
+    private static String path(Random random) {
+        int name = random.nextInt(NAMES);
+        return (name % 3 == 0 ? "/dir/" : "/") + "f" + name;
+    }
+
+    private static byte[] records(Random random, int count) {
+        StringBuilder content = new StringBuilder(count * RECORD);
+        for (int i = 0; i < count; i++) {
+            content.append(String.format("r%014d\n", random.nextLong(100_000_000_000_000L)));
+        }
+        return content.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static void assertRecords(byte[] content, String path) {
+        assertEquals(0, content.length % RECORD, "Registro cortado en " + path);
+        for (int i = 0; i < content.length; i += RECORD) {
+            assertTrue(content[i] == 'r' && content[i + RECORD - 1] == '\n',
+                    "Registro dañado en " + path + " en la posición " + i);
+        }
+    }
+
+    /**
+     * Recorrer la FAT desde cada archivo y directorio del árbol.
+     */
+    private void assertChainsConsistent() {
+        Fat fat = fileSystem.getFat();
+        DirectoryTree tree = fileSystem.getTree();
+        Geometry geometry = fileSystem.getGeometry();
+
+        int[] table = fat.copyTable();
+        int first = geometry.getFirstAvailableBlock();
+        String[] owners = new String[table.length];
+        int reachable = 0;
+
+        for (Directory directory : tree.directories()) {
+            for (MetadataFile entry : directory.entries()) {
+                String owner = directory.getId() + "/" + entry.getName();
+                int blocks = 0;
+
+                int block = entry.getFirstBlock();
+                while (block != END_OF_FILE) {
+                    assertTrue(block >= first && block < table.length, owner + ": enlace fuera del volumen " + block);
+                    assertFalse(table[block] == AVAILABLE_BLOCK, owner + ": alcanza el bloque libre " + block);
+                    if (owners[block] != null) {
+                        fail(owner + " y " + owners[block] + " alcanzan el mismo bloque " + block);
+                    }
+
+                    owners[block] = owner;
+                    reachable++;
+                    blocks++;
+                    block = table[block];
+                }
+
+                if (entry.isDirectory()) {
+                    assertEquals(1, blocks, owner + ": un directorio ocupa un bloque");
+                } else {
+                    long expected = Math.max(1, (entry.getSize() + BLOCK_SIZE - 1) / BLOCK_SIZE);
+                    assertEquals(expected, blocks, owner + ": la cadena no coincide con el tamaño");
+                }
+            }
+        }
+
+        int used = (int) Arrays.stream(table, first, table.length).filter(next -> next != AVAILABLE_BLOCK).count();
+        assertEquals(reachable, used, "Bloques ocupados que no alcanza ningún archivo");
+        assertEquals(geometry.getDataBlocks() - reachable, fat.countAvailableBlocks(), "Cuenta de bloques libres");
+        assertFalse(fat.hasPins(), "Quedaron bloques retenidos por flujos cerrados");
+    }
+}